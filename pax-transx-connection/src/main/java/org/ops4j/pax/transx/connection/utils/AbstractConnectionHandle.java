@@ -15,7 +15,9 @@
  */
 package org.ops4j.pax.transx.connection.utils;
 
+import javax.resource.ResourceException;
 import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.LazyAssociatableConnectionManager;
 
 public abstract class AbstractConnectionHandle<
         MCF extends AbstractManagedConnectionFactory<MCF, MC, C, CI>,
@@ -25,7 +27,7 @@ public abstract class AbstractConnectionHandle<
 
     protected final MCF mcf;
     protected final ConnectionRequestInfo cri;
-    protected final MC mc;
+    protected volatile MC mc;
 
     protected volatile boolean closed = false;
 
@@ -44,6 +46,38 @@ public abstract class AbstractConnectionHandle<
     public void cleanup() {
     }
 
+    void associate(MC mc) {
+        this.mc = mc;
+    }
+
+    void dissociate() {
+        this.mc = null;
+    }
+
+    /**
+     * Whether the managed connection is not needed anymore after the current call,
+     * so that it can be returned to the pool until this handle is used again.
+     * Only used when the managed connection factory supports lazy association.
+     */
+    protected boolean canDissociate() {
+        return false;
+    }
+
+    /**
+     * Release the managed connection if the handle can be lazily re-associated.
+     */
+    @SuppressWarnings("unchecked")
+    protected void releaseIfIdle() {
+        MC mc = this.mc;
+        if (mc != null && !closed && mcf.getLazyConnectionManager() != null && canDissociate()) {
+            synchronized (this) {
+                if (this.mc == mc && !closed) {
+                    mc.dissociateConnection((CI) this);
+                }
+            }
+        }
+    }
+
     public void close() {
         if (!closed) {
             synchronized (this) {
@@ -57,11 +91,22 @@ public abstract class AbstractConnectionHandle<
 
     @SuppressWarnings("unchecked")
     protected void doClose() {
-        mc.connectionClosed((CI) this);
+        MC mc = this.mc;
+        if (mc != null) {
+            mc.connectionClosed((CI) this);
+        } else {
+            LazyAssociatableConnectionManager cm = mcf.getLazyConnectionManager();
+            if (cm != null) {
+                cm.inactiveConnectionClosed(this, mcf);
+            }
+        }
     }
 
     public void connectionError(Exception e) {
-        mc.connectionError(e);
+        MC mc = this.mc;
+        if (mc != null) {
+            mc.connectionError(e);
+        }
     }
 
     protected abstract <E extends Exception> E wrapException(String msg, Exception e);
@@ -70,6 +115,28 @@ public abstract class AbstractConnectionHandle<
         if (isClosed()) {
             throw this.<E>wrapException("Connection has been closed", null);
         }
+        MC mc = this.mc;
+        if (mc == null) {
+            mc = reassociate();
+        }
+        return mc;
+    }
+
+    private synchronized <E extends Exception> MC reassociate() throws E {
+        if (mc == null) {
+            LazyAssociatableConnectionManager cm = mcf.getLazyConnectionManager();
+            if (cm == null) {
+                throw this.<E>wrapException("Connection is not associated with a managed connection", null);
+            }
+            try {
+                cm.associateConnection(this, mcf, cri);
+            } catch (ResourceException e) {
+                throw this.<E>wrapException("Unable to associate connection", e);
+            }
+            if (mc == null) {
+                throw this.<E>wrapException("Connection is not associated with a managed connection", null);
+            }
+        }
         return mc;
     }
 
@@ -84,6 +151,7 @@ public abstract class AbstractConnectionHandle<
     protected <E extends Exception> void execute(Runnable<C> cb) throws E {
         try {
             cb.run(getManagedConnection().getPhysicalConnection());
+            releaseIfIdle();
         } catch (Exception e) {
             connectionError(e);
             throw this.<E>wrapException(null, e);
@@ -92,7 +160,9 @@ public abstract class AbstractConnectionHandle<
 
     protected <E extends Exception, R> R call(Callable<C, R> cb) throws E {
         try {
-            return cb.call(getManagedConnection().getPhysicalConnection());
+            R result = cb.call(getManagedConnection().getPhysicalConnection());
+            releaseIfIdle();
+            return result;
         } catch (Exception e) {
             connectionError(e);
             throw this.<E>wrapException(null, e);
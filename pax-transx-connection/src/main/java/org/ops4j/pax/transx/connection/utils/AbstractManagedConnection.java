@@ -16,14 +16,15 @@
 package org.ops4j.pax.transx.connection.utils;
 
 import java.io.PrintWriter;
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.function.BiConsumer;
 import javax.resource.NotSupportedException;
 import javax.resource.ResourceException;
 import javax.resource.spi.ConnectionEvent;
 import javax.resource.spi.ConnectionEventListener;
 import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.DissociatableManagedConnection;
 import javax.resource.spi.LocalTransaction;
 import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.ManagedConnectionMetaData;
@@ -40,12 +41,12 @@ public abstract class AbstractManagedConnection<
         MC extends AbstractManagedConnection<MCF, MC, C, CI>,
         C,
         CI extends AbstractConnectionHandle<MCF, MC, C, CI>>
-            implements ManagedConnection {
+            implements ManagedConnection, DissociatableManagedConnection {
 
     protected final MCF mcf;
     protected CI handle;
-    protected LinkedList<CI> handles;
-    protected ArrayDeque<ConnectionEventListener> listeners;
+    protected ArrayList<CI> handles;
+    protected ArrayList<ConnectionEventListener> listeners;
     protected final CredentialExtractor credentialExtractor;
     protected final ExceptionSorter exceptionSorter;
 
@@ -59,8 +60,15 @@ public abstract class AbstractManagedConnection<
     protected XAResource xaResource;
     protected boolean inXaTransaction;
 
+    private volatile boolean pendingUpdates;
+
     private ConnectionEventListener listener;
 
+    // last subject and request info whose credentials matched this connection
+    private boolean verified;
+    private Subject verifiedSubject;
+    private ConnectionRequestInfo verifiedCri;
+
     public AbstractManagedConnection(MCF mcf, CredentialExtractor credentialExtractor, ExceptionSorter exceptionSorter) {
         assert exceptionSorter != null;
         this.mcf = mcf;
@@ -103,13 +111,14 @@ public abstract class AbstractManagedConnection<
      * @throws ResourceException
      */
     public void cleanup() throws ResourceException {
+        pendingUpdates = false;
         if (handle != null) {
             handle.cleanup();
             handle = null;
         }
         if (handles != null) {
             handles.forEach(AbstractConnectionHandle::cleanup);
-            handles = null;
+            handles.clear();
         }
     }
 
@@ -120,21 +129,90 @@ public abstract class AbstractManagedConnection<
         closePhysicalConnection();
     }
 
-    public void associateConnection(Object o) {
-        throw new UnsupportedOperationException();
+    @SuppressWarnings("unchecked")
+    public void associateConnection(Object o) throws ResourceException {
+        if (!(o instanceof AbstractConnectionHandle) || ((AbstractConnectionHandle<?, ?, ?, ?>) o).mcf != mcf) {
+            throw new ResourceException("Unsupported connection handle: " + o);
+        }
+        CI h = (CI) o;
+        MC old = h.mc;
+        if (old == this) {
+            return;
+        }
+        if (old != null) {
+            old.removeHandle(h);
+        }
+        h.associate((MC) this);
+        addHandle(h);
+    }
+
+    @Override
+    public void dissociateConnections() throws ResourceException {
+        if (handle != null) {
+            handle.dissociate();
+            handle = null;
+        }
+        if (handles != null) {
+            handles.forEach(AbstractConnectionHandle::dissociate);
+            handles.clear();
+        }
+    }
+
+    /**
+     * Dissociate a handle which does not need this connection anymore, the connection
+     * being released as if the handle was closed when no other handle uses it.
+     */
+    public void dissociateConnection(CI h) {
+        h.dissociate();
+        if (removeHandle(h)) {
+            connectionClosed(h);
+        }
+    }
+
+    private void addHandle(CI h) {
+        if (this.handle == null) {
+            this.handle = h;
+        } else {
+            if (handles == null) {
+                handles = new ArrayList<>();
+            }
+            handles.add(h);
+        }
+    }
+
+    /**
+     * @return whether no handle uses this connection anymore
+     */
+    boolean removeHandle(CI h) {
+        if (handle == h) {
+            handle = handles != null && !handles.isEmpty() ? handles.remove(0) : null;
+        } else if (handles != null) {
+            handles.remove(h);
+        }
+        return handle == null;
     }
 
     public void connectionClosed(CI handle) {
+        // listeners may keep the event, so each close sends its own
         ConnectionEvent event = new ConnectionEvent(this, ConnectionEvent.CONNECTION_CLOSED);
         event.setConnectionHandle(handle);
-        // count down in case sending the event results in a handle getting removed.
+        fireEvent(event, ConnectionEventListener::connectionClosed);
+    }
+
+    /**
+     * Send an event to the listeners, the additional listeners first, in reverse order,
+     * in case sending the event results in a listener getting removed.
+     */
+    private void fireEvent(ConnectionEvent event, BiConsumer<ConnectionEventListener, ConnectionEvent> action) {
+        ArrayList<ConnectionEventListener> listeners = this.listeners;
         if (listeners != null) {
-            for (ConnectionEventListener listener : reverse(listeners)) {
-                listener.connectionClosed(event);
+            for (int i = listeners.size() - 1; i >= 0; i--) {
+                action.accept(listeners.get(i), event);
             }
         }
+        ConnectionEventListener listener = this.listener;
         if (listener != null) {
-            listener.connectionClosed(event);
+            action.accept(listener, event);
         }
     }
 
@@ -155,14 +233,7 @@ public abstract class AbstractManagedConnection<
 
     protected void unfilteredConnectionError(Exception e) {
         ConnectionEvent event = new ConnectionEvent(this, ConnectionEvent.CONNECTION_ERROR_OCCURRED, e);
-        if (listeners != null) {
-            for (ConnectionEventListener listener : reverse(listeners)) {
-                listener.connectionErrorOccurred(event);
-            }
-        }
-        if (listener != null) {
-            listener.connectionErrorOccurred(event);
-        }
+        fireEvent(event, ConnectionEventListener::connectionErrorOccurred);
     }
 
     public void addConnectionEventListener(ConnectionEventListener connectionEventListener) {
@@ -170,7 +241,7 @@ public abstract class AbstractManagedConnection<
             listener = connectionEventListener;
         } else {
             if (listeners == null) {
-                listeners = new ArrayDeque<>();
+                listeners = new ArrayList<>();
             }
             listeners.add(connectionEventListener);
         }
@@ -179,8 +250,8 @@ public abstract class AbstractManagedConnection<
     public void removeConnectionEventListener(ConnectionEventListener connectionEventListener) {
         if (listener == connectionEventListener) {
             listener = null;
-            if (listeners != null) {
-                listener = listeners.removeFirst();
+            if (listeners != null && !listeners.isEmpty()) {
+                listener = listeners.remove(0);
             }
         } else if (listeners != null) {
             listeners.remove(connectionEventListener);
@@ -191,6 +262,25 @@ public abstract class AbstractManagedConnection<
         return log;
     }
 
+    /**
+     * Record that an operation which may modify the resource has been issued on this connection.
+     */
+    public void markUpdated() {
+        pendingUpdates = true;
+    }
+
+    /**
+     * Whether an operation which may modify the resource has been issued since the
+     * current local transaction or XA branch started.
+     */
+    public boolean hasPendingUpdates() {
+        return pendingUpdates;
+    }
+
+    protected void resetPendingUpdates() {
+        pendingUpdates = false;
+    }
+
     public void setLogWriter(PrintWriter printWriter) throws ResourceException {
         log = printWriter;
     }
@@ -198,42 +288,21 @@ public abstract class AbstractManagedConnection<
     protected void localTransactionStart(boolean isSPI) throws ResourceException {
         if (!isSPI) {
             ConnectionEvent event = new ConnectionEvent(this, ConnectionEvent.LOCAL_TRANSACTION_STARTED);
-            if (listeners != null) {
-                for (ConnectionEventListener listener : reverse(listeners)) {
-                    listener.localTransactionStarted(event);
-                }
-            }
-            if (listener != null) {
-                listener.localTransactionStarted(event);
-            }
+            fireEvent(event, ConnectionEventListener::localTransactionStarted);
         }
     }
 
     protected void localTransactionCommit(boolean isSPI) throws ResourceException {
         if (!isSPI) {
             ConnectionEvent event = new ConnectionEvent(this, ConnectionEvent.LOCAL_TRANSACTION_COMMITTED);
-            if (listeners != null) {
-                for (ConnectionEventListener listener : reverse(listeners)) {
-                    listener.localTransactionCommitted(event);
-                }
-            }
-            if (listener != null) {
-                listener.localTransactionCommitted(event);
-            }
+            fireEvent(event, ConnectionEventListener::localTransactionCommitted);
         }
     }
 
     protected void localTransactionRollback(boolean isSPI) throws ResourceException {
         if (!isSPI) {
             ConnectionEvent event = new ConnectionEvent(this, ConnectionEvent.LOCAL_TRANSACTION_ROLLEDBACK);
-            if (listener != null) {
-                listener.localTransactionRolledback(event);
-            }
-            if (listeners != null) {
-                for (ConnectionEventListener listener : listeners) {
-                    listener.localTransactionRolledback(event);
-                }
-            }
+            fireEvent(event, ConnectionEventListener::localTransactionRolledback);
         }
     }
 
@@ -250,26 +319,21 @@ public abstract class AbstractManagedConnection<
     protected abstract void closePhysicalConnection() throws ResourceException;
 
     public Object getConnection(Subject subject, ConnectionRequestInfo connectionRequestInfo) throws ResourceException {
-        // Check user first
-        String userName = credentialExtractor.getUserName();
-        CredentialExtractor credential = new CredentialExtractor(subject, connectionRequestInfo, mcf);
-        // Null users are allowed!
-        if (userName != null && !userName.equals(credential.getUserName())) {
-            throw new SecurityException("Password credentials not the same, reauthentication not allowed");
-        }
-        if (userName == null && credential.getUserName() != null) {
-            throw new SecurityException("Password credentials not the same, reauthentication not allowed");
+        // Check user first, null users are allowed!
+        // The connection manager usually passes the same instances, which have already been checked,
+        // unless the subject can be changed in place
+        if (!verified || subject != verifiedSubject || connectionRequestInfo != verifiedCri
+                || (subject != null && !subject.isReadOnly())) {
+            if (!Objects.equals(credentialExtractor.getUserName(), CredentialExtractor.getUserName(subject, connectionRequestInfo, mcf))) {
+                throw new SecurityException("Password credentials not the same, reauthentication not allowed");
+            }
+            verifiedSubject = subject;
+            verifiedCri = connectionRequestInfo;
+            verified = true;
         }
 
         CI handle = mcf.createConnectionHandle(connectionRequestInfo, (MC) this);
-        if (this.handle == null) {
-            this.handle = handle;
-        } else {
-            if (handles == null) {
-                handles = new LinkedList<>();
-            }
-            handles.add(handle);
-        }
+        addHandle(handle);
 
         this.subject = subject;
         this.cri = connectionRequestInfo;
@@ -308,6 +372,7 @@ public abstract class AbstractManagedConnection<
         }
 
         public void begin() throws ResourceException {
+            resetPendingUpdates();
             localTransactionStart(isSPI);
         }
 
@@ -328,6 +393,9 @@ public abstract class AbstractManagedConnection<
 
         @Override
         public void start(Xid xid, int flags) throws XAException {
+            if (flags == TMNOFLAGS) {
+                resetPendingUpdates();
+            }
             getXAResource().start(xid, flags);
             setInXaTransaction(true);
         }
@@ -386,11 +454,4 @@ public abstract class AbstractManagedConnection<
         }
 
     }
-
-    private static <S> Iterable<S> reverse(Deque<S> col) {
-        if (col.size() <= 1) {
-            return col;
-        }
-        return col::descendingIterator;
-    }
 }
@@ -20,8 +20,10 @@ import java.security.PrivilegedAction;
 import java.util.HashSet;
 import java.util.Set;
 import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionManager;
 import javax.resource.spi.ConnectionRequestInfo;
 import javax.resource.spi.InvalidPropertyException;
+import javax.resource.spi.LazyAssociatableConnectionManager;
 import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.TransactionSupport;
 import javax.resource.spi.ValidatingManagedConnectionFactory;
@@ -40,6 +42,9 @@ public abstract class AbstractManagedConnectionFactory<
     protected ExceptionSorter exceptionSorter;
     protected String userName;
     protected String password;
+    protected boolean lazyAssociation;
+
+    private volatile LazyAssociatableConnectionManager lazyConnectionManager;
 
     public AbstractManagedConnectionFactory() {
         this.exceptionSorter = NoExceptionsAreFatalSorter.INSTANCE;
@@ -130,6 +135,39 @@ public abstract class AbstractManagedConnectionFactory<
         this.exceptionSorter = exceptionSorter;
     }
 
+    /**
+     * Return whether connection handles release their managed connection between calls.
+     *
+     * @return TRUE if connection handles are lazily associated
+     */
+    public boolean isLazyAssociation() {
+        return lazyAssociation;
+    }
+
+    /**
+     * Set whether connection handles release their managed connection when it is not needed anymore
+     * after a call, and get one again from the connection manager on the next call.
+     * This requires a connection manager implementing {@link LazyAssociatableConnectionManager}.
+     *
+     * @param lazyAssociation set TRUE to lazily associate connection handles
+     */
+    public void setLazyAssociation(boolean lazyAssociation) {
+        this.lazyAssociation = lazyAssociation;
+    }
+
+    /**
+     * Return the connection manager to re-associate connection handles with,
+     * or <code>null</code> if lazy association is not enabled or supported.
+     */
+    public LazyAssociatableConnectionManager getLazyConnectionManager() {
+        return lazyAssociation ? lazyConnectionManager : null;
+    }
+
+    protected void setConnectionManager(ConnectionManager connectionManager) {
+        this.lazyConnectionManager = connectionManager instanceof LazyAssociatableConnectionManager
+                ? (LazyAssociatableConnectionManager) connectionManager : null;
+    }
+
     public Object createConnectionFactory() throws ResourceException {
         return createConnectionFactory(null);
     }
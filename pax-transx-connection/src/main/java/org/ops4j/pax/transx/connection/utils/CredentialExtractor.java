@@ -53,6 +53,30 @@ public class CredentialExtractor {
         password = managedConnectionFactory.getPassword();
     }
 
+    /**
+     * Extract the user name only, without copying the password.
+     */
+    public static String getUserName(Subject subject, ConnectionRequestInfo connectionRequestInfo, UserPasswordManagedConnectionFactory managedConnectionFactory) throws ResourceAdapterInternalException {
+        assert managedConnectionFactory != null;
+
+        if (connectionRequestInfo != null && !(connectionRequestInfo instanceof UserPasswordConnectionRequestInfo)) {
+            throw new ResourceAdapterInternalException("ConnectionRequestInfo must be a UserPasswordConnectionRequestInfo, not a " + connectionRequestInfo.getClass().getName());
+        }
+        if (subject != null) {
+            Set<PasswordCredential> credentials = subject.getPrivateCredentials(PasswordCredential.class);
+            for (PasswordCredential passwordCredential : credentials) {
+                if (managedConnectionFactory.equals(passwordCredential.getManagedConnectionFactory())) {
+                    return passwordCredential.getUserName();
+                }
+            }
+            throw new ResourceAdapterInternalException("No credential found for this ManagedConnectionFactory: " + managedConnectionFactory);
+        }
+        if (connectionRequestInfo != null && ((UserPasswordConnectionRequestInfo) connectionRequestInfo).getUserName() != null) {
+            return ((UserPasswordConnectionRequestInfo) connectionRequestInfo).getUserName();
+        }
+        return managedConnectionFactory.getUserName();
+    }
+
     public boolean matches(Subject subject, UserPasswordConnectionRequestInfo connectionRequestInfo, UserPasswordManagedConnectionFactory managedConnectionFactory) throws ResourceAdapterInternalException {
         assert managedConnectionFactory != null;
 
@@ -15,13 +15,18 @@
  */
 package org.ops4j.pax.transx.connector;
 
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.logging.Logger;
 import javax.resource.spi.ConnectionManager;
+import javax.resource.spi.ConnectionRequestInfo;
 import javax.resource.spi.ManagedConnectionFactory;
 import javax.resource.spi.TransactionSupport;
 import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
 
 import org.ops4j.pax.transx.connector.impl.GenericConnectionManager;
+import org.ops4j.pax.transx.connector.impl.PoolSettings;
 import org.ops4j.pax.transx.tm.TransactionManager;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
@@ -36,6 +41,9 @@ public class ConnectionManagerBuilder {
     private static final long HOUSE_KEEPING_PERIOD = SECONDS.toMillis(30);
     private static final long ALIVE_BYPASS_WINDOW = MILLISECONDS.toMillis(500);
     private static final int DEFAULT_POOL_SIZE = 10;
+    private static final int DEFAULT_WARM_UP_CONCURRENCY = 4;
+    private static final long FATAL_ERROR_WINDOW = SECONDS.toMillis(10);
+    private static final long CIRCUIT_BREAKER_OPEN_TIME = SECONDS.toMillis(5);
 
     private static final Logger LOG = Logger.getLogger(ConnectionManagerBuilder.class.getName());
 
@@ -44,6 +52,7 @@ public class ConnectionManagerBuilder {
     private TransactionSupportLevel transaction;
     private SubjectSource subjectSource;
     private String name;
+    private boolean readOnlyPrepare;
 
     private int minIdle = -1;
     private int maxPoolSize = -1;
@@ -52,6 +61,35 @@ public class ConnectionManagerBuilder {
     private long maxLifetime = MAX_LIFETIME;
     private long aliveBypassWindow = ALIVE_BYPASS_WINDOW;
     private long houseKeepingPeriod =  HOUSE_KEEPING_PERIOD;
+    private int shardMinIdle = -1;
+    private int shardMaxPoolSize = -1;
+    private int maxTotalConnections = 0;
+    private boolean lastResource;
+    private boolean sharedExecutors;
+    private int sharedCreationConcurrency = 1;
+    private int sharedDestructionConcurrency = 1;
+    private boolean lazyStart;
+    private ConnectionRequestInfo defaultConnectionRequestInfo;
+    private long initializationTimeout = 0;
+    private int warmUpConcurrency = DEFAULT_WARM_UP_CONCURRENCY;
+    private boolean adaptiveSizing;
+    private int adaptiveMinIdle = 0;
+    private Path demandProfile;
+    private ConnectionPool.SuspendPolicy suspendPolicy = ConnectionPool.SuspendPolicy.WAIT;
+    private int fatalErrorThreshold = 0;
+    private long fatalErrorWindow = FATAL_ERROR_WINDOW;
+    private int circuitBreakerThreshold = 0;
+    private long circuitBreakerOpenTime = CIRCUIT_BREAKER_OPEN_TIME;
+    private double connectionCreationRate = 0;
+    private int maxConcurrentRetirements = 0;
+    private int maxWaiters = 0;
+    private long maxEstimatedWait = 0;
+    private int softQuota = 0;
+    private int hardQuota = 0;
+    private String connectionBudget;
+    private int connectionBudgetMaxConnections;
+    private long subpoolIdleTimeout = 0;
+    private final Map<ConnectionPriority, Integer> reservedConnections = new EnumMap<>(ConnectionPriority.class);
 
     private ConnectionManagerBuilder() {
     }
@@ -80,6 +118,29 @@ public class ConnectionManagerBuilder {
         return this;
     }
 
+    /**
+     * Let local transactions that didn't write anything vote read-only in the first phase of a
+     * two-phase commit. Their local transaction is then committed during the prepare, so this is
+     * only safe if the update tracking of the resource adapter really sees every write.
+     * Disabled by default.
+     */
+    public ConnectionManagerBuilder readOnlyPrepare(boolean readOnlyPrepare) {
+        this.readOnlyPrepare = readOnlyPrepare;
+        return this;
+    }
+
+    /**
+     * Enlist local transaction pools as a {@link org.ops4j.pax.transx.tm.LastResource}, so that they
+     * can take part in a transaction with XA resources. Requires a transaction manager supporting
+     * last resource commit.
+     * A transaction has a single last resource: the connections of other subpools, shards or pools
+     * enlisted in the same transaction are enlisted as plain participants, as without this option.
+     */
+    public ConnectionManagerBuilder lastResource(boolean lastResource) {
+        this.lastResource = lastResource;
+        return this;
+    }
+
     public ConnectionManagerBuilder minIdle(int minSize) {
         this.minIdle = minSize;
         return this;
@@ -90,6 +151,254 @@ public class ConnectionManagerBuilder {
         return this;
     }
 
+    /**
+     * Minimum number of idle connections kept in each shard subpool.
+     * Defaults to {@link #minIdle(int)}.
+     */
+    public ConnectionManagerBuilder shardMinIdle(int shardMinIdle) {
+        this.shardMinIdle = shardMinIdle;
+        return this;
+    }
+
+    /**
+     * Maximum number of connections in each shard subpool.
+     * Defaults to {@link #maxPoolSize(int)}.
+     */
+    public ConnectionManagerBuilder shardMaxPoolSize(int shardMaxPoolSize) {
+        this.shardMaxPoolSize = shardMaxPoolSize;
+        return this;
+    }
+
+    /**
+     * Maximum number of connections across all subpools of the connection manager.
+     * A value of {@code 0} (the default) means no global limit.
+     */
+    public ConnectionManagerBuilder maxTotalConnections(int maxTotalConnections) {
+        this.maxTotalConnections = maxTotalConnections;
+        return this;
+    }
+
+    /**
+     * Join the named connection budget, limiting the number of connections opened by all the connection
+     * managers of this process sharing it, typically all the pools connecting to the same database server.
+     * The limit is set by the first connection manager joining the budget.
+     * When the budget is exhausted, a pool with waiting threads closes the least recently used idle
+     * connection of another pool of the budget, and pools release connections on return while
+     * another pool of the budget is waiting, so that the idle capacity flows where it is needed.
+     */
+    public ConnectionManagerBuilder connectionBudget(String name, int maxConnections) {
+        this.connectionBudget = name;
+        this.connectionBudgetMaxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * Time in milliseconds after which a subpool from which no connection has been borrowed is closed,
+     * together with its idle connections and MBean. A new subpool is created when the same subject and
+     * connection request info are used again.
+     * A value of {@code 0} (the default) keeps the subpools until the connection manager is closed.
+     */
+    public ConnectionManagerBuilder subpoolIdleTimeout(long subpoolIdleTimeout) {
+        this.subpoolIdleTimeout = subpoolIdleTimeout;
+        return this;
+    }
+
+    /**
+     * Number of connections guaranteed to each subpool under {@code maxTotalConnections}.
+     * A subpool may grow beyond its soft quota while the other subpools do not need the capacity,
+     * but these extra connections are the only ones reclaimed when another subpool is waiting,
+     * and are closed rather than returned to the pool while it is waiting.
+     * A value of {@code 0} (the default) lets any idle connection be reclaimed.
+     */
+    public ConnectionManagerBuilder softQuota(int softQuota) {
+        this.softQuota = softQuota;
+        return this;
+    }
+
+    /**
+     * Maximum number of connections of each subpool, whatever the capacity left under {@code maxTotalConnections}.
+     * A value of {@code 0} (the default) only applies {@code maxPoolSize}.
+     */
+    public ConnectionManagerBuilder hardQuota(int hardQuota) {
+        this.hardQuota = hardQuota;
+        return this;
+    }
+
+    /**
+     * Use the process wide housekeeping scheduler and connection creation / destruction executors
+     * shared by all the connection managers built with this option, instead of dedicated threads.
+     */
+    public ConnectionManagerBuilder sharedExecutors(boolean sharedExecutors) {
+        this.sharedExecutors = sharedExecutors;
+        return this;
+    }
+
+    /**
+     * Maximum number of connections of this manager created at the same time on the shared executors.
+     * Defaults to 1, as with dedicated threads.
+     */
+    public ConnectionManagerBuilder sharedCreationConcurrency(int sharedCreationConcurrency) {
+        this.sharedCreationConcurrency = sharedCreationConcurrency;
+        return this;
+    }
+
+    /**
+     * Maximum number of connections of this manager destroyed at the same time on the shared executors.
+     * Defaults to 1, as with dedicated threads.
+     */
+    public ConnectionManagerBuilder sharedDestructionConcurrency(int sharedDestructionConcurrency) {
+        this.sharedDestructionConcurrency = sharedDestructionConcurrency;
+        return this;
+    }
+
+    /**
+     * Defer the creation of threads, MBeans and connections until the first connection is allocated,
+     * or {@link ConnectionPool#warmUp()} is called on the built connection manager.
+     */
+    public ConnectionManagerBuilder lazyStart(boolean lazyStart) {
+        this.lazyStart = lazyStart;
+        return this;
+    }
+
+    /**
+     * The request info used by applications which do not specify one, so that
+     * {@link ConnectionPool#warmUp()} fills the subpool they will use.
+     */
+    public ConnectionManagerBuilder defaultConnectionRequestInfo(ConnectionRequestInfo defaultConnectionRequestInfo) {
+        this.defaultConnectionRequestInfo = defaultConnectionRequestInfo;
+        return this;
+    }
+
+    /**
+     * Create the {@code minIdle} connections when the connection manager is built, and fail the build
+     * if they are not all available within this number of milliseconds.
+     * A value of {@code 0} (the default) fills the pool in the background instead.
+     */
+    public ConnectionManagerBuilder initializationTimeout(long initializationTimeout) {
+        this.initializationTimeout = initializationTimeout;
+        return this;
+    }
+
+    /**
+     * Maximum number of connections created in parallel by a warm-up.
+     */
+    public ConnectionManagerBuilder warmUpConcurrency(int warmUpConcurrency) {
+        this.warmUpConcurrency = warmUpConcurrency;
+        return this;
+    }
+
+    /**
+     * Adjust the minimum number of idle connections of each subpool to the observed demand,
+     * between {@code adaptiveMinIdle} and {@code maxPoolSize}, starting from {@code minIdle}.
+     */
+    public ConnectionManagerBuilder adaptiveSizing(boolean adaptiveSizing) {
+        this.adaptiveSizing = adaptiveSizing;
+        return this;
+    }
+
+    /**
+     * Lower bound of the minimum number of idle connections when adaptive sizing is enabled.
+     */
+    public ConnectionManagerBuilder adaptiveMinIdle(int adaptiveMinIdle) {
+        this.adaptiveMinIdle = adaptiveMinIdle;
+        return this;
+    }
+
+    /**
+     * Record the daily demand of the pool in this file, and use it to create idle connections
+     * shortly before the recorded ramps.
+     */
+    public ConnectionManagerBuilder demandProfile(Path demandProfile) {
+        this.demandProfile = demandProfile;
+        return this;
+    }
+
+    /**
+     * Whether borrowers wait for a suspended pool to be resumed, or fail immediately.
+     */
+    public ConnectionManagerBuilder suspendPolicy(ConnectionPool.SuspendPolicy suspendPolicy) {
+        this.suspendPolicy = suspendPolicy;
+        return this;
+    }
+
+    /**
+     * Number of fatal connection errors within {@code fatalErrorWindow} after which all the connections
+     * of the subpool are evicted at once. A value of {@code 0} (the default) disables the detection.
+     */
+    public ConnectionManagerBuilder fatalErrorThreshold(int fatalErrorThreshold) {
+        this.fatalErrorThreshold = fatalErrorThreshold;
+        return this;
+    }
+
+    public ConnectionManagerBuilder fatalErrorWindow(long fatalErrorWindow) {
+        this.fatalErrorWindow = fatalErrorWindow;
+        return this;
+    }
+
+    /**
+     * Number of consecutive connection creation failures after which no connection is created
+     * for {@code circuitBreakerOpenTime} milliseconds, and borrowers which cannot get an idle
+     * connection fail immediately. A value of {@code 0} (the default) disables the circuit breaker.
+     */
+    public ConnectionManagerBuilder circuitBreakerThreshold(int circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+        return this;
+    }
+
+    public ConnectionManagerBuilder circuitBreakerOpenTime(long circuitBreakerOpenTime) {
+        this.circuitBreakerOpenTime = circuitBreakerOpenTime;
+        return this;
+    }
+
+    /**
+     * Maximum number of connections created per second. A value of {@code 0} (the default) does not limit it.
+     */
+    public ConnectionManagerBuilder connectionCreationRate(double connectionCreationRate) {
+        this.connectionCreationRate = connectionCreationRate;
+        return this;
+    }
+
+    /**
+     * Maximum number of connections of a subpool past their {@code maxLifetime} which are replaced at the same time.
+     * The replacement is created before the old connection is retired, so that the capacity of the pool does not drop.
+     * As a consequence, a subpool may hold up to this number of connections more than {@code maxPoolSize}
+     * while the replacements are in progress.
+     * A value of {@code 0} (the default) retires the connections first and lets the pool refill afterwards.
+     */
+    public ConnectionManagerBuilder maxConcurrentRetirements(int maxConcurrentRetirements) {
+        this.maxConcurrentRetirements = maxConcurrentRetirements;
+        return this;
+    }
+
+    /**
+     * Maximum number of threads waiting for a connection of a subpool, further requests are rejected
+     * immediately with a {@link PoolSaturatedException}. A value of {@code 0} (the default) does not limit them.
+     */
+    public ConnectionManagerBuilder maxWaiters(int maxWaiters) {
+        this.maxWaiters = maxWaiters;
+        return this;
+    }
+
+    /**
+     * Reject requests immediately with a {@link PoolSaturatedException} when the wait for a connection,
+     * estimated from the number of waiting threads and the mean time connections are held, exceeds this
+     * number of milliseconds. A value of {@code 0} (the default) disables the estimation.
+     */
+    public ConnectionManagerBuilder maxEstimatedWait(long maxEstimatedWait) {
+        this.maxEstimatedWait = maxEstimatedWait;
+        return this;
+    }
+
+    /**
+     * Number of connections of each subpool which can only be used by requests of the given priority or a higher one.
+     *
+     * @see ConnectionPriority
+     */
+    public ConnectionManagerBuilder reservedConnections(ConnectionPriority priority, int connections) {
+        this.reservedConnections.put(priority, connections);
+        return this;
+    }
+
     public ConnectionManagerBuilder aliveBypassWindow(long aliveBypassWindow) {
         this.aliveBypassWindow = aliveBypassWindow;
         return this;
@@ -130,6 +439,10 @@ public class ConnectionManagerBuilder {
                 transaction = txSupportLevel;
             }
         }
+        if (lastResource && transaction == TransactionSupportLevel.LocalTransaction
+                && !transactionManager.isLastResourceCommitSupported()) {
+            throw new IllegalArgumentException("lastResource is not supported by the transaction manager");
+        }
         String name = this.name != null ? this.name : managedConnectionFactory.getClass().getSimpleName();
         String poolName = "TransxPool-" + generatePoolNumber() + "-" +  name;
         if (maxLifetime != 0 && maxLifetime < SECONDS.toMillis(30)) {
@@ -154,23 +467,151 @@ public class ConnectionManagerBuilder {
         if (minIdle < 0 || minIdle > maxPoolSize) {
             minIdle = maxPoolSize;
         }
+        if (lastResource && transaction != TransactionSupportLevel.LocalTransaction) {
+            LOG.warning(() -> poolName + " - lastResource only applies to LocalTransaction pools, ignoring it.");
+            lastResource = false;
+        }
+        if (shardMaxPoolSize < 1) {
+            shardMaxPoolSize = maxPoolSize;
+        }
+        if (shardMinIdle < 0 || shardMinIdle > shardMaxPoolSize) {
+            shardMinIdle = Math.min(minIdle, shardMaxPoolSize);
+        }
+        if (maxTotalConnections < 0) {
+            maxTotalConnections = 0;
+        }
+        if (maxTotalConnections > 0 && maxTotalConnections < Math.max(minIdle, shardMinIdle)) {
+            LOG.warning(() -> poolName + " - maxTotalConnections is less than the minimum number of idle connections of a single subpool.");
+        }
 
-        return new GenericConnectionManager(
+        if (adaptiveMinIdle < 0 || adaptiveMinIdle > minIdle) {
+            adaptiveMinIdle = adaptiveMinIdle < 0 ? 0 : minIdle;
+        }
+        if (fatalErrorThreshold < 0) {
+            fatalErrorThreshold = 0;
+        }
+        if (fatalErrorWindow <= 0) {
+            fatalErrorWindow = FATAL_ERROR_WINDOW;
+        }
+        if (circuitBreakerThreshold < 0) {
+            circuitBreakerThreshold = 0;
+        }
+        if (circuitBreakerOpenTime <= 0) {
+            circuitBreakerOpenTime = CIRCUIT_BREAKER_OPEN_TIME;
+        }
+        if (connectionCreationRate < 0) {
+            connectionCreationRate = 0;
+        }
+        if (maxConcurrentRetirements < 0) {
+            maxConcurrentRetirements = 0;
+        }
+        if (maxWaiters < 0) {
+            maxWaiters = 0;
+        }
+        if (maxEstimatedWait < 0) {
+            maxEstimatedWait = 0;
+        }
+        if (hardQuota < 0) {
+            hardQuota = 0;
+        }
+        if (softQuota < 0) {
+            softQuota = 0;
+        }
+        if (hardQuota > 0 && softQuota > hardQuota) {
+            LOG.warning(() -> poolName + " - softQuota is more than hardQuota, setting it to " + hardQuota + ".");
+            softQuota = hardQuota;
+        }
+        if (subpoolIdleTimeout < 0) {
+            subpoolIdleTimeout = 0;
+        }
+        if (subpoolIdleTimeout > 0 && subpoolIdleTimeout < idleTimeout) {
+            LOG.warning(() -> poolName + " - subpoolIdleTimeout is less than idleTimeout, idle connections of unused subpools will be closed earlier.");
+        }
+        if (connectionBudget != null && connectionBudgetMaxConnections <= 0) {
+            throw new IllegalArgumentException("connectionBudget maxConnections must be positive");
+        }
+        if (softQuota > 0 && maxTotalConnections == 0 && connectionBudget == null) {
+            LOG.warning(() -> poolName + " - softQuota only applies when maxTotalConnections or connectionBudget is set.");
+        }
+        int[] reserved = null;
+        if (reservedConnections.values().stream().anyMatch(r -> r > 0)) {
+            reserved = new int[ConnectionPriority.values().length];
+            int total = 0;
+            for (ConnectionPriority priority : ConnectionPriority.values()) {
+                reserved[priority.ordinal()] = Math.max(0, reservedConnections.getOrDefault(priority, 0));
+                // connections reserved for the lowest priority are available to everyone anyway
+                if (priority.ordinal() < reserved.length - 1) {
+                    total += reserved[priority.ordinal()];
+                }
+            }
+            if (total >= maxPoolSize) {
+                throw new IllegalArgumentException("reservedConnections must leave at least one connection to the lowest priority");
+            }
+        }
+        if (warmUpConcurrency < 1) {
+            warmUpConcurrency = 1;
+        }
+        if (initializationTimeout > 0 && lazyStart) {
+            LOG.warning(() -> poolName + " - initializationTimeout starts the pool when it is built, ignoring lazyStart.");
+        }
+
+        PoolSettings settings = new PoolSettings()
+                .poolName(poolName)
+                .readOnlyPrepare(readOnlyPrepare)
+                .minIdle(minIdle)
+                .maxPoolSize(maxPoolSize)
+                .connectionTimeout(connectionTimeout)
+                .idleTimeout(idleTimeout)
+                .maxLifetime(maxLifetime)
+                .aliveBypassWindow(aliveBypassWindow)
+                .houseKeepingPeriod(houseKeepingPeriod)
+                .shardMinIdle(shardMinIdle)
+                .shardMaxPoolSize(shardMaxPoolSize)
+                .maxTotalConnections(maxTotalConnections)
+                .lastResource(lastResource)
+                .sharedExecutors(sharedExecutors)
+                .sharedCreationConcurrency(sharedCreationConcurrency)
+                .sharedDestructionConcurrency(sharedDestructionConcurrency)
+                .lazyStart(lazyStart)
+                .defaultConnectionRequestInfo(defaultConnectionRequestInfo)
+                .warmUpConcurrency(warmUpConcurrency)
+                .adaptiveSizing(adaptiveSizing)
+                .adaptiveMinIdle(adaptiveMinIdle)
+                .demandProfile(demandProfile)
+                .suspendPolicy(suspendPolicy != null ? suspendPolicy : ConnectionPool.SuspendPolicy.WAIT)
+                .fatalErrorThreshold(fatalErrorThreshold)
+                .fatalErrorWindow(fatalErrorWindow)
+                .circuitBreakerThreshold(circuitBreakerThreshold)
+                .circuitBreakerOpenTime(circuitBreakerOpenTime)
+                .connectionCreationRate(connectionCreationRate)
+                .maxConcurrentRetirements(maxConcurrentRetirements)
+                .maxWaiters(maxWaiters)
+                .maxEstimatedWait(maxEstimatedWait)
+                .reservedConnections(reserved)
+                .softQuota(softQuota)
+                .hardQuota(hardQuota)
+                .connectionBudgetName(connectionBudget)
+                .connectionBudgetMaxConnections(connectionBudgetMaxConnections)
+                .subpoolIdleTimeout(subpoolIdleTimeout);
+
+        GenericConnectionManager cm = new GenericConnectionManager(
                 transactionManager,
                 transaction,
                 subjectSource,
                 getClass().getClassLoader(),
                 managedConnectionFactory,
                 name,
-                poolName,
-                minIdle,
-                maxPoolSize,
-                connectionTimeout,
-                idleTimeout,
-                maxLifetime,
-                aliveBypassWindow,
-                houseKeepingPeriod
+                settings
         );
+        if (initializationTimeout > 0) {
+            try {
+                cm.warmUp(initializationTimeout, MILLISECONDS);
+            } catch (Exception e) {
+                cm.close();
+                throw e;
+            }
+        }
+        return cm;
     }
 
     private static int generatePoolNumber() {
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.resource.ResourceException;
+
+/**
+ * Management operations of the pooling {@link javax.resource.spi.ConnectionManager}
+ * built by {@link ConnectionManagerBuilder}.
+ */
+public interface ConnectionPool {
+
+    /**
+     * Behavior of the borrowers while the pool is suspended.
+     */
+    enum SuspendPolicy {
+        /** Wait up to the connection timeout for the pool to be resumed. */
+        WAIT,
+        /** Fail immediately. */
+        FAIL
+    }
+
+    /**
+     * Start the pool if it has been built with {@code lazyStart}, and begin filling
+     * the subpool of the default connection request info up to {@code minIdle} connections.
+     */
+    void warmUp() throws ResourceException;
+
+    /**
+     * Start the pool if needed, and create the {@code minIdle} connections of the subpool of the default
+     * connection request info in parallel, waiting until they are all available.
+     *
+     * @throws ResourceException if the connections could not be created before the timeout expired
+     */
+    void warmUp(long timeout, TimeUnit unit) throws ResourceException;
+
+    /**
+     * Change the limits and timeouts of the running pool, without closing the healthy connections.
+     * <p>The supported properties, named as the {@link ConnectionManagerBuilder} options, are
+     * {@code minIdle}, {@code maxPoolSize}, {@code connectionTimeout}, {@code idleTimeout},
+     * {@code maxLifetime} and {@code aliveBypassWindow}, other properties are ignored.
+     * A lower {@code maxPoolSize} retires the surplus connections as they become idle, and
+     * a new {@code maxLifetime} only applies to the connections created afterwards.
+     *
+     * @throws IllegalArgumentException if a value is invalid, in which case none of them is applied
+     */
+    void reconfigure(Map<String, ?> properties);
+
+    /**
+     * Stop lending new connections until {@link #resume()} is called.
+     * Connections already enlisted in a transaction are still handed out, so that it can complete.
+     */
+    void suspend();
+
+    /**
+     * Lend connections again after {@link #suspend()} or {@link #drain(long, TimeUnit)},
+     * refilling the pool in the background without blocking the caller.
+     */
+    void resume();
+
+    boolean isSuspended();
+
+    /**
+     * Suspend the pool, wait for the borrowed connections to be returned, then evict all the connections,
+     * for instance before switching over to another database server.
+     * The connections still in use when the timeout expires are closed when they are returned.
+     *
+     * @return <code>true</code> if all the borrowed connections were returned in time
+     */
+    boolean drain(long timeout, TimeUnit unit);
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector;
+
+/**
+ * Priority of a connection request, for pools built with reserved connections.
+ * <p>Connections reserved for a priority can only be used by requests of this priority or a higher one,
+ * and a request waiting for a connection is served before the requests of lower priorities.
+ * <p>The priority is taken from the {@link PriorityConnectionRequestInfo} of the request if any,
+ * otherwise from the current thread:
+ * <pre>
+ * try (ConnectionPriority.Scope scope = ConnectionPriority.HIGH.enter()) {
+ *     connection = dataSource.getConnection();
+ * }
+ * </pre>
+ */
+public enum ConnectionPriority {
+
+    HIGH,
+    NORMAL,
+    LOW;
+
+    private static final ThreadLocal<ConnectionPriority> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Use this priority for the connection requests of the current thread until the returned scope is closed.
+     */
+    public Scope enter() {
+        final ConnectionPriority previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        };
+    }
+
+    /**
+     * @return the priority of the connection requests of the current thread, {@link #NORMAL} by default
+     */
+    public static ConnectionPriority current() {
+        ConnectionPriority priority = CURRENT.get();
+        return priority != null ? priority : NORMAL;
+    }
+
+    /**
+     * The extent of a thread priority, restoring the previous one when closed.
+     */
+    public interface Scope extends AutoCloseable {
+
+        @Override
+        void close();
+
+    }
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector;
+
+import javax.resource.ResourceException;
+
+/**
+ * Thrown when a connection is requested from a saturated pool, because too many threads are already waiting
+ * or because the estimated wait exceeds the configured limit. The request is rejected immediately rather than
+ * after the connection timeout, so that callers can degrade gracefully.
+ */
+public class PoolSaturatedException extends ResourceException {
+
+    private static final long serialVersionUID = 1L;
+
+    public PoolSaturatedException(String message) {
+        super(message);
+    }
+
+}
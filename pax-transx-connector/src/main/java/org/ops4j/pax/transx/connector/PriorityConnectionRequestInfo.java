@@ -0,0 +1,33 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector;
+
+import javax.resource.spi.ConnectionRequestInfo;
+
+/**
+ * A {@link ConnectionRequestInfo} carrying the priority of the request, which takes precedence
+ * over the priority of the current thread.
+ * <p>Implementations should leave the priority out of {@code equals()} and {@code hashCode()}, so that
+ * requests of all priorities are served by the same subpool.
+ */
+public interface PriorityConnectionRequestInfo extends ConnectionRequestInfo {
+
+    /**
+     * @return the priority of the request, or {@code null} to use the priority of the current thread
+     */
+    ConnectionPriority getPriority();
+
+}
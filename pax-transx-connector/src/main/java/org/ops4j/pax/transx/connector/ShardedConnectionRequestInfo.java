@@ -0,0 +1,41 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector;
+
+import javax.resource.spi.ConnectionRequestInfo;
+
+/**
+ * A {@link ConnectionRequestInfo} carrying a sharding key.
+ * <p>Requests with different sharding keys are served by different subpools of the same
+ * connection manager, so that connections are never shared between shards.
+ * The keys are kept as plain objects (e.g. {@code java.sql.ShardingKey}) and are only
+ * compared using {@link Object#equals(Object)}.
+ * Implementations must include them in their own {@code equals} and {@code hashCode}, which
+ * select the subpool.
+ */
+public interface ShardedConnectionRequestInfo extends ConnectionRequestInfo {
+
+    /**
+     * @return the sharding key, or {@code null} if the request is not bound to a shard
+     */
+    Object getShardingKey();
+
+    /**
+     * @return the super sharding key, or {@code null}
+     */
+    Object getSuperShardingKey();
+
+}
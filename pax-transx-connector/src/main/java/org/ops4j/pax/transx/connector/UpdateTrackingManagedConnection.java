@@ -0,0 +1,33 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector;
+
+import javax.resource.spi.ManagedConnection;
+
+/**
+ * A {@link ManagedConnection} that knows whether it has been used to modify the underlying resource.
+ * <p>When a local transaction only performed reads, the connection manager can let it drop out of
+ * the two-phase commit by answering {@code XA_RDONLY} to {@code prepare}.
+ */
+public interface UpdateTrackingManagedConnection extends ManagedConnection {
+
+    /**
+     * @return {@code false} if no operation that may have modified the resource has been issued
+     *          since the current local transaction began, {@code true} otherwise
+     */
+    boolean hasPendingUpdates();
+
+}
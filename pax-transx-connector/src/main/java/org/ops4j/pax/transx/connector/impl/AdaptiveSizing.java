@@ -0,0 +1,130 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.zaxxer.hikari.util.ClockSource.currentTime;
+import static com.zaxxer.hikari.util.ClockSource.elapsedNanos;
+
+/**
+ * Sizing controller of a subpool, estimating the number of connections it needs from the observed demand.
+ * <p>By Little's law, the mean number of connections in use is the borrow rate times the mean hold time.
+ * Each housekeeping period, this estimate (or the number of active connections if higher, to account for
+ * long running borrows that have not been returned yet) plus the number of waiting threads is smoothed
+ * with an exponentially weighted moving average.
+ * The target size adds some headroom to the smoothed demand, and the effective minimum number of idle
+ * connections is the part of the target that is not expected to be in use. Both are kept within
+ * the configured bounds.
+ */
+final class AdaptiveSizing {
+
+    // weight of the last housekeeping period in the moving average
+    private static final double ALPHA = 0.3;
+    // spare capacity kept on top of the estimated demand
+    private static final double HEADROOM = 1.25;
+
+    private final int lowerBound;
+    private volatile int upperBound;
+
+    private final LongAdder borrowed = new LongAdder();
+    private final LongAdder returned = new LongAdder();
+    private final LongAdder holdTime = new LongAdder();
+
+    private long lastUpdate;
+    private double meanHoldTime;
+    private double demand = Double.NaN;
+
+    private volatile int minIdle;
+    private volatile int targetSize;
+
+    AdaptiveSizing(int initialMinIdle, int lowerBound, int upperBound) {
+        this(initialMinIdle, lowerBound, upperBound, currentTime());
+    }
+
+    AdaptiveSizing(int initialMinIdle, int lowerBound, int upperBound, long now) {
+        this.lastUpdate = now;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.minIdle = clamp(initialMinIdle);
+        this.targetSize = this.minIdle;
+    }
+
+    void borrowed() {
+        borrowed.increment();
+    }
+
+    void returned(long heldNanos) {
+        if (heldNanos > 0) {
+            returned.increment();
+            holdTime.add(heldNanos);
+        }
+    }
+
+    /**
+     * Fold the demand observed since the previous call into the estimate.
+     *
+     * @return <code>true</code> if the effective minimum idle or target size changed
+     */
+    boolean update(int active, int waiting) {
+        return update(active, waiting, currentTime());
+    }
+
+    synchronized boolean update(int active, int waiting, long now) {
+        final long period = elapsedNanos(lastUpdate, now);
+        if (period <= 0) {
+            return false;
+        }
+        lastUpdate = now;
+
+        final long borrows = borrowed.sumThenReset();
+        final long returns = returned.sumThenReset();
+        final long held = holdTime.sumThenReset();
+        if (returns > 0) {
+            meanHoldTime = held / (double) returns;
+        }
+        final double sample = Math.max(borrows * meanHoldTime / period, active) + waiting;
+        demand = Double.isNaN(demand) ? sample : demand + ALPHA * (sample - demand);
+
+        final int newTarget = clamp((int) Math.ceil(demand * HEADROOM) + waiting);
+        final int newMinIdle = Math.max(Math.min(lowerBound, newTarget), newTarget - (int) Math.ceil(demand));
+        final boolean changed = newTarget != targetSize || newMinIdle != minIdle;
+        targetSize = newTarget;
+        minIdle = newMinIdle;
+        return changed;
+    }
+
+    /**
+     * Follow a change of the maximum pool size, the estimate is adjusted on the next update.
+     */
+    void setUpperBound(int upperBound) {
+        this.upperBound = upperBound;
+    }
+
+    int getMinIdle() {
+        return minIdle;
+    }
+
+    int getTargetSize() {
+        return targetSize;
+    }
+
+    private int clamp(int size) {
+        final int upperBound = this.upperBound;
+        return Math.max(Math.min(lowerBound, upperBound), Math.min(upperBound, size));
+    }
+
+}
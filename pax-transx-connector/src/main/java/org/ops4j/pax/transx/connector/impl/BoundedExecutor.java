@@ -0,0 +1,163 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.zaxxer.hikari.util.UtilityElf.quietlySleep;
+
+/**
+ * Executor running the tasks of a single connection manager on a shared executor.
+ * <p>At most {@code maxConcurrency} tasks run at the same time, and each of them is handed over
+ * to the shared executor separately, so that the tasks of all the connection managers are interleaved.
+ * Tasks exceeding {@code maxQueued}, read on each submission, are given to the rejection handler.
+ */
+final class BoundedExecutor extends AbstractExecutorService {
+
+    private static final Logger LOG = Logger.getLogger(BoundedExecutor.class.getName());
+
+    private final Executor delegate;
+    private final int maxConcurrency;
+    private final IntSupplier maxQueued;
+    private final Consumer<Runnable> rejectionHandler;
+
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile boolean shutdown;
+
+    /**
+     * @param maxQueued current maximum number of waiting tasks, 0 for no limit
+     */
+    BoundedExecutor(Executor delegate, int maxConcurrency, IntSupplier maxQueued, Consumer<Runnable> rejectionHandler) {
+        this.delegate = delegate;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.maxQueued = maxQueued;
+        this.rejectionHandler = rejectionHandler;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (shutdown) {
+            rejectionHandler.accept(command);
+            return;
+        }
+        int max = maxQueued.getAsInt();
+        int n = queued.incrementAndGet();
+        if (max > 0 && n > max) {
+            queued.decrementAndGet();
+            rejectionHandler.accept(command);
+            return;
+        }
+        queue.add(command);
+        dispatch();
+    }
+
+    private void dispatch() {
+        while (!queue.isEmpty()) {
+            int n = running.get();
+            if (n >= maxConcurrency) {
+                return;
+            }
+            if (running.compareAndSet(n, n + 1)) {
+                try {
+                    delegate.execute(this::runNext);
+                } catch (RejectedExecutionException e) {
+                    // the shared executor is shut down, drop what is left
+                    running.decrementAndGet();
+                    Runnable r;
+                    while ((r = queue.poll()) != null) {
+                        queued.decrementAndGet();
+                        rejectionHandler.accept(r);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private void runNext() {
+        try {
+            Runnable r = queue.poll();
+            if (r != null) {
+                queued.decrementAndGet();
+                r.run();
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.WARNING, "Unexpected exception in pool task", t);
+        } finally {
+            running.decrementAndGet();
+        }
+        // give the tasks of the other connection managers a chance to run before the next one of ours
+        dispatch();
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> tasks = new ArrayList<>();
+        Runnable r;
+        while ((r = queue.poll()) != null) {
+            queued.decrementAndGet();
+            tasks.add(r);
+        }
+        return tasks.isEmpty() ? Collections.emptyList() : tasks;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && running.get() == 0 && queue.isEmpty();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            quietlySleep(10L);
+        }
+        return true;
+    }
+
+}
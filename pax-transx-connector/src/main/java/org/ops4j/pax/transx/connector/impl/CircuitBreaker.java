@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import static com.zaxxer.hikari.util.ClockSource.currentTime;
+import static com.zaxxer.hikari.util.ClockSource.elapsedMillis;
+
+/**
+ * Circuit breaker guarding the creation of the connections of a subpool.
+ * <p>The breaker opens after {@code threshold} consecutive creation failures. While it is open no
+ * connection is created, and borrowers which cannot get an idle connection fail immediately.
+ * Once {@code openTime} has elapsed, the breaker is half-open and lets a single creation through:
+ * it closes if the creation succeeds, and opens again otherwise.
+ */
+final class CircuitBreaker {
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int threshold;
+    private final long openTime;
+
+    // written under the lock, read without it by the borrowers
+    private volatile State state = State.CLOSED;
+    private volatile long openedAt;
+    private volatile Exception lastError;
+    private int failures;
+
+    CircuitBreaker(int threshold, long openTime) {
+        this.threshold = threshold;
+        this.openTime = openTime;
+    }
+
+    /**
+     * @return <code>true</code> if a connection may be created
+     */
+    synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (elapsedMillis(openedAt, currentTime()) < openTime) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                return true;
+            default:
+                // a trial creation is already running
+                return false;
+        }
+    }
+
+    /**
+     * Give back a trial which has not been used.
+     */
+    synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+        }
+    }
+
+    synchronized void success() {
+        state = State.CLOSED;
+        failures = 0;
+        lastError = null;
+    }
+
+    synchronized void failure(Exception e) {
+        lastError = e;
+        if (state == State.HALF_OPEN || ++failures >= threshold) {
+            state = State.OPEN;
+            openedAt = currentTime();
+            failures = 0;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the breaker is open and does not let a trial creation through yet
+     */
+    boolean isOpen() {
+        return state == State.OPEN && elapsedMillis(openedAt, currentTime()) < openTime;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    Exception getLastError() {
+        return lastError;
+    }
+
+}
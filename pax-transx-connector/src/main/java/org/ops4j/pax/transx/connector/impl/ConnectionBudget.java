@@ -0,0 +1,144 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Process wide limit on the number of physical connections opened by several connection managers,
+ * typically all the pools targeting the same database server.
+ * <p>Budgets are identified by name: the first manager joining a budget sets its limit, and the budget
+ * is forgotten when the last one leaves. A manager that cannot get a connection because the budget is
+ * exhausted reclaims the least recently used idle connection of another member, and members release
+ * connections on return while another member is waiting, so that the idle capacity flows to the pool
+ * that needs it.
+ */
+final class ConnectionBudget {
+
+    private static final Logger LOG = Logger.getLogger(ConnectionBudget.class.getName());
+
+    private static final Map<String, ConnectionBudget> BUDGETS = new HashMap<>();
+
+    private final String name;
+    private final int maxConnections;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final List<GenericConnectionManager> members = new CopyOnWriteArrayList<>();
+
+    private ConnectionBudget(String name, int maxConnections) {
+        this.name = name;
+        this.maxConnections = maxConnections;
+    }
+
+    static synchronized ConnectionBudget join(String name, int maxConnections, GenericConnectionManager member) {
+        ConnectionBudget budget = BUDGETS.computeIfAbsent(name, n -> new ConnectionBudget(n, maxConnections));
+        if (budget.maxConnections != maxConnections) {
+            LOG.warning(() -> "Connection budget " + name + " already exists with "
+                    + budget.maxConnections + " connections, ignoring " + maxConnections + ".");
+        }
+        budget.members.add(member);
+        return budget;
+    }
+
+    static synchronized void leave(ConnectionBudget budget, GenericConnectionManager member) {
+        budget.members.remove(member);
+        if (budget.members.isEmpty()) {
+            BUDGETS.remove(budget.name, budget);
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getMaxConnections() {
+        return maxConnections;
+    }
+
+    int getConnections() {
+        return connections.get();
+    }
+
+    boolean tryReserve() {
+        for (;;) {
+            int total = connections.get();
+            if (total >= maxConnections) {
+                return false;
+            }
+            if (connections.compareAndSet(total, total + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give back a connection reserved with {@link #tryReserve()} which could not be created.
+     */
+    void cancel() {
+        connections.decrementAndGet();
+    }
+
+    /**
+     * Give back the connection of a member which has been closed, letting waiting members use it.
+     */
+    void release() {
+        connections.decrementAndGet();
+        for (GenericConnectionManager member : members) {
+            member.connectionCapacityReleased();
+        }
+    }
+
+    boolean isExhausted() {
+        return connections.get() >= maxConnections;
+    }
+
+    /**
+     * Whether the budget is exhausted while a member other than the given one has threads waiting for a connection.
+     */
+    boolean isStarving(GenericConnectionManager requester) {
+        if (!isExhausted()) {
+            return false;
+        }
+        for (GenericConnectionManager member : members) {
+            if (member != requester && member.hasWaiters()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Close the least recently used idle connection of another member, the caller is then
+     * notified through {@link GenericConnectionManager#connectionCapacityReleased()}.
+     */
+    boolean reclaim(GenericConnectionManager requester) {
+        GenericConnectionManager.ManagedConnectionInfo victim = null;
+        for (GenericConnectionManager member : members) {
+            if (member != requester) {
+                GenericConnectionManager.ManagedConnectionInfo mci = member.findIdleVictim(null);
+                if (mci != null && (victim == null || mci.lastAccessed < victim.lastAccessed)) {
+                    victim = mci;
+                }
+            }
+        }
+        return victim != null && victim.reclaim("(connection reclaimed by another pool of budget " + name + ")");
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Daily demand profile of a connection manager, persisted in a small text file.
+ * <p>The day is split in buckets of {@value #BUCKET_MINUTES} minutes, each recording the peak number of
+ * connections in use or awaited that was observed during that bucket. When a bucket is over, its peak is
+ * averaged with the one of the previous days, so that a single unusual day does not stick forever.
+ * <p>The expected demand at a given time is the highest of the current bucket and of the bucket a few
+ * minutes ahead, so that connections are created shortly before a recorded ramp.
+ * <p>The file has one {@code HH:mm peak} line per known bucket.
+ */
+final class DemandProfile {
+
+    static final int BUCKET_MINUTES = 15;
+
+    private static final int BUCKETS = 24 * 60 / BUCKET_MINUTES;
+    private static final int LEAD_MINUTES = 5;
+
+    private static final Logger LOG = Logger.getLogger(DemandProfile.class.getName());
+
+    private final Path file;
+    private final String poolName;
+    // -1 for the buckets which have never been observed
+    private final int[] peaks = new int[BUCKETS];
+
+    private int bucket = -1;
+    private int observed;
+
+    DemandProfile(Path file, String poolName) {
+        this.file = file;
+        this.poolName = poolName;
+        Arrays.fill(peaks, -1);
+        load();
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Record the current demand, saving the profile when a bucket is over.
+     */
+    synchronized void record(LocalTime now, int demand) {
+        int b = bucketOf(now);
+        if (b != bucket) {
+            if (bucket >= 0) {
+                commit();
+                save();
+            }
+            bucket = b;
+            observed = 0;
+        }
+        observed = Math.max(observed, demand);
+    }
+
+    synchronized int expected(LocalTime now) {
+        return Math.max(0, Math.max(peaks[bucketOf(now)], peaks[bucketOf(now.plusMinutes(LEAD_MINUTES))]));
+    }
+
+    synchronized void close() {
+        if (bucket >= 0) {
+            commit();
+            save();
+            bucket = -1;
+        }
+    }
+
+    private void commit() {
+        int previous = peaks[bucket];
+        peaks[bucket] = previous < 0 ? observed : (previous + observed + 1) / 2;
+    }
+
+    private static int bucketOf(LocalTime time) {
+        return (time.getHour() * 60 + time.getMinute()) / BUCKET_MINUTES;
+    }
+
+    private void load() {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                try {
+                    peaks[bucketOf(LocalTime.parse(parts[0]))] = Integer.parseInt(parts[1]);
+                } catch (DateTimeParseException | ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                    LOG.warning(() -> poolName + " - Ignoring invalid line in demand profile " + file + ": " + e);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // nothing recorded yet
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, poolName + " - Unable to read demand profile " + file, e);
+        }
+    }
+
+    private void save() {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writer.write("# " + poolName + " - peak connections per " + BUCKET_MINUTES + " minutes");
+                writer.newLine();
+                for (int i = 0; i < BUCKETS; i++) {
+                    if (peaks[i] >= 0) {
+                        writer.write(LocalTime.ofSecondOfDay(i * BUCKET_MINUTES * 60L) + " " + peaks[i]);
+                        writer.newLine();
+                    }
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, poolName + " - Unable to save demand profile " + file, e);
+        }
+    }
+
+}
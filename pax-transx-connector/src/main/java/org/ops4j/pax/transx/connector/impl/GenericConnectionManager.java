@@ -15,19 +15,33 @@
  */
 package org.ops4j.pax.transx.connector.impl;
 
+import java.time.LocalTime;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.resource.ResourceException;
@@ -35,6 +49,7 @@ import javax.resource.spi.ConnectionEvent;
 import javax.resource.spi.ConnectionEventListener;
 import javax.resource.spi.ConnectionManager;
 import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.LazyAssociatableConnectionManager;
 import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.ManagedConnectionFactory;
 import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
@@ -43,7 +58,14 @@ import javax.security.auth.Subject;
 
 import com.zaxxer.hikari.util.ConcurrentBag;
 import com.zaxxer.hikari.util.UtilityElf;
+import org.ops4j.pax.transx.connector.ConnectionPool;
+import org.ops4j.pax.transx.connector.ConnectionPriority;
+import org.ops4j.pax.transx.connector.ConnectionPool.SuspendPolicy;
+import org.ops4j.pax.transx.connector.PoolSaturatedException;
+import org.ops4j.pax.transx.connector.PriorityConnectionRequestInfo;
 import org.ops4j.pax.transx.connector.SubjectSource;
+import org.ops4j.pax.transx.connector.UpdateTrackingManagedConnection;
+import org.ops4j.pax.transx.tm.LastResource;
 import org.ops4j.pax.transx.tm.NamedResource;
 import org.ops4j.pax.transx.tm.Transaction;
 import org.ops4j.pax.transx.tm.TransactionManager;
@@ -51,22 +73,27 @@ import org.ops4j.pax.transx.tm.TransactionManager;
 import static com.zaxxer.hikari.util.ClockSource.currentTime;
 import static com.zaxxer.hikari.util.ClockSource.elapsedDisplayString;
 import static com.zaxxer.hikari.util.ClockSource.elapsedMillis;
+import static com.zaxxer.hikari.util.ClockSource.elapsedNanos;
 import static com.zaxxer.hikari.util.ClockSource.plusMillis;
 import static com.zaxxer.hikari.util.ConcurrentBag.IConcurrentBagEntry.STATE_IN_USE;
 import static com.zaxxer.hikari.util.ConcurrentBag.IConcurrentBagEntry.STATE_NOT_IN_USE;
+import static com.zaxxer.hikari.util.ConcurrentBag.IConcurrentBagEntry.STATE_RESERVED;
 import static com.zaxxer.hikari.util.UtilityElf.createThreadPoolExecutor;
 import static com.zaxxer.hikari.util.UtilityElf.quietlySleep;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 /**
  * <p>pax-transx implementation of {@link ConnectionManager} which implements:<ul>
  *     <li>pooling using hikari</li>
  *     <li>transaction management by delegating to pax-transx specific {@link TransactionManager}</li>
+ *     <li>lazy association of connection handles which release their managed connection between calls</li>
  * </ul>
  * <p>Both pax-transx-jms and pax-transx-jdbc create an instance of this class.
  */
-public class GenericConnectionManager implements PoolConfigMXBean, ConnectionManager, AutoCloseable {
+public class GenericConnectionManager implements PoolConfigMXBean, ConnectionPool, ConnectionManager, LazyAssociatableConnectionManager, AutoCloseable {
 
     private static final Logger LOG = Logger.getLogger(GenericConnectionManager.class.getName());
 
@@ -76,33 +103,86 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
     private static final Comparator<ManagedConnectionInfo> LASTACCESS_REVERSE_COMPARABLE =
             (entryOne, entryTwo) -> Long.compare(entryTwo.lastAccessed, entryOne.lastAccessed);
 
+    // delay of the refill after a fatal error storm, doubled while the storms keep coming
+    private static final long STORM_REFILL_BACKOFF = 500L;
+    private static final long STORM_REFILL_MAX_BACKOFF = SECONDS.toMillis(10);
+    private static final long STORM_RESET_PERIOD = MINUTES.toMillis(1);
+    // delay before trying again to retire a connection when too many are already being replaced
+    private static final long RETIREMENT_RETRY_DELAY = SECONDS.toMillis(1);
+
     private final TransactionManager transactionManager;
     private final SubjectSource subjectSource;
     private final ClassLoader classLoader;
     private final ManagedConnectionFactory managedConnectionFactory;
     private final String name;
     private final TransactionSupportLevel transactionSupportLevel;
+    private final boolean readOnlyPrepare;
 
     private volatile boolean destroyed = false;
 
     private final String mbeanName;
     private final String poolName;
-    private final int maxPoolSize;
-    private final int minIdle;
-    private final long aliveBypassWindow;
+    // limits and timeouts which can be changed at runtime through the MBean
+    private volatile int maxPoolSize;
+    private volatile int minIdle;
+    private volatile long aliveBypassWindow;
     private final long houseKeepingPeriod;
-    private final long connectionTimeout;
-    private final long idleTimeout;
-    private final long maxLifetime;
-
-    private final ThreadPoolExecutor addConnectionExecutor;
-    private final ThreadPoolExecutor closeConnectionExecutor;
-    private final ScheduledExecutorService houseKeepingExecutorService;
+    private volatile long connectionTimeout;
+    private volatile long idleTimeout;
+    private volatile long maxLifetime;
+    private final int shardMinIdle;
+    private final int shardMaxPoolSize;
+    private final int maxTotalConnections;
+    private final boolean lastResource;
+
+    private final AtomicInteger totalConnections = new AtomicInteger();
+
+    private final boolean sharedExecutors;
+    private final int sharedCreationConcurrency;
+    private final int sharedDestructionConcurrency;
+    private final boolean lazyStart;
+    private final ConnectionRequestInfo defaultConnectionRequestInfo;
+    private final int warmUpConcurrency;
+    private final boolean adaptiveSizing;
+    private final int adaptiveMinIdle;
+    private final DemandProfile demandProfile;
+    private final SuspendPolicy suspendPolicy;
+    private final int fatalErrorThreshold;
+    private final long fatalErrorWindow;
+    private final int circuitBreakerThreshold;
+    private final long circuitBreakerOpenTime;
+    private final double connectionCreationRate;
+    // shared by all the subpools, as they all connect to the same server
+    private final TokenBucket creationRateLimit;
+    private final int maxConcurrentRetirements;
+    private final int maxWaiters;
+    private final long maxEstimatedWait;
+    // connections reserved for each priority, indexed by ordinal, null if priorities are not used
+    private final int[] reservedConnections;
+    // connections guaranteed to each subpool under maxTotalConnections, and absolute limit of each subpool
+    private final int softQuota;
+    private final int hardQuota;
+    // name and limit of the connection budget shared with other managers, null if there is none
+    private final String connectionBudgetName;
+    private final int connectionBudgetMaxConnections;
+    // subpools not used for this long are closed, 0 if they are kept forever
+    private final long subpoolIdleTimeout;
+    // non null while the pool is suspended, released when it is resumed
+    private volatile CountDownLatch suspension;
+
+    // created when the manager starts, which may be deferred until first use
+    private volatile boolean started;
+    private ExecutorService addConnectionExecutor;
+    private ExecutorService closeConnectionExecutor;
+    private ScheduledExecutorService houseKeepingExecutorService;
+    private ConnectionBudget connectionBudget;
 
     private ScheduledFuture<?> houseKeeperTask;
 
-    private final ConcurrentMap<Transaction, ManagedConnectionInfo> infos = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Transaction, Map<Pool, ManagedConnectionInfo>> infos = new ConcurrentHashMap<>();
     private final ConcurrentMap<SubjectCRIKey, Pool> pools = new ConcurrentHashMap<>();
+    private volatile Pool lastPool;
+    private final SubjectCRIKeyCache<Pool> poolCache = new SubjectCRIKeyCache<>();
 
     public GenericConnectionManager(
             TransactionManager transactionManager,
@@ -111,46 +191,321 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
             ClassLoader classLoader,
             ManagedConnectionFactory managedConnectionFactory,
             String name,
-            String poolName,
-            int minIdle,
-            int maxPoolSize,
-            long connectionTimeout,
-            long idleTimeout,
-            long maxLifetime,
-            long aliveBypassWindow,
-            long houseKeepingPeriod) {
+            PoolSettings settings) {
 
         this.transactionManager = transactionManager;
         this.transactionSupportLevel = transactionSupportLevel;
+        this.readOnlyPrepare = settings.isReadOnlyPrepare();
         this.subjectSource = subjectSource;
         this.classLoader = classLoader;
         this.managedConnectionFactory = managedConnectionFactory;
         this.name = name;
-        this.poolName = poolName;
-        this.minIdle = minIdle;
-        this.maxPoolSize = maxPoolSize;
-        this.connectionTimeout = connectionTimeout;
-        this.idleTimeout = idleTimeout;
-        this.maxLifetime = maxLifetime;
-        this.aliveBypassWindow = aliveBypassWindow;
-        this.houseKeepingPeriod = houseKeepingPeriod;
+        this.poolName = settings.getPoolName();
+        this.minIdle = settings.getMinIdle();
+        this.maxPoolSize = settings.getMaxPoolSize();
+        this.connectionTimeout = settings.getConnectionTimeout();
+        this.idleTimeout = settings.getIdleTimeout();
+        this.maxLifetime = settings.getMaxLifetime();
+        this.aliveBypassWindow = settings.getAliveBypassWindow();
+        this.houseKeepingPeriod = settings.getHouseKeepingPeriod();
+        this.shardMinIdle = settings.getShardMinIdle();
+        this.shardMaxPoolSize = settings.getShardMaxPoolSize();
+        this.maxTotalConnections = settings.getMaxTotalConnections();
+        this.lastResource = settings.isLastResource();
+        this.sharedExecutors = settings.isSharedExecutors();
+        this.sharedCreationConcurrency = settings.getSharedCreationConcurrency();
+        this.sharedDestructionConcurrency = settings.getSharedDestructionConcurrency();
+        this.lazyStart = settings.isLazyStart();
+        this.defaultConnectionRequestInfo = settings.getDefaultConnectionRequestInfo();
+        this.warmUpConcurrency = settings.getWarmUpConcurrency();
+        this.adaptiveSizing = settings.isAdaptiveSizing();
+        this.adaptiveMinIdle = settings.getAdaptiveMinIdle();
+        this.demandProfile = settings.getDemandProfile() != null ? new DemandProfile(settings.getDemandProfile(), poolName) : null;
+        this.suspendPolicy = settings.getSuspendPolicy();
+        this.fatalErrorThreshold = settings.getFatalErrorThreshold();
+        this.fatalErrorWindow = settings.getFatalErrorWindow();
+        this.circuitBreakerThreshold = settings.getCircuitBreakerThreshold();
+        this.circuitBreakerOpenTime = settings.getCircuitBreakerOpenTime();
+        this.connectionCreationRate = settings.getConnectionCreationRate();
+        this.creationRateLimit = connectionCreationRate > 0 ? new TokenBucket(connectionCreationRate) : null;
+        this.maxConcurrentRetirements = settings.getMaxConcurrentRetirements();
+        this.maxWaiters = settings.getMaxWaiters();
+        this.maxEstimatedWait = settings.getMaxEstimatedWait();
+        this.reservedConnections = settings.getReservedConnections();
+        this.softQuota = settings.getSoftQuota();
+        this.hardQuota = settings.getHardQuota();
+        this.connectionBudgetName = settings.getConnectionBudgetName();
+        this.connectionBudgetMaxConnections = settings.getConnectionBudgetMaxConnections();
+        this.subpoolIdleTimeout = settings.getSubpoolIdleTimeout();
+        this.mbeanName = "org.ops4j.pax.transx:type=Pool,name=" + poolName;
 
-        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new UtilityElf.DefaultThreadFactory(poolName + " housekeeper", true), new ThreadPoolExecutor.DiscardPolicy());
-        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
-        executor.setRemoveOnCancelPolicy(true);
-        this.houseKeepingExecutorService = executor;
+        if (transactionManager != null && name != null && transactionSupportLevel == TransactionSupportLevel.XATransaction) {
+            transactionManager.registerResource(new RecoverableResourceFactoryImpl(managedConnectionFactory, name));
+        }
 
-        this.addConnectionExecutor = createThreadPoolExecutor(this.maxPoolSize, poolName + " connection adder", null, new ThreadPoolExecutor.DiscardPolicy());
-        this.closeConnectionExecutor = createThreadPoolExecutor(this.maxPoolSize, poolName + " connection closer", null, new ThreadPoolExecutor.CallerRunsPolicy());
+        if (!lazyStart) {
+            start();
+        }
+    }
 
-        this.houseKeeperTask = this.houseKeepingExecutorService.scheduleWithFixedDelay(this::houseKeep, 100L, this.houseKeepingPeriod, MILLISECONDS);
+    /**
+     * Create the executors, schedule the housekeeper and register the MBean.
+     *
+     * @return <code>false</code> if the manager has been closed
+     */
+    private synchronized boolean start() {
+        if (started) {
+            return true;
+        }
+        if (destroyed) {
+            return false;
+        }
+        // discard the creation, enough of them are already queued
+        final Consumer<Runnable> discardCreation = task -> {
+            if (task instanceof Pool.ConnectionCreation) {
+                ((Pool.ConnectionCreation) task).discard();
+            }
+        };
+        if (sharedExecutors) {
+            SharedExecutors shared = SharedExecutors.acquire();
+            this.houseKeepingExecutorService = shared.scheduler;
+            // the creations queued are bounded by the current maximum pool size
+            this.addConnectionExecutor = new BoundedExecutor(shared.connectionAdder, sharedCreationConcurrency,
+                    () -> this.maxPoolSize, discardCreation);
+            this.closeConnectionExecutor = new BoundedExecutor(shared.connectionCloser, sharedDestructionConcurrency,
+                    () -> 0, Runnable::run);
+        } else {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new UtilityElf.DefaultThreadFactory(poolName + " housekeeper", true), new ThreadPoolExecutor.DiscardPolicy());
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            executor.setRemoveOnCancelPolicy(true);
+            this.houseKeepingExecutorService = executor;
+            this.addConnectionExecutor = createThreadPoolExecutor(this.maxPoolSize, poolName + " connection adder", null,
+                    (task, adder) -> discardCreation.accept(task));
+            // connections are only closed by the caller once the executor is shut down, never by a borrower
+            this.closeConnectionExecutor = createThreadPoolExecutor(new LinkedBlockingQueue<>(), poolName + " connection closer", null,
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
 
-        if (transactionManager != null && name != null && transactionSupportLevel == TransactionSupportLevel.XATransaction) {
-            transactionManager.registerResource(new RecoverableResourceFactoryImpl(managedConnectionFactory, name));
+        if (connectionBudgetName != null) {
+            this.connectionBudget = ConnectionBudget.join(connectionBudgetName, connectionBudgetMaxConnections, this);
         }
 
-        this.mbeanName = "org.ops4j.pax.transx:type=Pool,name=" + poolName;
+        this.houseKeeperTask = this.houseKeepingExecutorService.scheduleWithFixedDelay(this::houseKeep, 100L, this.houseKeepingPeriod, MILLISECONDS);
+
         MBeanHandler.registerMBean(this, mbeanName);
+        started = true;
+        return true;
+    }
+
+    private void ensureStarted() throws ResourceException {
+        if (!started && !start()) {
+            throw new ResourceException(poolName + " - Connection manager has been closed");
+        }
+    }
+
+    /**
+     * Start the manager if it was configured to start lazily, and fill the subpool
+     * of the default connection request info up to {@code minIdle} connections.
+     */
+    @Override
+    public void warmUp() throws ResourceException {
+        ensureStarted();
+        Subject subject = subjectSource != null ? subjectSource.getSubject() : null;
+        getPool(subject, defaultConnectionRequestInfo).fillPool();
+    }
+
+    /**
+     * Start the manager if needed, and create the {@code minIdle} connections of the subpool of the default
+     * connection request info, using up to {@code warmUpConcurrency} threads.
+     */
+    @Override
+    public void warmUp(long timeout, TimeUnit unit) throws ResourceException {
+        ensureStarted();
+        Subject subject = subjectSource != null ? subjectSource.getSubject() : null;
+        getPool(subject, defaultConnectionRequestInfo).warmUp(unit.toMillis(timeout), warmUpConcurrency);
+    }
+
+    /**
+     * Stop lending new connections: according to the suspend policy, borrowers wait until the pool
+     * is resumed or fail immediately. Connections already enlisted in a transaction are still handed out,
+     * so that in-flight transactions can complete, and no connection is created while suspended.
+     */
+    @Override
+    public synchronized void suspend() {
+        if (suspension == null) {
+            suspension = new CountDownLatch(1);
+            LOG.info(() -> poolName + " - Pool suspended");
+        }
+    }
+
+    /**
+     * Lend connections again, and refill the subpools in the background.
+     */
+    @Override
+    public void resume() {
+        CountDownLatch latch;
+        synchronized (this) {
+            latch = suspension;
+            suspension = null;
+        }
+        if (latch == null) {
+            return;
+        }
+        LOG.info(() -> poolName + " - Pool resumed");
+        latch.countDown();
+        if (!started || destroyed) {
+            return;
+        }
+        // the creations are queued on the connection adder, without blocking the caller
+        pools.values().forEach(Pool::fillPool);
+    }
+
+    @Override
+    public boolean isSuspended() {
+        return suspension != null;
+    }
+
+    @Override
+    public SuspendPolicy getSuspendPolicy() {
+        return suspendPolicy;
+    }
+
+    @Override
+    public int getFatalErrorThreshold() {
+        return fatalErrorThreshold;
+    }
+
+    @Override
+    public long getFatalErrorWindow() {
+        return fatalErrorWindow;
+    }
+
+    @Override
+    public int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    @Override
+    public long getCircuitBreakerOpenTime() {
+        return circuitBreakerOpenTime;
+    }
+
+    @Override
+    public double getConnectionCreationRate() {
+        return connectionCreationRate;
+    }
+
+    @Override
+    public int getMaxConcurrentRetirements() {
+        return maxConcurrentRetirements;
+    }
+
+    @Override
+    public int getMaxWaiters() {
+        return maxWaiters;
+    }
+
+    @Override
+    public long getMaxEstimatedWait() {
+        return maxEstimatedWait;
+    }
+
+    @Override
+    public long getSubpoolIdleTimeout() {
+        return subpoolIdleTimeout;
+    }
+
+    @Override
+    public int getSubpoolCount() {
+        return pools.size();
+    }
+
+    @Override
+    public String getConnectionBudget() {
+        return connectionBudgetName;
+    }
+
+    @Override
+    public int getConnectionBudgetMaxConnections() {
+        return connectionBudgetMaxConnections;
+    }
+
+    @Override
+    public int getConnectionBudgetConnections() {
+        final ConnectionBudget connectionBudget = this.connectionBudget;
+        return connectionBudget != null ? connectionBudget.getConnections() : 0;
+    }
+
+    @Override
+    public int getSoftQuota() {
+        return softQuota;
+    }
+
+    @Override
+    public int getHardQuota() {
+        return hardQuota;
+    }
+
+    @Override
+    public Map<String, Integer> getReservedConnectionsByPriority() {
+        Map<String, Integer> reserved = new LinkedHashMap<>();
+        for (ConnectionPriority priority : ConnectionPriority.values()) {
+            reserved.put(priority.name(), reservedConnections != null ? reservedConnections[priority.ordinal()] : 0);
+        }
+        return reserved;
+    }
+
+    @Override
+    public boolean drain(long timeout) {
+        return drain(timeout, MILLISECONDS);
+    }
+
+    /**
+     * Suspend the pool, wait for the borrowed connections to be returned, and evict all the connections.
+     * The connections still in use when the timeout expires are closed when they are returned.
+     * The pool stays suspended until {@link #resume()} is called.
+     */
+    @Override
+    public boolean drain(long timeout, TimeUnit unit) {
+        suspend();
+        final long deadline = plusMillis(currentTime(), unit.toMillis(timeout));
+        boolean drained;
+        while (!(drained = getActiveConnections() == 0) && currentTime() < deadline && !destroyed) {
+            quietlySleep(Math.min(50L, Math.max(1L, elapsedMillis(currentTime(), deadline))));
+        }
+        pools.values().forEach(Pool::softEvictConnections);
+        LOG.info(() -> poolName + " - Pool drained");
+        return drained;
+    }
+
+    private int getActiveConnections() {
+        int active = 0;
+        for (Pool pool : pools.values()) {
+            active += pool.getActiveConnections();
+        }
+        return active;
+    }
+
+    private void awaitResumed() throws ResourceException {
+        final CountDownLatch suspension = this.suspension;
+        if (suspension == null) {
+            return;
+        }
+        if (suspendPolicy == SuspendPolicy.FAIL) {
+            throw new ResourceException(poolName + " - Pool is suspended");
+        }
+        try {
+            if (!suspension.await(connectionTimeout, MILLISECONDS)) {
+                throw new ResourceException(poolName + " - Pool is suspended, request timed out after " + connectionTimeout + "ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceException(poolName + " - Interrupted while the pool is suspended", e);
+        }
+        if (destroyed) {
+            // the latch has been released by close()
+            throw new ResourceException(poolName + " - Connection manager has been closed");
+        }
     }
 
     @Override
@@ -183,15 +538,277 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
         return aliveBypassWindow;
     }
 
+    @Override
+    public synchronized void setMinIdle(int minIdle) {
+        checkMinIdle(minIdle, maxPoolSize);
+        this.minIdle = minIdle;
+        poolsResized();
+    }
+
+    @Override
+    public synchronized void setMaxPoolSize(int maxPoolSize) {
+        checkMaxPoolSize(maxPoolSize);
+        if (minIdle > maxPoolSize) {
+            LOG.warning(() -> poolName + " - minIdle is more than the new maxPoolSize, lowering it to " + maxPoolSize + ".");
+            minIdle = maxPoolSize;
+        }
+        applyMaxPoolSize(maxPoolSize);
+        poolsResized();
+    }
+
+    @Override
+    public void setConnectionTimeout(long connectionTimeout) {
+        checkConnectionTimeout(connectionTimeout);
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    @Override
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        checkTimeouts(idleTimeout, maxLifetime);
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Change the lifetime of the connections created from now on, the existing ones keep their own.
+     */
+    @Override
+    public synchronized void setMaxLifetime(long maxLifetime) {
+        checkTimeouts(idleTimeout, maxLifetime);
+        this.maxLifetime = maxLifetime;
+    }
+
+    @Override
+    public void setAliveBypassWindow(long aliveBypassWindow) {
+        checkAliveBypassWindow(aliveBypassWindow);
+        this.aliveBypassWindow = aliveBypassWindow;
+    }
+
+    /**
+     * Apply the given pool properties, using the names of the builder options.
+     * <p>All the values are checked together before any of them is applied, so that an invalid
+     * value leaves the whole configuration unchanged.
+     */
+    @Override
+    public synchronized void reconfigure(Map<String, ?> properties) {
+        final int maxPoolSize = (int) toLong(properties, "maxPoolSize", this.maxPoolSize);
+        final boolean lowerMinIdle = properties.get("minIdle") == null && this.minIdle > maxPoolSize;
+        final int minIdle = lowerMinIdle ? maxPoolSize : (int) toLong(properties, "minIdle", this.minIdle);
+        final long connectionTimeout = toLong(properties, "connectionTimeout", this.connectionTimeout);
+        final long idleTimeout = toLong(properties, "idleTimeout", this.idleTimeout);
+        final long maxLifetime = toLong(properties, "maxLifetime", this.maxLifetime);
+        final long aliveBypassWindow = toLong(properties, "aliveBypassWindow", this.aliveBypassWindow);
+
+        checkMaxPoolSize(maxPoolSize);
+        checkMinIdle(minIdle, maxPoolSize);
+        checkConnectionTimeout(connectionTimeout);
+        checkTimeouts(idleTimeout, maxLifetime);
+        checkAliveBypassWindow(aliveBypassWindow);
+
+        if (lowerMinIdle) {
+            LOG.warning(() -> poolName + " - minIdle is more than the new maxPoolSize, lowering it to " + maxPoolSize + ".");
+        }
+        this.minIdle = minIdle;
+        applyMaxPoolSize(maxPoolSize);
+        this.connectionTimeout = connectionTimeout;
+        this.idleTimeout = idleTimeout;
+        this.maxLifetime = maxLifetime;
+        this.aliveBypassWindow = aliveBypassWindow;
+        poolsResized();
+    }
+
+    private void applyMaxPoolSize(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+        for (Pool pool : pools.values()) {
+            if (pool.sizing != null && !pool.key.isSharded()) {
+                pool.sizing.setUpperBound(maxPoolSize);
+            }
+        }
+    }
+
+    private static void checkMaxPoolSize(int maxPoolSize) {
+        if (maxPoolSize < 1) {
+            throw new IllegalArgumentException("maxPoolSize must be at least 1");
+        }
+    }
+
+    private static void checkMinIdle(int minIdle, int maxPoolSize) {
+        if (minIdle < 0 || minIdle > maxPoolSize) {
+            throw new IllegalArgumentException("minIdle must be between 0 and maxPoolSize (" + maxPoolSize + ")");
+        }
+    }
+
+    private static void checkConnectionTimeout(long connectionTimeout) {
+        if (connectionTimeout < 250) {
+            throw new IllegalArgumentException("connectionTimeout must be at least 250ms");
+        }
+    }
+
+    private static void checkTimeouts(long idleTimeout, long maxLifetime) {
+        if (idleTimeout != 0 && idleTimeout < SECONDS.toMillis(10)) {
+            throw new IllegalArgumentException("idleTimeout must be 0 or at least 10000ms");
+        }
+        if (maxLifetime != 0 && maxLifetime < SECONDS.toMillis(30)) {
+            throw new IllegalArgumentException("maxLifetime must be 0 or at least 30000ms");
+        }
+        if (idleTimeout + SECONDS.toMillis(1) > maxLifetime && maxLifetime > 0 && idleTimeout > 0) {
+            throw new IllegalArgumentException("idleTimeout (" + idleTimeout + "ms) must be less than maxLifetime (" + maxLifetime + "ms)");
+        }
+    }
+
+    private static void checkAliveBypassWindow(long aliveBypassWindow) {
+        if (aliveBypassWindow < 0) {
+            throw new IllegalArgumentException("aliveBypassWindow must not be negative");
+        }
+    }
+
+    private static long toLong(Map<String, ?> properties, String property, long current) {
+        Object v = properties.get(property);
+        return v != null ? toLong(v, property) : current;
+    }
+
+    private static long toLong(Object v, String property) {
+        try {
+            return Long.parseLong(v.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Can't parse property \"" + property + "\" as long");
+        }
+    }
+
+    /**
+     * Let the subpools follow a change of their limits: create connections for the threads
+     * that may now get one, and for the missing idle ones.
+     */
+    private void poolsResized() {
+        if (!started || destroyed) {
+            return;
+        }
+        for (Pool pool : pools.values()) {
+            if (pool.bag.getWaitingThreadCount() > 0) {
+                pool.submitCreation(null);
+            }
+            pool.fillPool();
+        }
+    }
+
     @Override
     public long getHouseKeepingPeriod() {
         return houseKeepingPeriod;
     }
 
+    @Override
+    public int getShardMinIdle() {
+        return shardMinIdle;
+    }
+
+    @Override
+    public int getShardMaxPoolSize() {
+        return shardMaxPoolSize;
+    }
+
+    @Override
+    public int getMaxTotalConnections() {
+        return maxTotalConnections;
+    }
+
+    @Override
+    public boolean isLastResource() {
+        return lastResource;
+    }
+
+    @Override
+    public boolean isSharedExecutors() {
+        return sharedExecutors;
+    }
+
+    @Override
+    public boolean isLazyStart() {
+        return lazyStart;
+    }
+
+    @Override
+    public int getWarmUpConcurrency() {
+        return warmUpConcurrency;
+    }
+
+    @Override
+    public boolean isAdaptiveSizing() {
+        return adaptiveSizing;
+    }
+
+    @Override
+    public int getAdaptiveMinIdle() {
+        return adaptiveMinIdle;
+    }
+
+    @Override
+    public String getDemandProfile() {
+        return demandProfile != null ? demandProfile.getFile().toString() : null;
+    }
+
+    @Override
+    public int getEffectiveMinIdle() {
+        int effective = 0;
+        for (Pool pool : pools.values()) {
+            effective += pool.getEffectiveMinIdle();
+        }
+        return effective;
+    }
+
+    @Override
+    public int getTargetPoolSize() {
+        int target = 0;
+        for (Pool pool : pools.values()) {
+            target += pool.getTargetPoolSize();
+        }
+        return target;
+    }
+
     private void houseKeep() {
+        if (demandProfile != null) {
+            replayDemandProfile();
+        }
+        if (subpoolIdleTimeout > 0) {
+            evictIdleSubpools();
+        }
         pools.values().forEach(Pool::houseKeep);
     }
 
+    /**
+     * Close the subpools which have not been used for {@code subpoolIdleTimeout}, so that managers
+     * borrowing with many different subjects or request infos do not keep a subpool for each of them.
+     */
+    private void evictIdleSubpools() {
+        final long now = currentTime();
+        for (Pool pool : pools.values()) {
+            if (pool.isUnused(now) && pool.evict()) {
+                LOG.fine(() -> poolName + " - Evicted subpool " + pool.key + " unused for " + subpoolIdleTimeout + "ms");
+            }
+        }
+    }
+
+    /**
+     * Record the current demand in the profile, and raise the minimum number of idle connections
+     * of the default subpool to the demand expected in the next few minutes.
+     */
+    private void replayDemandProfile() {
+        final LocalTime now = LocalTime.now();
+        int demand = 0;
+        Pool target = null;
+        for (Pool pool : pools.values()) {
+            demand += pool.getActiveConnections() + pool.bag.getWaitingThreadCount();
+            if (!pool.key.isSharded() && Objects.equals(pool.key.getCri(), defaultConnectionRequestInfo)) {
+                target = pool;
+            }
+        }
+        demandProfile.record(now, demand);
+        if (target == null && pools.size() == 1) {
+            target = pools.values().iterator().next();
+        }
+        if (target != null) {
+            target.expectedDemand = demandProfile.expected(now);
+        }
+    }
+
     /**
      * in: jms != null, is a deployed jms
      * out: useable connection object.
@@ -200,62 +817,166 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
     public Object allocateConnection(ManagedConnectionFactory managedConnectionFactory,
                                      ConnectionRequestInfo connectionRequestInfo) throws ResourceException {
         assert managedConnectionFactory == this.managedConnectionFactory;
+        ensureStarted();
         Subject subject = subjectSource != null ? subjectSource.getSubject() : null;
         return allocateConnection(subject, connectionRequestInfo);
     }
 
     private Object allocateConnection(Subject subject, ConnectionRequestInfo connectionRequestInfo) throws ResourceException {
         ManagedConnectionInfo mci = getMci(subject, connectionRequestInfo);
-        return mci.getManagedConnection().getConnection(subject, connectionRequestInfo);
+        // hand the canonical subject and request info of the subpool to the managed connection,
+        // so that it can recognize the credentials it already verified by identity
+        SubjectCRIKey key = mci.pool.key;
+        return mci.getManagedConnection().getConnection(key.getSubject(), key.getCri());
     }
 
-    private ManagedConnectionInfo getMci(Subject subject, ConnectionRequestInfo connectionRequestInfo) throws ResourceException {
-        ClassLoader prevClassLoader = null;
-        if (classLoader != null) {
-            ClassLoader cl = Thread.currentThread().getContextClassLoader();
-            if (cl != classLoader) {
-                prevClassLoader = cl;
-                Thread.currentThread().setContextClassLoader(classLoader);
+    /**
+     * Re-associate a connection handle which released its managed connection with a managed connection
+     * from the pool, or with the one already enlisted in the current transaction.
+     */
+    @Override
+    public void associateConnection(Object connection,
+                                    ManagedConnectionFactory managedConnectionFactory,
+                                    ConnectionRequestInfo connectionRequestInfo) throws ResourceException {
+        assert managedConnectionFactory == this.managedConnectionFactory;
+        ensureStarted();
+        Subject subject = subjectSource != null ? subjectSource.getSubject() : null;
+        ManagedConnectionInfo mci = getMci(subject, connectionRequestInfo);
+        try {
+            mci.getManagedConnection().associateConnection(connection);
+        } catch (ResourceException | RuntimeException e) {
+            if (mci.transaction == null) {
+                mci.requite();
             }
+            throw e;
+        }
+    }
+
+    @Override
+    public void inactiveConnectionClosed(Object connection, ManagedConnectionFactory managedConnectionFactory) {
+        // a dissociated handle does not hold any managed connection
+    }
+
+    private ManagedConnectionInfo getMci(Subject subject, ConnectionRequestInfo connectionRequestInfo) throws ResourceException {
+        Pool pool = getPool(subject, connectionRequestInfo);
+        // the subpool cannot be evicted while it is pinned, an evicted one is resolved again
+        while (!pool.pin()) {
+            pool = getPool(subject, connectionRequestInfo);
         }
         try {
-            Transaction transaction = transactionSupportLevel != TransactionSupportLevel.NoTransaction
-                                        && transactionManager != null ? transactionManager.getTransaction() : null;
-            if (transaction != null && transaction.isActive()) {
-                ManagedConnectionInfo existing = infos.get(transaction);
-                if (existing != null) {
-                    return existing;
-                }
-                ManagedConnectionInfo mci = getMciFromPool(subject, connectionRequestInfo);
-                infos.put(transaction, mci);
-                transaction.synchronization(null, status -> {
-                    infos.remove(transaction);
-                    mci.requite();
-                });
-                mci.enlist(transaction);
-                return mci;
-            } else {
-                return getMciFromPool(subject, connectionRequestInfo);
-            }
+            return getMci(pool, connectionRequestInfo);
         } finally {
-            if (prevClassLoader != null) {
-                Thread.currentThread().setContextClassLoader(prevClassLoader);
+            pool.unpin();
+        }
+    }
+
+    private ManagedConnectionInfo getMci(Pool pool, ConnectionRequestInfo connectionRequestInfo) throws ResourceException {
+        Transaction transaction = transactionSupportLevel != TransactionSupportLevel.NoTransaction
+                                    && transactionManager != null ? transactionManager.getTransaction() : null;
+        if (transaction != null && transaction.isActive()) {
+            // connections are shared within a transaction, but only inside the same subpool,
+            // so that a transaction spanning several shards gets one connection per shard
+            Map<Pool, ManagedConnectionInfo> enlisted = infos.get(transaction);
+            ManagedConnectionInfo existing = enlisted != null ? enlisted.get(pool) : null;
+            if (existing != null) {
+                return existing;
+            }
+            // another connection manager for an equal factory may already have a connection
+            // enlisted for the same credentials: it stays owned and returned by that manager
+            existing = TransactionRegistry.lookup(transaction, pool.sharingKey);
+            if (existing != null) {
+                return existing;
             }
+            ManagedConnectionInfo mci = getMciFromPool(pool, connectionRequestInfo, connectionTimeout);
+            infos.computeIfAbsent(transaction, tx -> new ConcurrentHashMap<>()).put(pool, mci);
+            transaction.synchronization(null, status -> {
+                infos.computeIfPresent(transaction, (tx, map) -> {
+                    map.remove(pool);
+                    return map.isEmpty() ? null : map;
+                });
+                mci.requite();
+            });
+            mci.enlist(transaction);
+            TransactionRegistry.share(transaction, pool.sharingKey, mci);
+            return mci;
+        } else {
+            return getMciFromPool(pool, connectionRequestInfo, connectionTimeout);
         }
     }
 
-    private ManagedConnectionInfo getMciFromPool(Subject subject, ConnectionRequestInfo connectionRequestInfo) throws ResourceException {
+    private Pool getPool(Subject subject, ConnectionRequestInfo connectionRequestInfo) {
+        // container managed authentication usually borrows with the same read-only subject instance,
+        // which is resolved with a pointer comparison instead of hashing the subject
+        Pool pool = poolCache.get(subject, connectionRequestInfo);
+        if (pool != null && !pool.isEvicted()) {
+            return pool;
+        }
+        // most managers only use a single subpool, so remember the last one to avoid creating a key
+        pool = lastPool;
+        if (pool != null && pool.key.getSubject() == subject && pool.key.matches(subject, connectionRequestInfo) && !pool.isEvicted()) {
+            return pool;
+        }
         SubjectCRIKey key = new SubjectCRIKey(subject, connectionRequestInfo);
-        Pool pool = pools.computeIfAbsent(key, Pool::new);
-        return getMciFromPool(pool, connectionTimeout);
+        pool = pools.get(key);
+        if (pool == null) {
+            pool = pools.computeIfAbsent(key, k -> {
+                Pool created = new Pool(k);
+                // keep the JMX registration off the borrowing thread
+                houseKeepingExecutorService.execute(created::registerMBean);
+                return created;
+            });
+        }
+        lastPool = pool;
+        poolCache.put(subject, connectionRequestInfo, pool);
+        return pool;
     }
 
-    private ManagedConnectionInfo getMciFromPool(Pool pool, long connectionTimeout) throws ResourceException {
+    /**
+     * Use the configured class loader as context class loader while calling the managed connection factory.
+     *
+     * @return the class loader to restore, or <code>null</code>
+     */
+    private ClassLoader switchContextClassLoader() {
+        if (classLoader != null) {
+            ClassLoader cl = Thread.currentThread().getContextClassLoader();
+            if (cl != classLoader) {
+                Thread.currentThread().setContextClassLoader(classLoader);
+                return cl;
+            }
+        }
+        return null;
+    }
+
+    private static void restoreContextClassLoader(ClassLoader prevClassLoader) {
+        if (prevClassLoader != null) {
+            Thread.currentThread().setContextClassLoader(prevClassLoader);
+        }
+    }
+
+    private ManagedConnectionInfo getMciFromPool(Pool pool, ConnectionRequestInfo connectionRequestInfo, long connectionTimeout) throws ResourceException {
+        awaitResumed();
+        if (maxWaiters > 0 || maxEstimatedWait > 0) {
+            shedLoad(pool);
+        }
         final long startTime = currentTime();
 
-        long timeout = connectionTimeout;
+        // while connections cannot be created, only an idle one can be handed out
+        final boolean breakerOpen = pool.breaker != null && pool.breaker.isOpen();
+        long timeout = breakerOpen ? 0L : connectionTimeout;
         ManagedConnectionInfo mci = null;
+        // priority holding a permit of the lanes while borrowing
+        ConnectionPriority admitted = null;
         try {
+            if (pool.lanes != null && !breakerOpen) {
+                final ConnectionPriority priority = priorityOf(connectionRequestInfo);
+                final long remaining = pool.lanes.admit(priority, pool.maxPoolSize(), MILLISECONDS.toNanos(timeout));
+                if (remaining < 0) {
+                    throw new ResourceException(poolName + " - Connection is not available for " + priority
+                            + " priority requests, request timed out after " + elapsedMillis(startTime) + "ms.");
+                }
+                admitted = priority;
+                timeout = NANOSECONDS.toMillis(remaining);
+            }
             do {
                 mci = pool.borrow(timeout, MILLISECONDS);
                 if (mci == null) {
@@ -265,13 +986,16 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
                 final long now = currentTime();
                 if (mci.isMarkedEvicted() || (elapsedMillis(mci.lastAccessed, now) > aliveBypassWindow && !isValid(mci))) {
                     pool.closeConnection(mci, "(connection is evicted or dead)"); // Throw away the dead connection (passed max age or failed alive test)
-                    timeout = connectionTimeout - elapsedMillis(startTime);
+                    timeout = breakerOpen ? 0L : connectionTimeout - elapsedMillis(startTime);
                 }
                 else {
                     mci.lastBorrowed = now;
+                    if (pool.sizing != null) {
+                        pool.sizing.borrowed();
+                    }
                     return mci;
                 }
-            } while (timeout > 0L);
+            } while (timeout > 0L || (breakerOpen && mci != null));
         }
         catch (InterruptedException e) {
             if (mci != null) {
@@ -281,12 +1005,56 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
             Thread.currentThread().interrupt();
             throw new ResourceException(poolName + " - Interrupted during connection acquisition", e);
         }
+        finally {
+            if (admitted != null) {
+                pool.lanes.leave(admitted);
+            }
+        }
 
+        if (breakerOpen) {
+            throw new ResourceException(poolName + " - Connection is not available, circuit breaker is open after "
+                    + circuitBreakerThreshold + " consecutive connection failures.", pool.breaker.getLastError());
+        }
         throw new ResourceException(poolName + " - Connection is not available, request timed out after " + elapsedMillis(startTime) + "ms.");
     }
 
+    private static ConnectionPriority priorityOf(ConnectionRequestInfo connectionRequestInfo) {
+        if (connectionRequestInfo instanceof PriorityConnectionRequestInfo) {
+            ConnectionPriority priority = ((PriorityConnectionRequestInfo) connectionRequestInfo).getPriority();
+            if (priority != null) {
+                return priority;
+            }
+        }
+        return ConnectionPriority.current();
+    }
+
+    /**
+     * Reject the request right away if too many threads are already waiting for a connection of the subpool,
+     * or if the wait estimated from the mean hold time of the connections is too long.
+     */
+    private void shedLoad(Pool pool) throws PoolSaturatedException {
+        final int waiters = pool.bag.getWaitingThreadCount();
+        if (waiters == 0) {
+            return;
+        }
+        if (maxWaiters > 0 && waiters >= maxWaiters) {
+            pool.rejected.increment();
+            throw new PoolSaturatedException(poolName + " - Connection is not available, " + waiters + " threads are already waiting.");
+        }
+        if (maxEstimatedWait > 0) {
+            // the waiters ahead are served as the connections are returned
+            final long estimated = NANOSECONDS.toMillis((waiters + 1) * pool.meanHoldTime / Math.max(1, pool.getTotalConnections()));
+            if (estimated > maxEstimatedWait) {
+                pool.rejected.increment();
+                throw new PoolSaturatedException(poolName + " - Connection is not available, estimated wait of " + estimated
+                        + "ms for " + waiters + " threads already waiting.");
+            }
+        }
+    }
+
     private boolean isValid(ManagedConnectionInfo mci) {
         if (managedConnectionFactory instanceof ValidatingManagedConnectionFactory) {
+            ClassLoader prevClassLoader = switchContextClassLoader();
             try {
                 Set s = ((ValidatingManagedConnectionFactory) managedConnectionFactory)
                         .getInvalidConnections(Collections.singleton(mci.getManagedConnection()));
@@ -295,6 +1063,8 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
                 }
             } catch (ResourceException e) {
                 // Ignore
+            } finally {
+                restoreContextClassLoader(prevClassLoader);
             }
         } else {
             LOG.warning("Connection validation configured, but the ManagedConnectionFactory does not implement the ValidatingManagedConnectionFactory interface");
@@ -306,6 +1076,20 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
     public void close() throws Exception {
         MBeanHandler.unregisterMBean(mbeanName);
         destroyed = true;
+        // let suspended borrowers fail now rather than after the connection timeout
+        final CountDownLatch suspension = this.suspension;
+        if (suspension != null) {
+            suspension.countDown();
+        }
+        synchronized (this) {
+            // nothing to stop if the manager has never been used
+            if (!started) {
+                if (transactionManager != null && name != null) {
+                    transactionManager.unregisterResource(name);
+                }
+                return;
+            }
+        }
         if (houseKeeperTask != null) {
             houseKeeperTask.cancel(false);
             houseKeeperTask = null;
@@ -316,10 +1100,16 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
         addConnectionExecutor.shutdown();
         addConnectionExecutor.awaitTermination(5L, SECONDS);
 
-        houseKeepingExecutorService.shutdownNow();
+        if (!sharedExecutors) {
+            houseKeepingExecutorService.shutdownNow();
+        }
 
         pools.values().forEach(Pool::close);
 
+        if (demandProfile != null) {
+            demandProfile.close();
+        }
+
 //        final ExecutorService assassinExecutor = new ThreadPoolExecutor(1, 1, 5, SECONDS, new LinkedBlockingQueue<>(maxPoolSize * pools.size()),
 //                new UtilityElf.DefaultThreadFactory(poolName + " connection assassinator", true),
 //                new ThreadPoolExecutor.CallerRunsPolicy());
@@ -338,11 +1128,121 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
         closeConnectionExecutor.shutdown();
         closeConnectionExecutor.awaitTermination(5L, SECONDS);
 
+        if (sharedExecutors) {
+            SharedExecutors.release();
+        }
+
+        if (connectionBudget != null) {
+            ConnectionBudget.leave(connectionBudget, this);
+        }
+
         if (transactionManager != null && name != null) {
             transactionManager.unregisterResource(name);
         }
     }
 
+    /**
+     * Reserve room for a new physical connection, honoring {@code maxTotalConnections} and the connection budget.
+     */
+    private boolean reserveConnection() {
+        for (;;) {
+            int total = totalConnections.get();
+            if (maxTotalConnections > 0 && total >= maxTotalConnections) {
+                return false;
+            }
+            if (totalConnections.compareAndSet(total, total + 1)) {
+                if (connectionBudget != null && !connectionBudget.tryReserve()) {
+                    totalConnections.decrementAndGet();
+                    return false;
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give back the room reserved for a connection which could not be created.
+     */
+    private void cancelConnection() {
+        totalConnections.decrementAndGet();
+        if (connectionBudget != null) {
+            connectionBudget.cancel();
+        }
+    }
+
+    private void releaseConnection() {
+        totalConnections.decrementAndGet();
+        if (connectionBudget != null) {
+            // notifies all the managers of the budget, including this one
+            connectionBudget.release();
+        } else if (maxTotalConnections > 0) {
+            connectionCapacityReleased();
+        }
+    }
+
+    /**
+     * Give subpools that could not grow because of the global limit or the connection budget a chance to do so.
+     */
+    void connectionCapacityReleased() {
+        if (!destroyed) {
+            for (Pool pool : pools.values()) {
+                if (pool.bag.getWaitingThreadCount() > 0) {
+                    pool.submitCreation(null);
+                }
+            }
+        }
+    }
+
+    boolean hasWaiters() {
+        for (Pool pool : pools.values()) {
+            if (pool.bag.getWaitingThreadCount() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isGlobalLimitReached() {
+        return maxTotalConnections > 0 && totalConnections.get() >= maxTotalConnections;
+    }
+
+    private boolean hasWaitersOutside(Pool pool) {
+        for (Pool p : pools.values()) {
+            if (p != pool && p.bag.getWaitingThreadCount() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Close the least recently used idle connection of another subpool so that
+     * the given subpool can create a connection without exceeding {@code maxTotalConnections}.
+     * With a soft quota, only the connections a subpool holds beyond its quota can be reclaimed.
+     */
+    private boolean reclaimIdleConnection(Pool requester) {
+        final ManagedConnectionInfo victim = findIdleVictim(requester);
+        return victim != null && victim.reclaim("(connection reclaimed by another subpool)");
+    }
+
+    /**
+     * Find the least recently used idle connection which can be reclaimed for the given subpool,
+     * or for another connection manager if it is <code>null</code>.
+     */
+    ManagedConnectionInfo findIdleVictim(Pool requester) {
+        ManagedConnectionInfo victim = null;
+        for (Pool pool : pools.values()) {
+            if (pool != requester && (softQuota <= 0 || pool.isOverSoftQuota())) {
+                for (ManagedConnectionInfo mci : pool.bag.values(STATE_NOT_IN_USE)) {
+                    if (victim == null || mci.lastAccessed < victim.lastAccessed) {
+                        victim = mci;
+                    }
+                }
+            }
+        }
+        return victim;
+    }
+
     private void quietlyCloseConnection(final ManagedConnectionInfo connection, final String closureReason) {
         LOG.fine(() -> poolName + " - Closing connection " + connection + ": " + closureReason);
         try {
@@ -356,24 +1256,135 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
 
         private final String mbeanName;
         private final SubjectCRIKey key;
+        // identifies the connections of this subpool that other managers may share in a transaction
+        private final TransactionRegistry.Key sharingKey;
         private final ConcurrentBag<ManagedConnectionInfo> bag;
+        // adjusts the effective minIdle to the observed demand, null if adaptive sizing is disabled
+        final AdaptiveSizing sizing;
+        // connections expected to be needed according to the demand profile
+        volatile int expectedDemand;
         private volatile long previous = plusMillis(currentTime(), -houseKeepingPeriod);
+        // stops creating connections while they keep failing, null if disabled
+        final CircuitBreaker breaker;
+        // fatal errors detected within the current window
+        private int fatalErrors;
+        private long fatalErrorWindowStart;
+        private long lastStorm = plusMillis(currentTime(), -STORM_RESET_PERIOD);
+        private long refillBackoff = STORM_REFILL_BACKOFF;
+        // background refill is paused after a fatal error storm
+        private volatile boolean refillDelayed;
+        // occupancy maintained by the state transitions of the connections, so that it is not computed by scanning the bag
+        private final LongAdder idle = new LongAdder();
+        private final LongAdder active = new LongAdder();
+        private final LongAdder reserved = new LongAdder();
+        private final LongAdder pending = new LongAdder();
+        // holds back the borrowers of lower priorities, null if priorities are not used
+        final PriorityLanes lanes;
+        // borrows rejected because the subpool is saturated
+        private final LongAdder rejected = new LongAdder();
+        // moving average of the time the connections are held, in nanoseconds, only maintained for load shedding
+        private volatile long meanHoldTime;
+        // connections past maxLifetime whose replacement is being created
+        private final AtomicInteger retirements = new AtomicInteger();
+        // borrowers resolving a connection from this subpool, -1 once it has been evicted
+        private final AtomicInteger users = new AtomicInteger();
+        // last time a connection has been returned to this subpool, racy but only used for eviction
+        private long lastUsed = currentTime();
+        private boolean registered;
+        private volatile boolean closed;
 
         Pool(SubjectCRIKey key) {
             this.key = key;
+            this.sharingKey = new TransactionRegistry.Key(managedConnectionFactory, transactionSupportLevel, key);
+            this.sizing = adaptiveSizing ? new AdaptiveSizing(minIdle(), adaptiveMinIdle, maxPoolSize()) : null;
+            this.lanes = reservedConnections != null ? new PriorityLanes(reservedConnections, this::getActiveConnections) : null;
+            this.breaker = circuitBreakerThreshold > 0 ? new CircuitBreaker(circuitBreakerThreshold, circuitBreakerOpenTime) : null;
             this.bag = new ConcurrentBag<>(this::addNewConnection);
             this.mbeanName = "org.ops4j.pax.transx:type=Pool,name=" + poolName + ",subpool=" + key;
-            MBeanHandler.registerMBean(this, mbeanName);
+        }
+
+        synchronized void registerMBean() {
+            if (!closed) {
+                MBeanHandler.registerMBean(this, mbeanName);
+                registered = true;
+            }
+        }
+
+        boolean pin() {
+            if (subpoolIdleTimeout <= 0) {
+                return true;
+            }
+            for (;;) {
+                int u = users.get();
+                if (u < 0) {
+                    return false;
+                }
+                if (users.compareAndSet(u, u + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void unpin() {
+            if (subpoolIdleTimeout > 0) {
+                users.decrementAndGet();
+            }
+        }
+
+        boolean isEvicted() {
+            return users.get() < 0;
+        }
+
+        boolean isUnused(long now) {
+            return getActiveConnections() == 0 && getReservedConnections() == 0 && getPendingConnections() == 0
+                    && retirements.get() == 0 && bag.getWaitingThreadCount() == 0
+                    && elapsedMillis(lastUsed, now) > subpoolIdleTimeout;
+        }
+
+        /**
+         * Remove this subpool from the manager and close it, unless a borrower is using it.
+         */
+        boolean evict() {
+            if (!users.compareAndSet(0, -1)) {
+                return false;
+            }
+            // a borrower may have come and gone since the subpool has been found unused
+            if (!isUnused(currentTime())) {
+                users.set(0);
+                return false;
+            }
+            pools.remove(key, this);
+            if (lastPool == this) {
+                lastPool = null;
+            }
+            poolCache.clear();
+            close();
+            return true;
+        }
+
+        // limits of this subpool, shadowing the manager wide ones for shard subpools
+        int minIdle() {
+            return key.isSharded() ? shardMinIdle : minIdle;
+        }
+
+        int maxPoolSize() {
+            final int maxPoolSize = key.isSharded() ? shardMaxPoolSize : GenericConnectionManager.this.maxPoolSize;
+            return hardQuota > 0 ? Math.min(maxPoolSize, hardQuota) : maxPoolSize;
+        }
+
+        @Override
+        public boolean isOverSoftQuota() {
+            return softQuota > 0 && bag.size() > softQuota;
         }
 
         @Override
         public int getIdleConnections() {
-            return bag.getCount(STATE_NOT_IN_USE);
+            return idle.intValue();
         }
 
         @Override
         public int getActiveConnections() {
-            return bag.getCount(STATE_IN_USE);
+            return active.intValue();
         }
 
         @Override
@@ -381,26 +1392,218 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
             return bag.size();
         }
 
+        @Override
+        public int getReservedConnections() {
+            return reserved.intValue();
+        }
+
+        @Override
+        public int getPendingConnections() {
+            return pending.intValue();
+        }
+
+        @Override
+        public int getEffectiveMinIdle() {
+            final int base = sizing != null ? sizing.getMinIdle() : minIdle();
+            final int expected = Math.min(expectedDemand, maxPoolSize());
+            return expected > 0 ? Math.max(base, expected - getActiveConnections()) : base;
+        }
+
+        @Override
+        public int getTargetPoolSize() {
+            final int target = sizing != null ? sizing.getTargetSize() : maxPoolSize();
+            return Math.max(target, Math.min(expectedDemand, maxPoolSize()));
+        }
+
+        @Override
+        public int getExpectedDemand() {
+            return expectedDemand;
+        }
+
+        @Override
+        public long getRejectedConnections() {
+            return rejected.sum();
+        }
+
+        @Override
+        public int getRetiringConnections() {
+            return retirements.get();
+        }
+
+        @Override
+        public String getCircuitBreakerState() {
+            return (breaker != null ? breaker.getState() : CircuitBreaker.State.CLOSED).name();
+        }
+
+        void stateChanged(int from, int to) {
+            if (from != to) {
+                counter(from, -1);
+                counter(to, 1);
+            }
+        }
+
+        private void counter(int state, int delta) {
+            switch (state) {
+                case STATE_NOT_IN_USE:
+                    idle.add(delta);
+                    break;
+                case STATE_IN_USE:
+                    active.add(delta);
+                    break;
+                case STATE_RESERVED:
+                    reserved.add(delta);
+                    break;
+                default:
+                    break;
+            }
+        }
+
         private Future<Boolean> addNewConnection(int waiting) {
-            return addConnectionExecutor.submit(() -> createConnection(null));
+            return submitCreation(null);
+        }
+
+        private Future<Boolean> submitCreation(String afterPrefix) {
+            pending.increment();
+            ConnectionCreation task = new ConnectionCreation(afterPrefix);
+            addConnectionExecutor.execute(task);
+            return task;
+        }
+
+        /**
+         * A queued connection creation, counted as pending until it completes or is discarded.
+         */
+        class ConnectionCreation extends FutureTask<Boolean> {
+
+            ConnectionCreation(String afterPrefix) {
+                super(() -> createConnection(afterPrefix));
+            }
+
+            ConnectionCreation(Callable<Boolean> creation) {
+                super(creation);
+            }
+
+            @Override
+            protected void done() {
+                pending.decrement();
+            }
+
+            void discard() {
+                cancel(false);
+            }
+        }
+
+        /**
+         * The creation of the replacement of a connection past its maxLifetime, which is retired afterwards.
+         * If the creation is discarded, the connection is retired right away.
+         */
+        final class Retirement extends ConnectionCreation {
+
+            private final ManagedConnectionInfo mci;
+
+            Retirement(ManagedConnectionInfo mci) {
+                super(() -> replaceConnection(mci));
+                this.mci = mci;
+            }
+
+            @Override
+            protected void done() {
+                super.done();
+                retirements.decrementAndGet();
+            }
+
+            @Override
+            void discard() {
+                super.discard();
+                softEvictConnection(mci, "(connection has passed maxLifetime)", false /* not owner */);
+            }
+        }
+
+        /**
+         * Retire a connection past its maxLifetime. Unless create-before-retire is disabled,
+         * a replacement is created first so that the capacity of the pool does not drop,
+         * with at most {@code maxConcurrentRetirements} replacements at a time.
+         */
+        void retire(ManagedConnectionInfo mci) {
+            if (destroyed || mci.isMarkedEvicted()) {
+                return;
+            }
+            if (maxConcurrentRetirements <= 0) {
+                softEvictConnection(mci, "(connection has passed maxLifetime)", false /* not owner */);
+                return;
+            }
+            if (retirements.incrementAndGet() > maxConcurrentRetirements) {
+                retirements.decrementAndGet();
+                // the connection stays usable meanwhile
+                mci.setFutureEol(houseKeepingExecutorService.schedule(() -> retire(mci), RETIREMENT_RETRY_DELAY, MILLISECONDS));
+                return;
+            }
+            pending.increment();
+            addConnectionExecutor.execute(new Retirement(mci));
+        }
+
+        boolean replaceConnection(ManagedConnectionInfo old) {
+            if (destroyed || closed || old.isMarkedEvicted()) {
+                return false;
+            }
+            ManagedConnectionInfo replacement = null;
+            // the pool may temporarily hold maxConcurrentRetirements connections more than maxPoolSize,
+            // but does not replace connections while it is shrunk, suspended or at the global limit
+            if (suspension == null && bag.size() <= maxPoolSize() && reserveConnection()) {
+                replacement = tryCreateManagedConnection();
+                if (replacement != null) {
+                    idle.increment();
+                    bag.add(replacement);
+                    LOG.fine(poolName + " - Added connection " + replacement.getManagedConnection() + " to replace " + old.getManagedConnection());
+                } else {
+                    cancelConnection();
+                }
+            }
+            softEvictConnection(old, "(connection has passed maxLifetime)", false /* not owner */);
+            return replacement != null;
         }
 
         /**
          * Fill pool up from current idle connections (as they are perceived at the point of execution) to minIdle connections.
          */
         void fillPool() {
-            final int connectionsToAdd = Math.min(maxPoolSize - bag.size(), minIdle - bag.getCount(STATE_NOT_IN_USE));
+            if (suspension != null || refillDelayed || closed) {
+                return;
+            }
+            // creations already queued will each add a connection, unless the pool does not need it anymore
+            final int connectionsToAdd = Math.min(maxPoolSize() - getRetainedConnections(), getEffectiveMinIdle() - getIdleConnections()) - getPendingConnections();
             for (int i = 0; i < connectionsToAdd; i++) {
                 String afterPrefix = i < connectionsToAdd - 1 ? null : "After adding ";
-                addConnectionExecutor.submit(() -> createConnection(afterPrefix));
+                submitCreation(afterPrefix);
             }
         }
 
         boolean createConnection(String afterPrefix) {
             long sleepBackoff = 250L;
-            while (!destroyed && shouldCreateAnotherConnection()) {
+            while (!destroyed && !closed && shouldCreateAnotherConnection()) {
+                if (breaker != null && !breaker.tryAcquire()) {
+                    // no retry while the breaker is open, a later borrow or fill will try again
+                    return false;
+                }
+                if (!reserveConnection()) {
+                    // global limit reached, only steal from other subpools if someone is waiting here
+                    if (breaker != null) {
+                        // give the permit back, nothing has been tried
+                        breaker.release();
+                    }
+                    if (bag.getWaitingThreadCount() > 0) {
+                        if (reclaimIdleConnection(this)) {
+                            continue;
+                        }
+                        if (connectionBudget != null && !isGlobalLimitReached()) {
+                            // the capacity freed in another manager of the budget triggers a new creation
+                            connectionBudget.reclaim(GenericConnectionManager.this);
+                        }
+                    }
+                    return false;
+                }
                 final ManagedConnectionInfo mci = tryCreateManagedConnection();
                 if (mci != null) {
+                    idle.increment();
                     bag.add(mci);
                     LOG.fine(poolName + " - Added connection " + mci.getManagedConnection());
                     if (afterPrefix != null) {
@@ -408,6 +1611,7 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
                     }
                     return true;
                 }
+                cancelConnection();
                 // failed to get connection from db, sleep and retry
                 quietlySleep(sleepBackoff);
                 sleepBackoff = Math.min(SECONDS.toMillis(10), Math.min(connectionTimeout, (long) (sleepBackoff * 1.5)));
@@ -416,11 +1620,24 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
             return false;
         }
 
+        /**
+         * Number of connections counting against maxPoolSize: the evicted ones still in use are closed when returned.
+         */
+        private int getRetainedConnections() {
+            int retained = 0;
+            for (ManagedConnectionInfo mci : bag.values()) {
+                if (!mci.isMarkedEvicted()) {
+                    retained++;
+                }
+            }
+            return retained;
+        }
+
         boolean shouldCreateAnotherConnection() {
             // only create connections if we need another idle connection or have threads still waiting
             // for a new connection, otherwise bail
-            return bag.size() < maxPoolSize &&
-                    (bag.getWaitingThreadCount() > 0 || bag.getCount(STATE_NOT_IN_USE) < minIdle);
+            return suspension == null && getRetainedConnections() < maxPoolSize() &&
+                    (bag.getWaitingThreadCount() > 0 || getIdleConnections() < getEffectiveMinIdle());
         }
 
         /**
@@ -431,8 +1648,9 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
         void logPoolState(String prefix) {
             LOG.log(Level.FINE, () -> poolName + " - " + (prefix != null ? prefix : "") + "stats (" +
                             "total=" + bag.size() + ", " +
-                            "active=" + bag.getCount(STATE_IN_USE) + ", " +
-                            "idle=" + bag.getCount(STATE_NOT_IN_USE) + ", " +
+                            "active=" + getActiveConnections() + ", " +
+                            "idle=" + getIdleConnections() + ", " +
+                            "pending=" + getPendingConnections() + ", " +
                             "waiting=" + bag.getWaitingThreadCount() + ")");
         }
 
@@ -441,11 +1659,8 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
          */
         void houseKeep() {
             try {
-                // refresh timeouts in case they changed via MBean
-//                connectionTimeout = config.getConnectionTimeout();
-//                validationTimeout = config.getValidationTimeout();
-//                leakTask.updateLeakDetectionThreshold(config.getLeakDetectionThreshold());
-
+                // limits and timeouts may be changed through the MBean, read them once per run
+                final int maxPoolSize = maxPoolSize();
                 final long idleTimeout = GenericConnectionManager.this.idleTimeout;
                 final long now = currentTime();
 
@@ -466,19 +1681,38 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
 
                 previous = now;
 
+                if (sizing != null && sizing.update(getActiveConnections(), bag.getWaitingThreadCount())) {
+                    LOG.fine(() -> poolName + " - Adaptive sizing of subpool " + key + ": minIdle=" + sizing.getMinIdle()
+                            + ", target=" + sizing.getTargetSize());
+                }
+                // idle connections needed to reach the target size are kept regardless of the idle timeout
+                final int retained = sizing != null
+                        ? Math.max(getEffectiveMinIdle(), getTargetPoolSize() - getActiveConnections())
+                        : getEffectiveMinIdle();
+
                 String afterPrefix = "Pool ";
-                if (idleTimeout > 0L && minIdle < maxPoolSize) {
+                if (idleTimeout > 0L && retained < maxPoolSize) {
                     logPoolState("Before cleanup ");
                     afterPrefix = "After cleanup  ";
                     bag
                             .values(STATE_NOT_IN_USE)
                             .stream()
                             .sorted(LASTACCESS_REVERSE_COMPARABLE)
-                            .skip(minIdle)
+                            .skip(retained)
                             .filter(mci -> elapsedMillis(mci.lastAccessed, now) > idleTimeout)
                             .filter(bag::reserve)
                             .forEachOrdered(mci -> closeConnection(mci, "(connection has passed idleTimeout)"));
                 }
+                if (getRetainedConnections() > maxPoolSize) {
+                    // maxPoolSize has been lowered, retire the surplus idle connections, the others will be closed when returned
+                    bag
+                            .values(STATE_NOT_IN_USE)
+                            .stream()
+                            .sorted(LASTACCESS_REVERSE_COMPARABLE)
+                            .skip(Math.max(0, maxPoolSize - getActiveConnections()))
+                            .filter(bag::reserve)
+                            .forEachOrdered(mci -> closeConnection(mci, "(pool has been shrunk)"));
+                }
                 logPoolState(afterPrefix);
                 fillPool(); // Try to maintain minimum connections
             }
@@ -487,6 +1721,45 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
             }
         }
 
+        /**
+         * Close a connection reported as broken by the exception sorter. When {@code fatalErrorThreshold}
+         * errors occur within {@code fatalErrorWindow}, as when the database has been restarted, the other
+         * connections are most likely broken too: evict them all at once and refill after a backoff,
+         * instead of discovering them one borrow at a time.
+         */
+        void connectionError(ManagedConnectionInfo mci, Exception e) {
+            // errors of connections already evicted by a storm do not count for the next one
+            final boolean counted = fatalErrorThreshold > 0 && !mci.isMarkedEvicted();
+            closeConnection(mci, "Connection error: " + e);
+            if (counted && fatalErrorStorm()) {
+                LOG.warning(() -> poolName + " - " + fatalErrorThreshold + " fatal connection errors within "
+                        + fatalErrorWindow + "ms, evicting all connections of subpool " + key
+                        + " and refilling in " + refillBackoff + "ms.");
+                softEvictConnections();
+            }
+        }
+
+        private synchronized boolean fatalErrorStorm() {
+            final long now = currentTime();
+            if (fatalErrors == 0 || elapsedMillis(fatalErrorWindowStart, now) > fatalErrorWindow) {
+                fatalErrorWindowStart = now;
+                fatalErrors = 0;
+            }
+            if (++fatalErrors < fatalErrorThreshold) {
+                return false;
+            }
+            fatalErrors = 0;
+            refillBackoff = elapsedMillis(lastStorm, now) < STORM_RESET_PERIOD
+                    ? Math.min(STORM_REFILL_MAX_BACKOFF, refillBackoff * 2) : STORM_REFILL_BACKOFF;
+            lastStorm = now;
+            refillDelayed = true;
+            houseKeepingExecutorService.schedule(() -> {
+                refillDelayed = false;
+                fillPool();
+            }, refillBackoff, MILLISECONDS);
+            return true;
+        }
+
         void softEvictConnections() {
             bag.values().forEach(mci -> softEvictConnection(mci, "(connection evicted)", false /* not owner */));
         }
@@ -506,8 +1779,16 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
          */
         void closeConnection(final ManagedConnectionInfo mci, final String closureReason) {
             if (bag.remove(mci)) {
+                if (lanes != null) {
+                    lanes.released();
+                }
+                ScheduledFuture<?> endOfLife = mci.endOfLife;
+                if (endOfLife != null) {
+                    endOfLife.cancel(false);
+                }
                 closeConnectionExecutor.execute(() -> {
                     quietlyCloseConnection(mci, closureReason);
+                    releaseConnection();
                     if (!destroyed) {
                         fillPool();
                     }
@@ -516,7 +1797,35 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
         }
 
         void requite(ManagedConnectionInfo mci) {
+            final long now = currentTime();
+            if (sizing != null) {
+                sizing.returned(elapsedNanos(mci.lastBorrowed, now));
+            }
+            if (maxEstimatedWait > 0) {
+                // racy, but an approximation is enough
+                final long held = elapsedNanos(mci.lastBorrowed, now);
+                meanHoldTime += (held - meanHoldTime) >> 3;
+            }
+            if (mci.isMarkedEvicted()) {
+                closeConnection(mci, "(connection evicted)");
+                return;
+            }
+            if (getRetainedConnections() > maxPoolSize()) {
+                closeConnection(mci, "(pool has been shrunk)");
+                return;
+            }
+            if ((softQuota <= 0 || isOverSoftQuota()) && (isGlobalLimitReached() && hasWaitersOutside(this)
+                    || connectionBudget != null && connectionBudget.isStarving(GenericConnectionManager.this))) {
+                // hand the capacity over to a subpool or a manager that is starving, keeping the soft quota of this one
+                closeConnection(mci, "(connection released to another subpool)");
+                return;
+            }
+            mci.lastAccessed = now;
+            lastUsed = now;
             bag.requite(mci);
+            if (lanes != null) {
+                lanes.released();
+            }
         }
 
         ManagedConnectionInfo borrow(long timeout, TimeUnit timeUnit) throws InterruptedException {
@@ -525,19 +1834,15 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
 
         ManagedConnectionInfo tryCreateManagedConnection() {
             try {
-                final ManagedConnectionInfo mci = doCreateManagedConnection();
-
-                final long maxLifetime = GenericConnectionManager.this.maxLifetime;
-                if (maxLifetime > 0) {
-                    // variance up to 2.5% of the maxlifetime
-                    final long variance = maxLifetime > 10_000 ? ThreadLocalRandom.current().nextLong(maxLifetime / 40) : 0;
-                    final long lifetime = maxLifetime - variance;
-                    mci.setFutureEol(houseKeepingExecutorService.schedule(
-                            () -> softEvictConnection(mci, "(connection has passed maxLifetime)", false /* not owner */),
-                            lifetime, MILLISECONDS));
+                ManagedConnectionInfo mci = createManagedConnection();
+                if (breaker != null) {
+                    breaker.success();
                 }
                 return mci;
             } catch (Exception e) {
+                if (breaker != null) {
+                    breaker.failure(e);
+                }
                 if (!destroyed) {
                     LOG.log(Level.FINE, poolName + " - Cannot acquire connection from data source", e);
                 }
@@ -545,12 +1850,138 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
             }
         }
 
+        ManagedConnectionInfo createManagedConnection() throws ResourceException {
+            if (creationRateLimit != null) {
+                final long wait = creationRateLimit.reserve();
+                if (wait > 0) {
+                    try {
+                        NANOSECONDS.sleep(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new ResourceException(poolName + " - Interrupted while waiting to create a connection", e);
+                    }
+                }
+            }
+            final ManagedConnectionInfo mci = doCreateManagedConnection();
+
+            final long maxLifetime = GenericConnectionManager.this.maxLifetime;
+            if (maxLifetime > 0) {
+                // variance up to 2.5% of the maxlifetime
+                final long variance = maxLifetime > 10_000 ? ThreadLocalRandom.current().nextLong(maxLifetime / 40) : 0;
+                final long lifetime = maxLifetime - variance;
+                mci.setFutureEol(houseKeepingExecutorService.schedule(() -> retire(mci), lifetime, MILLISECONDS));
+            }
+            return mci;
+        }
+
+        /**
+         * Create the missing {@code minIdle} connections with up to {@code concurrency} threads,
+         * and wait for them until the timeout expires.
+         */
+        void warmUp(long timeout, int concurrency) throws ResourceException {
+            final long deadline = plusMillis(currentTime(), timeout);
+            final int minIdle = minIdle();
+            final AtomicInteger missing = new AtomicInteger(Math.min(minIdle, maxPoolSize()) - bag.size());
+            final AtomicReference<Exception> lastError = new AtomicReference<>();
+            final int threads = Math.max(1, Math.min(concurrency, missing.get()));
+            if (missing.get() <= 0) {
+                return;
+            }
+            final ExecutorService executor = Executors.newFixedThreadPool(threads, new UtilityElf.DefaultThreadFactory(poolName + " warm-up", true));
+            try {
+                for (int i = 0; i < threads; i++) {
+                    executor.execute(() -> {
+                        long sleepBackoff = 50L;
+                        while (!destroyed && !closed && !Thread.currentThread().isInterrupted() && currentTime() < deadline
+                                && missing.getAndDecrement() > 0) {
+                            boolean created = false;
+                            if (breaker != null && !breaker.tryAcquire()) {
+                                // the breaker is open, wait for the next trial
+                                lastError.compareAndSet(null, breaker.getLastError());
+                            } else if (reserveConnection()) {
+                                // counted as pending so that the subpool is not considered unused meanwhile
+                                pending.increment();
+                                try {
+                                    ManagedConnectionInfo mci = createManagedConnection();
+                                    if (breaker != null) {
+                                        breaker.success();
+                                    }
+                                    created = addWarmUpConnection(mci);
+                                } catch (Exception e) {
+                                    if (breaker != null) {
+                                        breaker.failure(e);
+                                    }
+                                    cancelConnection();
+                                    lastError.set(e);
+                                } finally {
+                                    pending.decrement();
+                                }
+                            } else if (breaker != null) {
+                                // give the permit back, nothing has been tried
+                                breaker.release();
+                            }
+                            if (!created) {
+                                missing.incrementAndGet();
+                                quietlySleep(Math.min(sleepBackoff, Math.max(1L, elapsedMillis(currentTime(), deadline))));
+                                sleepBackoff = Math.min(1000L, sleepBackoff * 2);
+                            }
+                        }
+                    });
+                }
+                executor.shutdown();
+                if (!executor.awaitTermination(Math.max(0L, elapsedMillis(currentTime(), deadline)), MILLISECONDS)
+                        || missing.get() > 0) {
+                    throw new ResourceException(poolName + " - Pool initialization failed, " + getIdleConnections()
+                            + " of " + minIdle + " connections created within " + timeout + "ms", lastError.get());
+                }
+                logPoolState("After warm-up ");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ResourceException(poolName + " - Interrupted during pool initialization", e);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        /**
+         * Add a connection created during the warm-up, or destroy it if the subpool has been closed meanwhile.
+         */
+        private boolean addWarmUpConnection(ManagedConnectionInfo mci) {
+            if (!closed) {
+                idle.increment();
+                try {
+                    bag.add(mci);
+                    return true;
+                } catch (IllegalStateException e) {
+                    // the bag has been closed concurrently
+                    idle.decrement();
+                }
+            }
+            ScheduledFuture<?> endOfLife = mci.endOfLife;
+            if (endOfLife != null) {
+                endOfLife.cancel(false);
+            }
+            cancelConnection();
+            quietlyCloseConnection(mci, "(subpool closed during warm-up)");
+            return false;
+        }
+
         ManagedConnectionInfo doCreateManagedConnection() throws ResourceException {
-            ManagedConnection mc = managedConnectionFactory.createManagedConnection(key.getSubject(), key.getCri());
+            ManagedConnection mc;
+            ClassLoader prevClassLoader = switchContextClassLoader();
+            try {
+                mc = managedConnectionFactory.createManagedConnection(key.getSubject(), key.getCri());
+            } finally {
+                restoreContextClassLoader(prevClassLoader);
+            }
             NamedResource xares = null;
             switch (transactionSupportLevel) {
                 case LocalTransaction:
-                    xares = new LocalXAResource(mc.getLocalTransaction(), name);
+                    UpdateTrackingManagedConnection updateTracking = readOnlyPrepare && mc instanceof UpdateTrackingManagedConnection
+                            ? (UpdateTrackingManagedConnection) mc : null;
+                    xares = lastResource
+                            ? new LastResourceLocalXAResource(mc.getLocalTransaction(), name, updateTracking)
+                            : new LocalXAResource(mc.getLocalTransaction(), name, updateTracking);
                     break;
                 case XATransaction:
                     xares = new WrapperNamedXAResource(mc.getXAResource(), name);
@@ -562,8 +1993,16 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
         }
 
         void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (registered) {
+                    MBeanHandler.unregisterMBean(mbeanName);
+                }
+            }
             logPoolState("Before shutdown ");
-            MBeanHandler.unregisterMBean(mbeanName);
             bag.close();
             bag.values().forEach(mci -> closeConnection(mci, "pool destroyed"));
         }
@@ -579,15 +2018,20 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
         volatile ScheduledFuture<?> endOfLife;
         volatile int state;
         volatile boolean evict;
+        // stamped when the connection is created and each time it is returned: borrows within
+        // aliveBypassWindow skip the validation, and the idle timeout counts from it
         long lastAccessed;
         long lastBorrowed;
 
         Transaction transaction;
+        // enlisted instead of the last resource when the transaction already has one
+        LocalXAResource participant;
 
         ManagedConnectionInfo(Pool pool, ManagedConnection mc, NamedResource xares) {
             this.pool = pool;
             this.managedConnection = mc;
             this.xares = xares;
+            this.lastAccessed = currentTime();
             mc.addConnectionEventListener(this);
         }
 
@@ -598,12 +2042,16 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
 
         @Override
         public boolean compareAndSet(int expect, int update) {
-            return STATE_UPDATER.compareAndSet(this, expect, update);
+            if (STATE_UPDATER.compareAndSet(this, expect, update)) {
+                pool.stateChanged(expect, update);
+                return true;
+            }
+            return false;
         }
 
         @Override
         public void setState(int update) {
-            STATE_UPDATER.set(this, update);
+            pool.stateChanged(STATE_UPDATER.getAndSet(this, update), update);
         }
 
         boolean isMarkedEvicted() {
@@ -614,6 +2062,17 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
             this.evict = true;
         }
 
+        /**
+         * Close this connection if it is still idle, to let another subpool or manager use its capacity.
+         */
+        boolean reclaim(String closureReason) {
+            if (pool.bag.reserve(this)) {
+                pool.closeConnection(this, closureReason);
+                return true;
+            }
+            return false;
+        }
+
         ManagedConnection getManagedConnection() {
             return managedConnection;
         }
@@ -628,6 +2087,13 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
 
         void requite() {
             transaction = null;
+            if (xares instanceof LocalXAResource) {
+                ((LocalXAResource) xares).rollbackIfActive();
+            }
+            if (participant != null) {
+                participant.rollbackIfActive();
+                participant = null;
+            }
             try {
                 managedConnection.cleanup();
                 pool.requite(this);
@@ -639,7 +2105,32 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
         void enlist(Transaction transaction) throws ResourceException {
             assert this.transaction == null;
             try {
-                transaction.enlistResource(xares);
+                if (xares instanceof WrapperNamedXAResource) {
+                    WrapperNamedXAResource wrapper = (WrapperNamedXAResource) xares;
+                    if (TransactionRegistry.join(transaction, wrapper)) {
+                        // the work is done in the branch of another connection to the same
+                        // resource manager, which will end and complete it
+                        this.transaction = transaction;
+                        return;
+                    }
+                    transaction.enlistResource(xares);
+                    TransactionRegistry.register(transaction, wrapper);
+                } else if (xares instanceof LastResource && !TransactionRegistry.claimLastResource(transaction)) {
+                    // the transaction managers accept a single last resource per transaction, the other
+                    // subpools, shards and pools take part in the two phase commit like without lastResource
+                    LOG.fine(() -> poolName + " - Transaction already has a last resource, enlisting " + name + " as a participant");
+                    participant = ((LocalXAResource) xares).asParticipant();
+                    transaction.enlistResource(participant);
+                    this.transaction = transaction;
+                    return;
+                } else {
+                    transaction.enlistResource(xares);
+                }
+                if (xares instanceof LastResource) {
+                    // the transaction manager may only start the last resource when the
+                    // transaction completes, but the work has to be done in the local transaction
+                    ((LocalXAResource) xares).begin();
+                }
                 this.transaction = transaction;
             } catch (Exception e) {
                 throw new ResourceException("Unable to enlist resource " + name, e);
@@ -668,7 +2159,7 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
 
         @Override
         public void connectionErrorOccurred(ConnectionEvent event) {
-            pool.closeConnection(this, "Connection error: " + event.getException());
+            pool.connectionError(this, event.getException());
         }
 
 //            Connection close()
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import javax.resource.spi.LocalTransaction;
+
+import org.ops4j.pax.transx.connector.UpdateTrackingManagedConnection;
+import org.ops4j.pax.transx.tm.LastResource;
+
+/**
+ * A {@link LocalXAResource} enlisted as a {@link LastResource}: the transaction manager prepares
+ * all the XA participants first and then commits the local transaction in one phase.
+ */
+public class LastResourceLocalXAResource extends LocalXAResource implements LastResource {
+
+    public LastResourceLocalXAResource(LocalTransaction localTransaction, String name, UpdateTrackingManagedConnection updateTracking) {
+        super(localTransaction, name, updateTracking);
+    }
+
+}
@@ -21,6 +21,7 @@ import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
 import javax.transaction.xa.Xid;
 
+import org.ops4j.pax.transx.connector.UpdateTrackingManagedConnection;
 import org.ops4j.pax.transx.tm.NamedResource;
 
 /**
@@ -32,12 +33,22 @@ public class LocalXAResource implements NamedResource {
 
     private final LocalTransaction localTransaction;
     private final String name;
+    private final UpdateTrackingManagedConnection updateTracking;
     private Xid xid;
+    private boolean active;
     private int transactionTimeout;
 
     public LocalXAResource(LocalTransaction localTransaction, String name) {
+        this(localTransaction, name, null);
+    }
+
+    /**
+     * @param updateTracking if not {@code null}, used to report read-only transactions in {@link #prepare(Xid)}
+     */
+    public LocalXAResource(LocalTransaction localTransaction, String name, UpdateTrackingManagedConnection updateTracking) {
         this.localTransaction = localTransaction;
         this.name = name;
+        this.updateTracking = updateTracking;
     }
 
     // Implementation of javax.transaction.xa.XAResource
@@ -52,6 +63,7 @@ public class LocalXAResource implements NamedResource {
             throw (XAException)new XAException().initCause(e);
          } finally {
             this.xid = null;
+            this.active = false;
         }
 
     }
@@ -82,6 +94,7 @@ public class LocalXAResource implements NamedResource {
             throw (XAException)new XAException().initCause(e);
         } finally {
             this.xid = null;
+            this.active = false;
         }
     }
 
@@ -97,11 +110,7 @@ public class LocalXAResource implements NamedResource {
                 throw new XAException("already enlisted");
             }
             this.xid = xid;
-            try {
-                localTransaction.begin();
-            } catch (ResourceException e) {
-                throw (XAException) new XAException("could not start local tx").initCause(e);
-            }
+            begin();
         } else if (flag == XAResource.TMRESUME) {
             if (xid != this.xid) {
                 throw new XAException("attempting to resume in different transaction");
@@ -119,6 +128,19 @@ public class LocalXAResource implements NamedResource {
     }
 
     public int prepare(Xid xid) throws XAException {
+        if (updateTracking != null && this.xid != null && this.xid.equals(xid)
+                && !updateTracking.hasPendingUpdates()) {
+            // nothing was written: finish the local transaction now and skip the second phase
+            try {
+                localTransaction.commit();
+            } catch (ResourceException e) {
+                throw (XAException) new XAException(XAException.XAER_RMERR).initCause(e);
+            } finally {
+                this.xid = null;
+                this.active = false;
+            }
+            return XAResource.XA_RDONLY;
+        }
         //LOG warning that semantics are incorrect...
         return XAResource.XA_OK;
     }
@@ -126,4 +148,44 @@ public class LocalXAResource implements NamedResource {
     public String getName() {
         return name;
     }
+
+    /**
+     * Create another resource for the same local transaction, enlisted as a plain participant.
+     */
+    LocalXAResource asParticipant() {
+        return new LocalXAResource(localTransaction, name, updateTracking);
+    }
+
+    /**
+     * Begin the local transaction if not already done.
+     * This is called before {@link #start(Xid, int)} when the transaction manager
+     * defers the enlistment of a last resource until the transaction completes.
+     */
+    void begin() throws XAException {
+        if (!active) {
+            try {
+                localTransaction.begin();
+                active = true;
+            } catch (ResourceException e) {
+                throw (XAException) new XAException("could not start local tx").initCause(e);
+            }
+        }
+    }
+
+    /**
+     * Roll back a local transaction that the transaction manager never completed,
+     * so that it is not implicitly committed when the connection goes back to the pool.
+     */
+    void rollbackIfActive() {
+        if (active) {
+            try {
+                localTransaction.rollback();
+            } catch (ResourceException e) {
+                // ignore, the connection will be cleaned up anyway
+            } finally {
+                this.xid = null;
+                this.active = false;
+            }
+        }
+    }
 }
@@ -15,19 +15,118 @@
  */
 package org.ops4j.pax.transx.connector.impl;
 
+import java.util.Map;
+
+import org.ops4j.pax.transx.connector.ConnectionPool.SuspendPolicy;
+
 public interface PoolConfigMXBean {
 
     int getMinIdle();
 
+    void setMinIdle(int minIdle);
+
     int getMaxPoolSize();
 
+    void setMaxPoolSize(int maxPoolSize);
+
     long getConnectionTimeout();
 
+    void setConnectionTimeout(long connectionTimeout);
+
     long getIdleTimeout();
 
+    void setIdleTimeout(long idleTimeout);
+
     long getMaxLifetime();
 
+    void setMaxLifetime(long maxLifetime);
+
     long getAliveBypassWindow();
 
+    void setAliveBypassWindow(long aliveBypassWindow);
+
     long getHouseKeepingPeriod();
+
+    int getShardMinIdle();
+
+    int getShardMaxPoolSize();
+
+    int getMaxTotalConnections();
+
+    long getSubpoolIdleTimeout();
+
+    int getSubpoolCount();
+
+    String getConnectionBudget();
+
+    int getConnectionBudgetMaxConnections();
+
+    int getConnectionBudgetConnections();
+
+    boolean isLastResource();
+
+    boolean isSharedExecutors();
+
+    boolean isLazyStart();
+
+    int getWarmUpConcurrency();
+
+    boolean isAdaptiveSizing();
+
+    int getAdaptiveMinIdle();
+
+    String getDemandProfile();
+
+    SuspendPolicy getSuspendPolicy();
+
+    int getFatalErrorThreshold();
+
+    long getFatalErrorWindow();
+
+    int getCircuitBreakerThreshold();
+
+    long getCircuitBreakerOpenTime();
+
+    double getConnectionCreationRate();
+
+    /**
+     * Maximum number of connections of a subpool replaced at the same time when they pass their maxLifetime,
+     * or {@code 0} if connections are retired before being replaced.
+     * A subpool may temporarily hold up to this number of connections more than maxPoolSize.
+     */
+    int getMaxConcurrentRetirements();
+
+    int getMaxWaiters();
+
+    long getMaxEstimatedWait();
+
+    Map<String, Integer> getReservedConnectionsByPriority();
+
+    int getSoftQuota();
+
+    int getHardQuota();
+
+    boolean isSuspended();
+
+    void suspend();
+
+    void resume();
+
+    /**
+     * Suspend the pool, wait up to the given number of milliseconds for the borrowed connections
+     * to be returned, and evict all the connections.
+     *
+     * @return <code>true</code> if all the borrowed connections were returned in time
+     */
+    boolean drain(long timeout);
+
+    /**
+     * Sum of the effective minimum number of idle connections of all subpools.
+     */
+    int getEffectiveMinIdle();
+
+    /**
+     * Sum of the target sizes of all subpools.
+     */
+    int getTargetPoolSize();
 }
@@ -22,4 +22,22 @@ public interface PoolMXBean {
     int getActiveConnections();
 
     int getTotalConnections();
+
+    int getReservedConnections();
+
+    int getPendingConnections();
+
+    int getEffectiveMinIdle();
+
+    int getTargetPoolSize();
+
+    int getExpectedDemand();
+
+    int getRetiringConnections();
+
+    long getRejectedConnections();
+
+    boolean isOverSoftQuota();
+
+    String getCircuitBreakerState();
 }
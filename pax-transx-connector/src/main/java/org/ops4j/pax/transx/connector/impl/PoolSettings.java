@@ -0,0 +1,402 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.nio.file.Path;
+import javax.resource.spi.ConnectionRequestInfo;
+
+import org.ops4j.pax.transx.connector.ConnectionPool.SuspendPolicy;
+
+/**
+ * Settings of a {@link GenericConnectionManager}, filled and validated by the
+ * {@link org.ops4j.pax.transx.connector.ConnectionManagerBuilder}.
+ * <p>The manager copies the settings when it is created, so they can't be changed afterwards
+ * through this object. The class is part of the implementation and is not exported.
+ */
+public final class PoolSettings {
+
+    private String poolName;
+    private boolean readOnlyPrepare;
+    private int minIdle;
+    private int maxPoolSize;
+    private long connectionTimeout;
+    private long idleTimeout;
+    private long maxLifetime;
+    private long aliveBypassWindow;
+    private long houseKeepingPeriod;
+    private int shardMinIdle;
+    private int shardMaxPoolSize;
+    private int maxTotalConnections;
+    private boolean lastResource;
+    private boolean sharedExecutors;
+    private int sharedCreationConcurrency;
+    private int sharedDestructionConcurrency;
+    private boolean lazyStart;
+    private ConnectionRequestInfo defaultConnectionRequestInfo;
+    private int warmUpConcurrency;
+    private boolean adaptiveSizing;
+    private int adaptiveMinIdle;
+    private Path demandProfile;
+    private SuspendPolicy suspendPolicy;
+    private int fatalErrorThreshold;
+    private long fatalErrorWindow;
+    private int circuitBreakerThreshold;
+    private long circuitBreakerOpenTime;
+    private double connectionCreationRate;
+    private int maxConcurrentRetirements;
+    private int maxWaiters;
+    private long maxEstimatedWait;
+    private int[] reservedConnections;
+    private int softQuota;
+    private int hardQuota;
+    private String connectionBudgetName;
+    private int connectionBudgetMaxConnections;
+    private long subpoolIdleTimeout;
+
+    public PoolSettings poolName(String poolName) {
+        this.poolName = poolName;
+        return this;
+    }
+
+    public PoolSettings readOnlyPrepare(boolean readOnlyPrepare) {
+        this.readOnlyPrepare = readOnlyPrepare;
+        return this;
+    }
+
+    public PoolSettings minIdle(int minIdle) {
+        this.minIdle = minIdle;
+        return this;
+    }
+
+    public PoolSettings maxPoolSize(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+        return this;
+    }
+
+    public PoolSettings connectionTimeout(long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+        return this;
+    }
+
+    public PoolSettings idleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        return this;
+    }
+
+    public PoolSettings maxLifetime(long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+        return this;
+    }
+
+    public PoolSettings aliveBypassWindow(long aliveBypassWindow) {
+        this.aliveBypassWindow = aliveBypassWindow;
+        return this;
+    }
+
+    public PoolSettings houseKeepingPeriod(long houseKeepingPeriod) {
+        this.houseKeepingPeriod = houseKeepingPeriod;
+        return this;
+    }
+
+    public PoolSettings shardMinIdle(int shardMinIdle) {
+        this.shardMinIdle = shardMinIdle;
+        return this;
+    }
+
+    public PoolSettings shardMaxPoolSize(int shardMaxPoolSize) {
+        this.shardMaxPoolSize = shardMaxPoolSize;
+        return this;
+    }
+
+    public PoolSettings maxTotalConnections(int maxTotalConnections) {
+        this.maxTotalConnections = maxTotalConnections;
+        return this;
+    }
+
+    public PoolSettings lastResource(boolean lastResource) {
+        this.lastResource = lastResource;
+        return this;
+    }
+
+    public PoolSettings sharedExecutors(boolean sharedExecutors) {
+        this.sharedExecutors = sharedExecutors;
+        return this;
+    }
+
+    public PoolSettings sharedCreationConcurrency(int sharedCreationConcurrency) {
+        this.sharedCreationConcurrency = sharedCreationConcurrency;
+        return this;
+    }
+
+    public PoolSettings sharedDestructionConcurrency(int sharedDestructionConcurrency) {
+        this.sharedDestructionConcurrency = sharedDestructionConcurrency;
+        return this;
+    }
+
+    public PoolSettings lazyStart(boolean lazyStart) {
+        this.lazyStart = lazyStart;
+        return this;
+    }
+
+    public PoolSettings defaultConnectionRequestInfo(ConnectionRequestInfo defaultConnectionRequestInfo) {
+        this.defaultConnectionRequestInfo = defaultConnectionRequestInfo;
+        return this;
+    }
+
+    public PoolSettings warmUpConcurrency(int warmUpConcurrency) {
+        this.warmUpConcurrency = warmUpConcurrency;
+        return this;
+    }
+
+    public PoolSettings adaptiveSizing(boolean adaptiveSizing) {
+        this.adaptiveSizing = adaptiveSizing;
+        return this;
+    }
+
+    public PoolSettings adaptiveMinIdle(int adaptiveMinIdle) {
+        this.adaptiveMinIdle = adaptiveMinIdle;
+        return this;
+    }
+
+    public PoolSettings demandProfile(Path demandProfile) {
+        this.demandProfile = demandProfile;
+        return this;
+    }
+
+    public PoolSettings suspendPolicy(SuspendPolicy suspendPolicy) {
+        this.suspendPolicy = suspendPolicy;
+        return this;
+    }
+
+    public PoolSettings fatalErrorThreshold(int fatalErrorThreshold) {
+        this.fatalErrorThreshold = fatalErrorThreshold;
+        return this;
+    }
+
+    public PoolSettings fatalErrorWindow(long fatalErrorWindow) {
+        this.fatalErrorWindow = fatalErrorWindow;
+        return this;
+    }
+
+    public PoolSettings circuitBreakerThreshold(int circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+        return this;
+    }
+
+    public PoolSettings circuitBreakerOpenTime(long circuitBreakerOpenTime) {
+        this.circuitBreakerOpenTime = circuitBreakerOpenTime;
+        return this;
+    }
+
+    public PoolSettings connectionCreationRate(double connectionCreationRate) {
+        this.connectionCreationRate = connectionCreationRate;
+        return this;
+    }
+
+    public PoolSettings maxConcurrentRetirements(int maxConcurrentRetirements) {
+        this.maxConcurrentRetirements = maxConcurrentRetirements;
+        return this;
+    }
+
+    public PoolSettings maxWaiters(int maxWaiters) {
+        this.maxWaiters = maxWaiters;
+        return this;
+    }
+
+    public PoolSettings maxEstimatedWait(long maxEstimatedWait) {
+        this.maxEstimatedWait = maxEstimatedWait;
+        return this;
+    }
+
+    public PoolSettings reservedConnections(int[] reservedConnections) {
+        this.reservedConnections = reservedConnections;
+        return this;
+    }
+
+    public PoolSettings softQuota(int softQuota) {
+        this.softQuota = softQuota;
+        return this;
+    }
+
+    public PoolSettings hardQuota(int hardQuota) {
+        this.hardQuota = hardQuota;
+        return this;
+    }
+
+    public PoolSettings connectionBudgetName(String connectionBudgetName) {
+        this.connectionBudgetName = connectionBudgetName;
+        return this;
+    }
+
+    public PoolSettings connectionBudgetMaxConnections(int connectionBudgetMaxConnections) {
+        this.connectionBudgetMaxConnections = connectionBudgetMaxConnections;
+        return this;
+    }
+
+    public PoolSettings subpoolIdleTimeout(long subpoolIdleTimeout) {
+        this.subpoolIdleTimeout = subpoolIdleTimeout;
+        return this;
+    }
+
+    String getPoolName() {
+        return poolName;
+    }
+
+    boolean isReadOnlyPrepare() {
+        return readOnlyPrepare;
+    }
+
+    int getMinIdle() {
+        return minIdle;
+    }
+
+    int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    long getAliveBypassWindow() {
+        return aliveBypassWindow;
+    }
+
+    long getHouseKeepingPeriod() {
+        return houseKeepingPeriod;
+    }
+
+    int getShardMinIdle() {
+        return shardMinIdle;
+    }
+
+    int getShardMaxPoolSize() {
+        return shardMaxPoolSize;
+    }
+
+    int getMaxTotalConnections() {
+        return maxTotalConnections;
+    }
+
+    boolean isLastResource() {
+        return lastResource;
+    }
+
+    boolean isSharedExecutors() {
+        return sharedExecutors;
+    }
+
+    int getSharedCreationConcurrency() {
+        return sharedCreationConcurrency;
+    }
+
+    int getSharedDestructionConcurrency() {
+        return sharedDestructionConcurrency;
+    }
+
+    boolean isLazyStart() {
+        return lazyStart;
+    }
+
+    ConnectionRequestInfo getDefaultConnectionRequestInfo() {
+        return defaultConnectionRequestInfo;
+    }
+
+    int getWarmUpConcurrency() {
+        return warmUpConcurrency;
+    }
+
+    boolean isAdaptiveSizing() {
+        return adaptiveSizing;
+    }
+
+    int getAdaptiveMinIdle() {
+        return adaptiveMinIdle;
+    }
+
+    Path getDemandProfile() {
+        return demandProfile;
+    }
+
+    SuspendPolicy getSuspendPolicy() {
+        return suspendPolicy;
+    }
+
+    int getFatalErrorThreshold() {
+        return fatalErrorThreshold;
+    }
+
+    long getFatalErrorWindow() {
+        return fatalErrorWindow;
+    }
+
+    int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    long getCircuitBreakerOpenTime() {
+        return circuitBreakerOpenTime;
+    }
+
+    double getConnectionCreationRate() {
+        return connectionCreationRate;
+    }
+
+    int getMaxConcurrentRetirements() {
+        return maxConcurrentRetirements;
+    }
+
+    int getMaxWaiters() {
+        return maxWaiters;
+    }
+
+    long getMaxEstimatedWait() {
+        return maxEstimatedWait;
+    }
+
+    int[] getReservedConnections() {
+        return reservedConnections;
+    }
+
+    int getSoftQuota() {
+        return softQuota;
+    }
+
+    int getHardQuota() {
+        return hardQuota;
+    }
+
+    String getConnectionBudgetName() {
+        return connectionBudgetName;
+    }
+
+    int getConnectionBudgetMaxConnections() {
+        return connectionBudgetMaxConnections;
+    }
+
+    long getSubpoolIdleTimeout() {
+        return subpoolIdleTimeout;
+    }
+
+}
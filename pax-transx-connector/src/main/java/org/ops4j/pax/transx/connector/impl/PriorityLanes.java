@@ -0,0 +1,171 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+import org.ops4j.pax.transx.connector.ConnectionPriority;
+
+/**
+ * Admission of the borrowers of a subpool according to their priority.
+ * <p>Connections reserved for a priority are kept out of reach of the lower priorities: a borrower takes a
+ * permit before entering the bag, which is only granted while the connections in use plus the permits already
+ * granted are below the pool size minus the connections reserved for the higher priorities. The permit is
+ * given back once the borrower leaves the bag, with or without a connection. Borrowers of the highest
+ * priority are never held back.
+ * <p>Held back borrowers wait in one lane per priority. When a connection is returned or a permit given back,
+ * the highest lane with waiters is signalled, and a borrower is never admitted while a higher lane has waiters,
+ * so that the capacity freed goes to the most important requests first.
+ */
+final class PriorityLanes {
+
+    // upper bound of a single wait, in case a connection is closed rather than returned
+    private static final long RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final int[] reserved;
+    private final IntSupplier active;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition[] lanes;
+    private final int[] waiting;
+    private volatile int queued;
+    // borrowers admitted in the bag which have not left it yet
+    private int admitted;
+
+    PriorityLanes(int[] reserved, IntSupplier active) {
+        this.reserved = reserved;
+        this.active = active;
+        this.lanes = new Condition[reserved.length];
+        this.waiting = new int[reserved.length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = lock.newCondition();
+        }
+    }
+
+    /**
+     * Number of connections borrowers of the given priority may bring the pool to.
+     */
+    int limit(ConnectionPriority priority, int maxPoolSize) {
+        int limit = maxPoolSize;
+        for (int i = 0; i < priority.ordinal(); i++) {
+            limit -= reserved[i];
+        }
+        // a subpool smaller than the reservations still serves every priority
+        return Math.max(1, limit);
+    }
+
+    /**
+     * Wait until a borrower of the given priority may enter the bag, taking a permit which must be given back
+     * with {@link #leave(ConnectionPriority)} if the returned timeout is not negative.
+     *
+     * @return the remaining nanoseconds of the timeout, or a negative value if it expired
+     */
+    long admit(ConnectionPriority priority, int maxPoolSize, long timeoutNanos) throws InterruptedException {
+        final int lane = priority.ordinal();
+        if (lane == 0) {
+            return timeoutNanos;
+        }
+        final int limit = limit(priority, maxPoolSize);
+        lock.lock();
+        try {
+            waiting[lane]++;
+            queued++;
+            try {
+                long nanos = timeoutNanos;
+                while (higherWaiting(lane) || active.getAsInt() + admitted >= limit) {
+                    if (nanos <= 0) {
+                        return -1L;
+                    }
+                    long slice = Math.min(nanos, RECHECK_NANOS);
+                    nanos -= slice - lanes[lane].awaitNanos(slice);
+                }
+                admitted++;
+                return Math.max(0L, nanos);
+            } finally {
+                waiting[lane]--;
+                queued--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A borrower admitted by {@link #admit(ConnectionPriority, int, long)} left the bag,
+     * with a connection now counted as active, or without one.
+     */
+    void leave(ConnectionPriority priority) {
+        if (priority.ordinal() == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            admitted--;
+            signalHighest();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A connection has been returned or closed: let the highest waiting lane try again.
+     */
+    void released() {
+        if (queued == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            signalHighest();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getWaiting() {
+        return queued;
+    }
+
+    int getAdmitted() {
+        lock.lock();
+        try {
+            return admitted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalHighest() {
+        for (int i = 0; i < lanes.length; i++) {
+            if (waiting[i] > 0) {
+                lanes[i].signal();
+                return;
+            }
+        }
+    }
+
+    private boolean higherWaiting(int lane) {
+        for (int i = 0; i < lane; i++) {
+            if (waiting[i] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.zaxxer.hikari.util.UtilityElf;
+
+/**
+ * Process wide executors shared by the connection managers configured with {@code sharedExecutors},
+ * so that the number of threads does not grow with the number of pools.
+ * <p>The executors are created by the first manager using them and shut down when the last one is closed.
+ * The number of threads used to create and destroy connections can be set with the
+ * {@value #THREADS_PROPERTY} system property. The housekeeping tasks of the pools may block (JMX registration,
+ * file I/O), so the scheduler has several threads too, set with the {@value #SCHEDULER_THREADS_PROPERTY}
+ * system property. On Java 21 and later, setting the
+ * {@value #VIRTUAL_THREADS_PROPERTY} system property to {@code true} runs them on virtual threads.
+ */
+final class SharedExecutors {
+
+    static final String THREADS_PROPERTY = "org.ops4j.pax.transx.connector.sharedExecutors.threads";
+    static final String SCHEDULER_THREADS_PROPERTY = "org.ops4j.pax.transx.connector.sharedExecutors.schedulerThreads";
+    static final String VIRTUAL_THREADS_PROPERTY = "org.ops4j.pax.transx.connector.sharedExecutors.virtualThreads";
+
+    private static final Logger LOG = Logger.getLogger(SharedExecutors.class.getName());
+
+    private static SharedExecutors instance;
+    private static int references;
+
+    final ScheduledExecutorService scheduler;
+    final ExecutorService connectionAdder;
+    final ExecutorService connectionCloser;
+
+    private SharedExecutors() {
+        int threads = Integer.getInteger(THREADS_PROPERTY, Math.max(2, Runtime.getRuntime().availableProcessors()));
+        int schedulerThreads = Integer.getInteger(SCHEDULER_THREADS_PROPERTY, Math.max(2, threads / 2));
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(schedulerThreads, new UtilityElf.DefaultThreadFactory("transx housekeeper", true), new ThreadPoolExecutor.DiscardPolicy());
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor.setRemoveOnCancelPolicy(true);
+        this.scheduler = executor;
+        boolean virtual = Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY);
+        this.connectionAdder = createExecutor("transx connection adder", threads, virtual);
+        this.connectionCloser = createExecutor("transx connection closer", threads, virtual);
+    }
+
+    static synchronized SharedExecutors acquire() {
+        if (instance == null) {
+            instance = new SharedExecutors();
+        }
+        references++;
+        return instance;
+    }
+
+    static synchronized void release() {
+        if (--references == 0) {
+            instance.scheduler.shutdownNow();
+            instance.connectionAdder.shutdown();
+            instance.connectionCloser.shutdown();
+            instance = null;
+        }
+    }
+
+    private static ExecutorService createExecutor(String name, int threads, boolean virtual) {
+        if (virtual) {
+            try {
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) method.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                LOG.log(Level.WARNING, "Virtual threads are not available, using platform threads for " + name);
+            }
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new UtilityElf.DefaultThreadFactory(name, true), new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+}
@@ -19,10 +19,14 @@ import java.util.Objects;
 import javax.resource.spi.ConnectionRequestInfo;
 import javax.security.auth.Subject;
 
+import org.ops4j.pax.transx.connector.ShardedConnectionRequestInfo;
+
 public class SubjectCRIKey {
 
     private final Subject subject;
     private final ConnectionRequestInfo cri;
+    // the sharding keys are part of the request info, which compares them
+    private final boolean sharded;
     private final transient int hashcode;
 
     public SubjectCRIKey(
@@ -30,6 +34,8 @@ public class SubjectCRIKey {
             final ConnectionRequestInfo cri) {
         this.subject = subject;
         this.cri = cri;
+        this.sharded = cri instanceof ShardedConnectionRequestInfo
+                && ((ShardedConnectionRequestInfo) cri).getShardingKey() != null;
         this.hashcode = Objects.hash(subject, cri);
     }
 
@@ -41,6 +47,18 @@ public class SubjectCRIKey {
         return cri;
     }
 
+    public boolean isSharded() {
+        return sharded;
+    }
+
+    /**
+     * Check whether this key would be equal to a key built from the given subject and request info, without building it.
+     */
+    public boolean matches(Subject subject, ConnectionRequestInfo cri) {
+        return (this.cri == cri || Objects.equals(this.cri, cri))
+                && (this.subject == subject || Objects.equals(this.subject, subject));
+    }
+
     @Override
     public int hashCode() {
         return hashcode;
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.security.auth.Subject;
+
+/**
+ * Bounded cache from the identity of a subject and connection request info to the subpool they resolve to,
+ * so that borrowing with the same objects does not need to hash the whole subject again.
+ * <p>The cache is direct-mapped: a colliding pair simply replaces the previous entry.
+ * Only read-only subjects are cached, as the credentials of other subjects may be changed in place,
+ * and must then be resolved again by equality.
+ */
+final class SubjectCRIKeyCache<V> {
+
+    private static final int SIZE = 64;
+
+    private final Entry<V>[] entries;
+
+    @SuppressWarnings("unchecked")
+    SubjectCRIKeyCache() {
+        entries = (Entry<V>[]) new Entry[SIZE];
+    }
+
+    V get(Subject subject, ConnectionRequestInfo cri) {
+        if (!isCacheable(subject)) {
+            return null;
+        }
+        Entry<V> entry = entries[index(subject, cri)];
+        if (entry != null && entry.subject == subject && entry.cri == cri) {
+            return entry.value;
+        }
+        return null;
+    }
+
+    void put(Subject subject, ConnectionRequestInfo cri, V value) {
+        if (isCacheable(subject)) {
+            entries[index(subject, cri)] = new Entry<>(subject, cri, value);
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = null;
+        }
+    }
+
+    private static int index(Subject subject, ConnectionRequestInfo cri) {
+        int h = System.identityHashCode(subject) * 31 + System.identityHashCode(cri);
+        return (h ^ (h >>> 16)) & (SIZE - 1);
+    }
+
+    private static boolean isCacheable(Subject subject) {
+        return subject == null || subject.isReadOnly();
+    }
+
+    private static final class Entry<V> {
+        final Subject subject;
+        final ConnectionRequestInfo cri;
+        final V value;
+
+        Entry(Subject subject, ConnectionRequestInfo cri, V value) {
+            this.subject = subject;
+            this.cri = cri;
+            this.value = value;
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import static com.zaxxer.hikari.util.ClockSource.currentTime;
+import static com.zaxxer.hikari.util.ClockSource.elapsedNanos;
+
+/**
+ * Token bucket limiting the rate at which connections are created.
+ * <p>The bucket holds up to one second worth of tokens, so that short bursts are not delayed.
+ * A caller which finds the bucket empty reserves the next token anyway and is told how long to wait
+ * for it, so that concurrent callers are spaced out rather than retrying.
+ */
+final class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+
+    private double tokens;
+    private long lastRefill = currentTime();
+
+    TokenBucket(double tokensPerSecond) {
+        this.tokensPerNano = tokensPerSecond / 1_000_000_000d;
+        this.capacity = Math.max(1d, tokensPerSecond);
+        this.tokens = capacity;
+    }
+
+    /**
+     * Take a token.
+     *
+     * @return the number of nanoseconds to wait before using it
+     */
+    synchronized long reserve() {
+        final long now = currentTime();
+        tokens = Math.min(capacity, tokens + elapsedNanos(lastRefill, now) * tokensPerNano);
+        lastRefill = now;
+        tokens -= 1d;
+        return tokens >= 0d ? 0L : (long) (-tokens / tokensPerNano);
+    }
+
+}
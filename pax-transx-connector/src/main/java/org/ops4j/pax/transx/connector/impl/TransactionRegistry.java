@@ -0,0 +1,145 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.resource.spi.ManagedConnectionFactory;
+import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
+
+import org.ops4j.pax.transx.tm.Transaction;
+
+/**
+ * Keeps track of the XA branches and connections enlisted in each transaction by all the connection managers,
+ * so that connections to the same resource manager can share a single branch, and connection managers
+ * built on equal managed connection factories can share a single connection.
+ */
+final class TransactionRegistry {
+
+    private static final ConcurrentMap<Transaction, Entry> ENTRIES = new ConcurrentHashMap<>();
+
+    private TransactionRegistry() {
+    }
+
+    /**
+     * Try to join the given resource to a branch already enlisted in the transaction.
+     */
+    static boolean join(Transaction transaction, WrapperNamedXAResource xares) {
+        Entry entry = ENTRIES.get(transaction);
+        if (entry != null) {
+            for (WrapperNamedXAResource branch : entry.branches) {
+                if (branch.join(xares)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Record a resource that has been enlisted in its own branch.
+     */
+    static void register(Transaction transaction, WrapperNamedXAResource xares) {
+        entry(transaction).branches.add(xares);
+    }
+
+    /**
+     * Claim the single last resource that the transaction managers accept in a transaction.
+     *
+     * @return <code>false</code> if another connection is already enlisted as the last resource
+     */
+    static boolean claimLastResource(Transaction transaction) {
+        return entry(transaction).lastResource.compareAndSet(false, true);
+    }
+
+    /**
+     * Find a connection enlisted in the transaction by any connection manager
+     * for an equal managed connection factory and the same credentials.
+     */
+    static GenericConnectionManager.ManagedConnectionInfo lookup(Transaction transaction, Key key) {
+        Entry entry = ENTRIES.get(transaction);
+        return entry != null ? entry.connections.get(key) : null;
+    }
+
+    /**
+     * Make an enlisted connection available to the other connection managers for the rest of the transaction.
+     */
+    static void share(Transaction transaction, Key key, GenericConnectionManager.ManagedConnectionInfo mci) {
+        entry(transaction).connections.putIfAbsent(key, mci);
+    }
+
+    private static Entry entry(Transaction transaction) {
+        Entry entry = ENTRIES.get(transaction);
+        if (entry == null) {
+            Entry newEntry = new Entry();
+            entry = ENTRIES.putIfAbsent(transaction, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+                transaction.synchronization(null, status -> ENTRIES.remove(transaction));
+            }
+        }
+        return entry;
+    }
+
+    static final class Entry {
+        final List<WrapperNamedXAResource> branches = new CopyOnWriteArrayList<>();
+        final ConcurrentMap<Key, GenericConnectionManager.ManagedConnectionInfo> connections = new ConcurrentHashMap<>();
+        final AtomicBoolean lastResource = new AtomicBoolean();
+    }
+
+    /**
+     * Identifies the connections which can be shared: the managed connection factories
+     * must be equal, use the same transaction support and the same subject / request info.
+     */
+    static final class Key {
+        private final ManagedConnectionFactory managedConnectionFactory;
+        private final TransactionSupportLevel transactionSupportLevel;
+        private final SubjectCRIKey subjectCRIKey;
+        private final int hashCode;
+
+        Key(ManagedConnectionFactory managedConnectionFactory, TransactionSupportLevel transactionSupportLevel, SubjectCRIKey subjectCRIKey) {
+            this.managedConnectionFactory = managedConnectionFactory;
+            this.transactionSupportLevel = transactionSupportLevel;
+            this.subjectCRIKey = subjectCRIKey;
+            this.hashCode = Objects.hash(managedConnectionFactory, transactionSupportLevel, subjectCRIKey);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key other = (Key) o;
+            return transactionSupportLevel == other.transactionSupportLevel
+                    && managedConnectionFactory.equals(other.managedConnectionFactory)
+                    && subjectCRIKey.equals(other.subjectCRIKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+}
@@ -15,6 +15,9 @@
  */
 package org.ops4j.pax.transx.connector.impl;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
@@ -32,6 +35,13 @@ public class WrapperNamedXAResource implements NamedResource {
     private final XAResource xaResource;
     private final String name;
 
+    /**
+     * Resources of the same resource manager which joined the branch of this resource using {@code TMJOIN}.
+     * They are ended together with this resource, and completed by this resource's prepare and commit / rollback.
+     */
+    private final List<WrapperNamedXAResource> joined = new CopyOnWriteArrayList<>();
+    private volatile Xid xid;
+
     public WrapperNamedXAResource(XAResource xaResource, String name) {
         if (xaResource == null) {
             throw new NullPointerException("No XAResource supplied.  XA support may not be configured properly");
@@ -49,17 +59,36 @@ public class WrapperNamedXAResource implements NamedResource {
 
     public void commit(Xid xid, boolean onePhase) throws XAException {
         LOG.finest(() -> "Commit called on XAResource " + getName() + "\n Xid: " + xid + "\n onePhase:" + onePhase);
-        xaResource.commit(xid, onePhase);
+        try {
+            xaResource.commit(xid, onePhase);
+        } finally {
+            completed();
+        }
     }
 
     public void end(Xid xid, int flags) throws XAException {
         LOG.finest(() -> "End called on XAResource " + getName() + "\n Xid: " + xid + "\n flags:" + decodeFlags(flags));
+        XAException failure = null;
+        for (WrapperNamedXAResource other : joined) {
+            try {
+                other.end(xid, flags);
+            } catch (XAException e) {
+                failure = e;
+            }
+        }
         xaResource.end(xid, flags);
+        if (failure != null) {
+            throw failure;
+        }
     }
 
     public void forget(Xid xid) throws XAException {
         LOG.finest(() -> "Forget called on XAResource " + getName() + "\n Xid: " + xid);
-        xaResource.forget(xid);
+        try {
+            xaResource.forget(xid);
+        } finally {
+            completed();
+        }
     }
 
     public int getTransactionTimeout() throws XAException {
@@ -75,7 +104,18 @@ public class WrapperNamedXAResource implements NamedResource {
 
     public int prepare(Xid xid) throws XAException {
         LOG.finest(() -> "Prepare called on XAResource " + getName() + "\n Xid: " + xid);
-        return xaResource.prepare(xid);
+        final int result;
+        try {
+            result = xaResource.prepare(xid);
+        } catch (XAException e) {
+            completed();
+            throw e;
+        }
+        if (result == XA_RDONLY) {
+            // the transaction manager does not call commit nor rollback on a read-only branch
+            completed();
+        }
+        return result;
     }
 
     public Xid[] recover(int flag) throws XAException {
@@ -85,7 +125,11 @@ public class WrapperNamedXAResource implements NamedResource {
 
     public void rollback(Xid xid) throws XAException {
         LOG.finest(() -> "Rollback called on XAResource " + getName() + "\n Xid: " + xid);
-        xaResource.rollback(xid);
+        try {
+            xaResource.rollback(xid);
+        } finally {
+            completed();
+        }
     }
 
     public boolean setTransactionTimeout(int seconds) throws XAException {
@@ -95,7 +139,46 @@ public class WrapperNamedXAResource implements NamedResource {
     public void start(Xid xid, int flags) throws XAException {
         LOG.finest(() -> "Start called on XAResource " + getName() + "\n Xid: " + xid + "\n flags:" + decodeFlags(flags));
         xaResource.start(xid, flags);
+        this.xid = xid;
+        if ((flags & TMRESUME) == TMRESUME) {
+            for (WrapperNamedXAResource other : joined) {
+                other.start(xid, flags);
+            }
+        }
     }
+
+    /**
+     * Let a resource of the same resource manager join the active branch of this resource.
+     *
+     * @return {@code false} if the branch is not active or the driver refused the join,
+     *          in which case the other resource has to be enlisted in its own branch
+     */
+    boolean join(WrapperNamedXAResource other) {
+        Xid xid = this.xid;
+        if (xid == null || other == this) {
+            return false;
+        }
+        try {
+            if (!isSameRM(other)) {
+                return false;
+            }
+            other.start(xid, TMJOIN);
+        } catch (XAException e) {
+            LOG.log(Level.FINE, e, () -> "Unable to join XA branch of " + getName() + " from " + other.getName() + ", using a separate branch");
+            return false;
+        }
+        joined.add(other);
+        return true;
+    }
+
+    private void completed() {
+        xid = null;
+        for (WrapperNamedXAResource other : joined) {
+            other.completed();
+        }
+        joined.clear();
+    }
+
     private String decodeFlags(int flags) {
         if (flags == 0) {
             return " TMNOFLAGS";
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveSizingTest {
+
+    private static final long PERIOD = SECONDS.toNanos(1L);
+
+    private long now;
+
+    @Test
+    public void testDemandFromLittlesLaw() {
+        AdaptiveSizing sizing = new AdaptiveSizing(1, 1, 20, now);
+        // 100 borrows of 50ms in 1s: 5 connections in use on average
+        borrow(sizing, 100, 50L);
+        assertTrue(sizing.update(0, 0, next()));
+        // target 5 * 1.25, minIdle the spare part of it
+        assertEquals(7, sizing.getTargetSize());
+        assertEquals(2, sizing.getMinIdle());
+
+        // long running borrows count even though they have not been returned
+        assertTrue(sizing.update(10, 0, next()));
+        // demand 5 + 0.3 * (10 - 5) = 6.5
+        assertEquals(9, sizing.getTargetSize());
+        assertEquals(2, sizing.getMinIdle());
+
+        // waiting threads add to the demand and to the target
+        assertTrue(sizing.update(0, 4, next()));
+        // demand 6.5 + 0.3 * (4 - 6.5) = 5.75
+        assertEquals(12, sizing.getTargetSize());
+        assertEquals(6, sizing.getMinIdle());
+    }
+
+    @Test
+    public void testBounds() {
+        AdaptiveSizing sizing = new AdaptiveSizing(0, 2, 8, now);
+        assertEquals(2, sizing.getMinIdle());
+        assertEquals(2, sizing.getTargetSize());
+
+        borrow(sizing, 1000, 100L);
+        sizing.update(0, 0, next());
+        assertEquals(8, sizing.getTargetSize());
+        assertEquals(2, sizing.getMinIdle());
+
+        // the demand decays, but the sizes never go below the lower bound
+        for (int i = 0; i < 50; i++) {
+            sizing.update(0, 0, next());
+        }
+        assertEquals(2, sizing.getTargetSize());
+        assertEquals(2, sizing.getMinIdle());
+        assertFalse(sizing.update(0, 0, next()));
+    }
+
+    @Test
+    public void testNoUpdateWithoutElapsedTime() {
+        AdaptiveSizing sizing = new AdaptiveSizing(1, 1, 20, now);
+        borrow(sizing, 100, 50L);
+        assertFalse(sizing.update(0, 0, now));
+        assertEquals(1, sizing.getTargetSize());
+    }
+
+    private long next() {
+        now += PERIOD;
+        return now;
+    }
+
+    private static void borrow(AdaptiveSizing sizing, int borrows, long holdMillis) {
+        for (int i = 0; i < borrows; i++) {
+            sizing.borrowed();
+            sizing.returned(MILLISECONDS.toNanos(holdMillis));
+        }
+    }
+
+}
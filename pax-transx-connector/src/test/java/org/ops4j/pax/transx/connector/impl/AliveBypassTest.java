@@ -0,0 +1,68 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
+
+import org.junit.After;
+import org.junit.Test;
+import org.ops4j.pax.transx.connector.ConnectionManagerBuilder;
+
+import static org.junit.Assert.assertEquals;
+
+public class AliveBypassTest {
+
+    private final TestManagedConnectionFactory mcf = new TestManagedConnectionFactory();
+    private GenericConnectionManager cm;
+
+    @After
+    public void tearDown() throws Exception {
+        cm.close();
+    }
+
+    @Test
+    public void testRecentlyUsedConnectionIsNotValidated() throws Exception {
+        cm = build(60_000L);
+        for (int i = 0; i < 3; i++) {
+            ((TestManagedConnectionFactory.TestConnection) cm.allocateConnection(mcf, null)).close();
+        }
+        assertEquals(1, mcf.created());
+        assertEquals(0, mcf.validations.get());
+    }
+
+    @Test
+    public void testConnectionIsValidatedAfterWindow() throws Exception {
+        cm = build(0L);
+        ((TestManagedConnectionFactory.TestConnection) cm.allocateConnection(mcf, null)).close();
+        int validations = mcf.validations.get();
+        Thread.sleep(5L);
+        ((TestManagedConnectionFactory.TestConnection) cm.allocateConnection(mcf, null)).close();
+        assertEquals(1, mcf.created());
+        assertEquals(validations + 1, mcf.validations.get());
+    }
+
+    private GenericConnectionManager build(long aliveBypassWindow) throws Exception {
+        return (GenericConnectionManager) ConnectionManagerBuilder.builder()
+                .name("alive-bypass")
+                .managedConnectionFactory(mcf)
+                .transaction(TransactionSupportLevel.NoTransaction)
+                .minIdle(0)
+                .maxPoolSize(1)
+                .aliveBypassWindow(aliveBypassWindow)
+                .build();
+    }
+
+}
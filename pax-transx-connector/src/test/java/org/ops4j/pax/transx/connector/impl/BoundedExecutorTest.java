@@ -0,0 +1,179 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BoundedExecutorTest {
+
+    private final ExecutorService shared = Executors.newCachedThreadPool();
+    private final List<Runnable> rejected = new CopyOnWriteArrayList<>();
+
+    @After
+    public void tearDown() {
+        shared.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        BoundedExecutor executor = new BoundedExecutor(shared, 2, () -> 0, rejected::add);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        int tasks = 50;
+        CountDownLatch done = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(2L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(10L, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+        assertTrue(rejected.isEmpty());
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRejectionWhenQueueIsFull() throws Exception {
+        BoundedExecutor executor = new BoundedExecutor(shared, 1, () -> 2, rejected::add);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        executor.execute(() -> {
+            started.countDown();
+            await(release);
+            ran.incrementAndGet();
+        });
+        assertTrue(started.await(10L, TimeUnit.SECONDS));
+        executor.execute(ran::incrementAndGet);
+        executor.execute(ran::incrementAndGet);
+        Runnable overflow = ran::incrementAndGet;
+        executor.execute(overflow);
+        assertEquals(1, rejected.size());
+        assertTrue(rejected.contains(overflow));
+
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10L, TimeUnit.SECONDS));
+        assertEquals(3, ran.get());
+
+        // nothing is accepted after shutdown
+        Runnable late = ran::incrementAndGet;
+        executor.execute(late);
+        assertEquals(2, rejected.size());
+        assertTrue(rejected.contains(late));
+    }
+
+    @Test
+    public void testQueueLimitFollowsItsSupplier() throws Exception {
+        AtomicInteger maxQueued = new AtomicInteger(1);
+        BoundedExecutor executor = new BoundedExecutor(shared, 1, maxQueued::get, rejected::add);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            await(release);
+        });
+        assertTrue(started.await(10L, TimeUnit.SECONDS));
+        executor.execute(() -> { });
+        executor.execute(() -> { });
+        assertEquals(1, rejected.size());
+
+        // a larger pool accepts more pending creations
+        maxQueued.set(2);
+        executor.execute(() -> { });
+        assertEquals(1, rejected.size());
+        executor.execute(() -> { });
+        assertEquals(2, rejected.size());
+
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testQueuedTasksAreRejectedWhenSharedExecutorStops() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        BoundedExecutor executor = new BoundedExecutor(single, 1, () -> 0, rejected::add);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            await(release);
+        });
+        assertTrue(started.await(10L, TimeUnit.SECONDS));
+        executor.execute(() -> { });
+        executor.execute(() -> { });
+        single.shutdown();
+        release.countDown();
+        assertTrue(single.awaitTermination(10L, TimeUnit.SECONDS));
+        assertEquals(2, rejected.size());
+    }
+
+    @Test
+    public void testTasksOfSeveralExecutorsAreInterleaved() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            BoundedExecutor first = new BoundedExecutor(single, 1, () -> 0, rejected::add);
+            BoundedExecutor second = new BoundedExecutor(single, 1, () -> 0, rejected::add);
+            CountDownLatch release = new CountDownLatch(1);
+            List<String> order = new CopyOnWriteArrayList<>();
+            // hold the shared thread until all the tasks are submitted
+            single.execute(() -> await(release));
+            for (int i = 1; i <= 3; i++) {
+                String n = String.valueOf(i);
+                first.execute(() -> order.add("a" + n));
+                second.execute(() -> order.add("b" + n));
+            }
+            release.countDown();
+            first.shutdown();
+            second.shutdown();
+            assertTrue(first.awaitTermination(10L, TimeUnit.SECONDS));
+            assertTrue(second.awaitTermination(10L, TimeUnit.SECONDS));
+            assertEquals("[a1, b1, a2, b2, a3, b3]", order.toString());
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60_000L);
+        Exception error = new Exception("down");
+        breaker.failure(error);
+        breaker.failure(error);
+        breaker.success();
+        // the success has reset the count
+        breaker.failure(error);
+        breaker.failure(error);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        breaker.failure(error);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.tryAcquire());
+        assertSame(error, breaker.getLastError());
+    }
+
+    @Test
+    public void testSingleTrialWhenHalfOpen() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50L);
+        breaker.failure(new Exception("down"));
+        assertFalse(breaker.tryAcquire());
+        Thread.sleep(100L);
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // only one trial at a time
+        assertFalse(breaker.tryAcquire());
+        breaker.success();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertNull(breaker.getLastError());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testFailedTrialOpensAgain() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(5, 50L);
+        for (int i = 0; i < 5; i++) {
+            breaker.failure(new Exception("down"));
+        }
+        Thread.sleep(100L);
+        assertTrue(breaker.tryAcquire());
+        // a single failure is enough while half-open
+        breaker.failure(new Exception("still down"));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testReleasedTrialCanBeTakenAgain() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50L);
+        breaker.failure(new Exception("down"));
+        Thread.sleep(100L);
+        assertTrue(breaker.tryAcquire());
+        breaker.release();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        // the open time has already elapsed, the next caller gets the trial
+        assertTrue(breaker.tryAcquire());
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DemandProfileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSavedWhenBucketIsOver() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("profile.txt");
+        DemandProfile profile = new DemandProfile(file, "test");
+        profile.record(LocalTime.of(8, 0), 3);
+        profile.record(LocalTime.of(8, 10), 12);
+        profile.record(LocalTime.of(8, 14), 5);
+        assertFalse(Files.exists(file));
+
+        profile.record(LocalTime.of(8, 15), 2);
+        assertTrue(Files.exists(file));
+        assertTrue(Files.readAllLines(file, StandardCharsets.UTF_8).contains("08:00 12"));
+        assertEquals(12, profile.expected(LocalTime.of(8, 5)));
+
+        // the bucket in progress is saved on close
+        profile.close();
+        assertTrue(Files.readAllLines(file, StandardCharsets.UTF_8).contains("08:15 2"));
+        assertFalse(Files.exists(file.resolveSibling("profile.txt.tmp")));
+    }
+
+    @Test
+    public void testLoadAndAverage() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("profile.txt");
+        Files.write(file, Arrays.asList("# previous days", "09:00 10", "not a bucket", "09:30 x", "10:00 4"), StandardCharsets.UTF_8);
+        DemandProfile profile = new DemandProfile(file, "test");
+        assertEquals(10, profile.expected(LocalTime.of(9, 5)));
+        assertEquals(4, profile.expected(LocalTime.of(10, 14)));
+        assertEquals(0, profile.expected(LocalTime.of(12, 0)));
+
+        // a quieter day halves the difference
+        profile.record(LocalTime.of(9, 0), 4);
+        profile.close();
+        assertEquals(7, new DemandProfile(file, "test").expected(LocalTime.of(9, 0)));
+    }
+
+    @Test
+    public void testExpectedDemandLooksAhead() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("profile.txt");
+        Files.write(file, Arrays.asList("08:00 2", "08:15 20"), StandardCharsets.UTF_8);
+        DemandProfile profile = new DemandProfile(file, "test");
+        assertEquals(2, profile.expected(LocalTime.of(8, 5)));
+        // within five minutes of the ramp
+        assertEquals(20, profile.expected(LocalTime.of(8, 12)));
+        assertEquals(20, profile.expected(LocalTime.of(8, 20)));
+        // around midnight, the next bucket is the first one of the day
+        Files.write(file, Arrays.asList("00:00 6"), StandardCharsets.UTF_8);
+        assertEquals(6, new DemandProfile(file, "test").expected(LocalTime.of(23, 58)));
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import javax.resource.spi.ConnectionEvent;
+import javax.resource.spi.ConnectionEventListener;
+import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.transx.connector.ConnectionManagerBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FatalErrorStormTest {
+
+    private final TestManagedConnectionFactory mcf = new TestManagedConnectionFactory();
+    private GenericConnectionManager cm;
+
+    @Before
+    public void setUp() throws Exception {
+        cm = (GenericConnectionManager) ConnectionManagerBuilder.builder()
+                .name("storm")
+                .managedConnectionFactory(mcf)
+                .transaction(TransactionSupportLevel.NoTransaction)
+                .minIdle(0)
+                .maxPoolSize(4)
+                .fatalErrorThreshold(2)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cm.close();
+    }
+
+    @Test
+    public void testStormEvictsSubpool() throws Exception {
+        TestManagedConnectionFactory.TestConnection c1 = allocate();
+        TestManagedConnectionFactory.TestConnection c2 = allocate();
+        TestManagedConnectionFactory.TestConnection c3 = allocate();
+        TestManagedConnectionFactory.TestConnection c4 = allocate();
+        GenericConnectionManager.Pool pool = c1.mc.info().pool;
+        c1.close();
+
+        // a single error only closes its connection
+        error(c2);
+        assertEquals(3, pool.getTotalConnections());
+        assertFalse(c1.mc.info().isMarkedEvicted());
+
+        // the second one within the window evicts the whole subpool
+        error(c3);
+        assertTrue(c1.mc.info().isMarkedEvicted());
+        assertTrue(c4.mc.info().isMarkedEvicted());
+        assertEquals(1, pool.getTotalConnections());
+        awaitOpen(1);
+
+        // the connection in use is closed when it fails, without counting for the next storm
+        error(c4);
+        assertEquals(0, pool.getTotalConnections());
+        awaitOpen(0);
+
+        // borrowers still get connections while the refill is paused
+        TestManagedConnectionFactory.TestConnection c5 = allocate();
+        TestManagedConnectionFactory.TestConnection c6 = allocate();
+        error(c5);
+        assertFalse(c6.mc.info().isMarkedEvicted());
+        c6.close();
+        assertEquals(1, pool.getIdleConnections());
+    }
+
+    private TestManagedConnectionFactory.TestConnection allocate() throws Exception {
+        return (TestManagedConnectionFactory.TestConnection) cm.allocateConnection(mcf, null);
+    }
+
+    private void awaitOpen(int open) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (mcf.open.get() != open && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(open, mcf.open.get());
+    }
+
+    private static void error(TestManagedConnectionFactory.TestConnection c) {
+        ConnectionEvent event = new ConnectionEvent(c.mc, ConnectionEvent.CONNECTION_ERROR_OCCURRED, new Exception("broken"));
+        event.setConnectionHandle(c);
+        for (ConnectionEventListener listener : c.mc.listeners) {
+            listener.connectionErrorOccurred(event);
+        }
+    }
+
+}
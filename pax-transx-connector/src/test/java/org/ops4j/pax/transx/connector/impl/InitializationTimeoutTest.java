@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+import javax.resource.ResourceException;
+import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
+
+import org.junit.Test;
+import org.ops4j.pax.transx.connector.ConnectionManagerBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InitializationTimeoutTest {
+
+    private final TestManagedConnectionFactory mcf = new TestManagedConnectionFactory();
+
+    @Test
+    public void testBuildCreatesMinIdleConnections() throws Exception {
+        GenericConnectionManager cm = build("init-ok");
+        try {
+            assertEquals(3, mcf.created());
+            assertEquals(3, mcf.open.get());
+        } finally {
+            cm.close();
+        }
+    }
+
+    @Test
+    public void testBuildFailsFastAndClosesManager() throws Exception {
+        ResourceException failure = new ResourceException("database is down");
+        mcf.failure = failure;
+        long start = System.currentTimeMillis();
+        try {
+            build("init-failed");
+            fail("The build should fail when no connection can be created");
+        } catch (ResourceException e) {
+            assertSame(failure, e.getCause());
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000L);
+        assertFalse(ManagementFactory.getPlatformMBeanServer().queryNames(new ObjectName("org.ops4j.pax.transx:type=Pool,*"), null).stream()
+                .anyMatch(n -> n.getKeyProperty("name").endsWith("-init-failed")));
+        Thread.sleep(100L);
+        assertFalse(Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(t -> t.isAlive() && t.getName().contains("-init-failed ")));
+        assertEquals(0, mcf.created());
+    }
+
+    private GenericConnectionManager build(String name) throws Exception {
+        return (GenericConnectionManager) ConnectionManagerBuilder.builder()
+                .name(name)
+                .managedConnectionFactory(mcf)
+                .transaction(TransactionSupportLevel.NoTransaction)
+                .minIdle(3)
+                .maxPoolSize(5)
+                .initializationTimeout(300L)
+                .build();
+    }
+
+}
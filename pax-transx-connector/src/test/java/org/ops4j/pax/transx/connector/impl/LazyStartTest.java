@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.ObjectName;
+import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.transx.connector.ConnectionManagerBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LazyStartTest {
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    // each test has its own pool name, as the threads of a closed pool may take a moment to stop
+    private final String name = "lazy-start-" + COUNTER.incrementAndGet();
+
+    private final TestManagedConnectionFactory mcf = new TestManagedConnectionFactory();
+    private GenericConnectionManager cm;
+
+    @Before
+    public void setUp() throws Exception {
+        cm = (GenericConnectionManager) ConnectionManagerBuilder.builder()
+                .name(name)
+                .managedConnectionFactory(mcf)
+                .transaction(TransactionSupportLevel.NoTransaction)
+                .lazyStart(true)
+                .minIdle(2)
+                .maxPoolSize(4)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cm.close();
+    }
+
+    @Test
+    public void testNothingIsStartedBeforeFirstUse() throws Exception {
+        assertFalse(hasThreads());
+        assertFalse(hasMBean());
+        assertEquals(0, mcf.created());
+
+        ((TestManagedConnectionFactory.TestConnection) cm.allocateConnection(mcf, null)).close();
+        assertTrue(hasThreads());
+        assertTrue(hasMBean());
+        assertEquals(1, mcf.created());
+
+        cm.close();
+        assertFalse(hasMBean());
+    }
+
+    @Test
+    public void testWarmUpFillsDefaultSubpool() throws Exception {
+        cm.warmUp();
+        assertTrue(hasMBean());
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (mcf.created() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(2, mcf.created());
+    }
+
+    @Test
+    public void testClosedBeforeFirstUse() throws Exception {
+        cm.close();
+        assertFalse(hasThreads());
+        assertFalse(hasMBean());
+        assertEquals(0, mcf.created());
+    }
+
+    private boolean hasThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(t -> t.getName().contains("-" + name + " "));
+    }
+
+    private boolean hasMBean() throws Exception {
+        return ManagementFactory.getPlatformMBeanServer().queryNames(new ObjectName("org.ops4j.pax.transx:type=Pool,*"), null).stream()
+                .anyMatch(n -> n.getKeyProperty("name").endsWith("-" + name));
+    }
+
+}
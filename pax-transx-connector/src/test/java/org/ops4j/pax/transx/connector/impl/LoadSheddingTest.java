@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.transx.connector.ConnectionManagerBuilder;
+import org.ops4j.pax.transx.connector.PoolSaturatedException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LoadSheddingTest {
+
+    private final TestManagedConnectionFactory mcf = new TestManagedConnectionFactory();
+    private GenericConnectionManager cm;
+
+    @Before
+    public void setUp() throws Exception {
+        cm = (GenericConnectionManager) ConnectionManagerBuilder.builder()
+                .name("shedding")
+                .managedConnectionFactory(mcf)
+                .transaction(TransactionSupportLevel.NoTransaction)
+                .minIdle(0)
+                .maxPoolSize(1)
+                .connectionTimeout(5000L)
+                .maxWaiters(1)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cm.close();
+    }
+
+    @Test
+    public void testRejectedAtMaxWaiters() throws Exception {
+        TestManagedConnectionFactory.TestConnection c1 = allocate();
+        GenericConnectionManager.Pool pool = c1.mc.info().pool;
+        CompletableFuture<TestManagedConnectionFactory.TestConnection> waiter = CompletableFuture.supplyAsync(() -> {
+            try {
+                return allocate();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(200L);
+        assertFalse(waiter.isDone());
+
+        long start = System.currentTimeMillis();
+        try {
+            allocate();
+            fail("The request should be rejected while a thread is already waiting");
+        } catch (PoolSaturatedException e) {
+            assertTrue(System.currentTimeMillis() - start < 1000L);
+        }
+        assertEquals(1, pool.getRejectedConnections());
+
+        // the waiting thread is still served
+        c1.close();
+        waiter.get(5L, TimeUnit.SECONDS).close();
+        allocate().close();
+        assertEquals(1, pool.getRejectedConnections());
+    }
+
+    private TestManagedConnectionFactory.TestConnection allocate() throws Exception {
+        return (TestManagedConnectionFactory.TestConnection) cm.allocateConnection(mcf, null);
+    }
+
+}
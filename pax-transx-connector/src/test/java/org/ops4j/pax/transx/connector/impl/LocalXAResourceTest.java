@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import javax.resource.spi.LocalTransaction;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.junit.Test;
+import org.ops4j.pax.transx.connector.UpdateTrackingManagedConnection;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocalXAResourceTest {
+
+    private final List<String> events = new ArrayList<>();
+
+    private final LocalTransaction localTransaction = new LocalTransaction() {
+        @Override
+        public void begin() {
+            events.add("begin");
+        }
+
+        @Override
+        public void commit() {
+            events.add("commit");
+        }
+
+        @Override
+        public void rollback() {
+            events.add("rollback");
+        }
+    };
+
+    private final Xid xid = new Xid() {
+        @Override
+        public int getFormatId() {
+            return 1;
+        }
+
+        @Override
+        public byte[] getGlobalTransactionId() {
+            return new byte[] { 1 };
+        }
+
+        @Override
+        public byte[] getBranchQualifier() {
+            return new byte[] { 1 };
+        }
+    };
+
+    @Test
+    public void testReadOnlyBranchIsCommittedInPrepare() throws Exception {
+        LocalXAResource xares = new LocalXAResource(localTransaction, "test", tracking(false));
+        xares.start(xid, XAResource.TMNOFLAGS);
+        xares.end(xid, XAResource.TMSUCCESS);
+        assertEquals(XAResource.XA_RDONLY, xares.prepare(xid));
+        assertEquals("[begin, commit]", events.toString());
+    }
+
+    @Test
+    public void testUpdatedBranchWaitsForCommit() throws Exception {
+        LocalXAResource xares = new LocalXAResource(localTransaction, "test", tracking(true));
+        xares.start(xid, XAResource.TMNOFLAGS);
+        xares.end(xid, XAResource.TMSUCCESS);
+        assertEquals(XAResource.XA_OK, xares.prepare(xid));
+        assertEquals("[begin]", events.toString());
+        xares.rollback(xid);
+        assertEquals("[begin, rollback]", events.toString());
+    }
+
+    @Test
+    public void testNoTrackingVotesOk() throws Exception {
+        LocalXAResource xares = new LocalXAResource(localTransaction, "test");
+        xares.start(xid, XAResource.TMNOFLAGS);
+        xares.end(xid, XAResource.TMSUCCESS);
+        assertEquals(XAResource.XA_OK, xares.prepare(xid));
+        xares.commit(xid, false);
+        assertEquals("[begin, commit]", events.toString());
+    }
+
+    private static UpdateTrackingManagedConnection tracking(boolean pendingUpdates) {
+        return (UpdateTrackingManagedConnection) Proxy.newProxyInstance(
+                LocalXAResourceTest.class.getClassLoader(),
+                new Class<?>[] { UpdateTrackingManagedConnection.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("hasPendingUpdates")) {
+                        return pendingUpdates;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import javax.resource.spi.ConnectionEvent;
+import javax.resource.spi.ConnectionEventListener;
+import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.transx.connector.ConnectionManagerBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class PoolCountersTest {
+
+    private final TestManagedConnectionFactory mcf = new TestManagedConnectionFactory();
+    private GenericConnectionManager cm;
+
+    @Before
+    public void setUp() throws Exception {
+        cm = (GenericConnectionManager) ConnectionManagerBuilder.builder()
+                .name("counters")
+                .managedConnectionFactory(mcf)
+                .transaction(TransactionSupportLevel.NoTransaction)
+                .minIdle(0)
+                .maxPoolSize(3)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cm.close();
+    }
+
+    @Test
+    public void testCountersAfterErrorsAndEvictions() throws Exception {
+        TestManagedConnectionFactory.TestConnection c1 = allocate();
+        TestManagedConnectionFactory.TestConnection c2 = allocate();
+        TestManagedConnectionFactory.TestConnection c3 = allocate();
+        GenericConnectionManager.Pool pool = c1.mc.info().pool;
+        assertCounters(pool, 0, 3, 3);
+
+        c1.close();
+        assertCounters(pool, 1, 2, 3);
+
+        // a connection error removes the connection from the pool
+        error(c2);
+        assertCounters(pool, 1, 1, 2);
+
+        // idle connections are evicted at once, the active one when it is returned or borrowed again
+        pool.softEvictConnections();
+        assertCounters(pool, 0, 1, 1);
+        c3.close();
+        TestManagedConnectionFactory.TestConnection c4 = allocate();
+        assertNotSame(c3.mc, c4.mc);
+        c4.close();
+
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (pool.getPendingConnections() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertCounters(pool, 1, 0, 1);
+        assertEquals(0, pool.getReservedConnections());
+        assertEquals(0, pool.getPendingConnections());
+    }
+
+    private TestManagedConnectionFactory.TestConnection allocate() throws Exception {
+        return (TestManagedConnectionFactory.TestConnection) cm.allocateConnection(mcf, null);
+    }
+
+    private static void error(TestManagedConnectionFactory.TestConnection c) {
+        ConnectionEvent event = new ConnectionEvent(c.mc, ConnectionEvent.CONNECTION_ERROR_OCCURRED, new Exception("broken"));
+        event.setConnectionHandle(c);
+        for (ConnectionEventListener listener : c.mc.listeners) {
+            listener.connectionErrorOccurred(event);
+        }
+    }
+
+    private static void assertCounters(GenericConnectionManager.Pool pool, int idle, int active, int total) {
+        assertEquals("idle", idle, pool.getIdleConnections());
+        assertEquals("active", active, pool.getActiveConnections());
+        assertEquals("total", total, pool.getTotalConnections());
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.ops4j.pax.transx.connector.ConnectionPriority;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityLanesTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger active = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentBorrowersDoNotTakeReservedConnections() throws Exception {
+        // 2 of the 4 connections are reserved for HIGH
+        PriorityLanes lanes = new PriorityLanes(new int[] { 2, 0, 0 }, active::get);
+        int borrowers = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Long>> results = new ArrayList<>();
+        for (int i = 0; i < borrowers; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                // admitted borrowers keep their permit, as if they were still waiting in the bag
+                return lanes.admit(ConnectionPriority.NORMAL, 4, TimeUnit.MILLISECONDS.toNanos(200));
+            }));
+        }
+        start.countDown();
+        int admitted = 0;
+        for (Future<Long> result : results) {
+            if (result.get() >= 0) {
+                admitted++;
+            }
+        }
+        assertEquals(2, admitted);
+        assertEquals(2, lanes.getAdmitted());
+        assertTrue(lanes.admit(ConnectionPriority.HIGH, 4, 0L) >= 0);
+    }
+
+    @Test
+    public void testPermitGoesToHighestWaitingLane() throws Exception {
+        PriorityLanes lanes = new PriorityLanes(new int[] { 0, 0, 0 }, active::get);
+        assertTrue(lanes.admit(ConnectionPriority.NORMAL, 1, 0L) >= 0);
+
+        Future<Long> low = executor.submit(() -> lanes.admit(ConnectionPriority.LOW, 1, TimeUnit.SECONDS.toNanos(10)));
+        awaitAdmitting(lanes, 1);
+        Future<Long> normal = executor.submit(() -> lanes.admit(ConnectionPriority.NORMAL, 1, TimeUnit.SECONDS.toNanos(10)));
+        awaitAdmitting(lanes, 2);
+
+        // the permit given back goes to the NORMAL borrower although the LOW one waits for longer
+        lanes.leave(ConnectionPriority.NORMAL);
+        assertTrue(normal.get(5, TimeUnit.SECONDS) >= 0);
+        assertFalse(low.isDone());
+
+        lanes.leave(ConnectionPriority.NORMAL);
+        assertTrue(low.get(5, TimeUnit.SECONDS) >= 0);
+        lanes.leave(ConnectionPriority.LOW);
+        assertEquals(0, lanes.getAdmitted());
+    }
+
+    @Test
+    public void testActiveConnectionsCountAgainstLimit() throws Exception {
+        PriorityLanes lanes = new PriorityLanes(new int[] { 1, 0, 0 }, active::get);
+        active.set(1);
+        assertTrue(lanes.admit(ConnectionPriority.NORMAL, 3, 0L) >= 0);
+        // 1 active connection and 1 admitted borrower: the last connection is reserved for HIGH
+        assertTrue(lanes.admit(ConnectionPriority.NORMAL, 3, TimeUnit.MILLISECONDS.toNanos(100)) < 0);
+        // the admitted borrower got its connection
+        active.incrementAndGet();
+        lanes.leave(ConnectionPriority.NORMAL);
+        assertTrue(lanes.admit(ConnectionPriority.NORMAL, 3, TimeUnit.MILLISECONDS.toNanos(100)) < 0);
+        active.decrementAndGet();
+        lanes.released();
+        assertTrue(lanes.admit(ConnectionPriority.NORMAL, 3, 0L) >= 0);
+    }
+
+    private static void awaitAdmitting(PriorityLanes lanes, int waiting) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (lanes.getWaiting() < waiting && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(waiting, lanes.getWaiting());
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.transx.connector.ConnectionManagerBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReconfigureTest {
+
+    private final TestManagedConnectionFactory mcf = new TestManagedConnectionFactory();
+    private GenericConnectionManager cm;
+
+    @Before
+    public void setUp() throws Exception {
+        cm = (GenericConnectionManager) ConnectionManagerBuilder.builder()
+                .name("reconfigure")
+                .managedConnectionFactory(mcf)
+                .transaction(TransactionSupportLevel.NoTransaction)
+                .minIdle(0)
+                .maxPoolSize(4)
+                .idleTimeout(60_000L)
+                .maxLifetime(0)
+                .houseKeepingPeriod(100L)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cm.close();
+    }
+
+    @Test
+    public void testSetters() {
+        cm.setMinIdle(2);
+        cm.setConnectionTimeout(1_000L);
+        cm.setMaxLifetime(120_000L);
+        cm.setIdleTimeout(30_000L);
+        cm.setAliveBypassWindow(0L);
+        assertEquals(2, cm.getMinIdle());
+        assertEquals(1_000L, cm.getConnectionTimeout());
+        assertEquals(120_000L, cm.getMaxLifetime());
+        assertEquals(30_000L, cm.getIdleTimeout());
+        assertEquals(0L, cm.getAliveBypassWindow());
+
+        assertInvalid(() -> cm.setMinIdle(5));
+        assertInvalid(() -> cm.setMaxPoolSize(0));
+        assertInvalid(() -> cm.setConnectionTimeout(100L));
+        assertInvalid(() -> cm.setIdleTimeout(120_000L));
+        assertInvalid(() -> cm.setMaxLifetime(20_000L));
+        assertInvalid(() -> cm.setAliveBypassWindow(-1L));
+
+        // a lower maxPoolSize lowers minIdle as well
+        cm.setMaxPoolSize(1);
+        assertEquals(1, cm.getMaxPoolSize());
+        assertEquals(1, cm.getMinIdle());
+    }
+
+    @Test
+    public void testReconfigure() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("maxPoolSize", "8");
+        properties.put("minIdle", 6);
+        properties.put("idleTimeout", "20000");
+        properties.put("maxLifetime", "40000");
+        cm.reconfigure(properties);
+        assertEquals(8, cm.getMaxPoolSize());
+        assertEquals(6, cm.getMinIdle());
+        assertEquals(20_000L, cm.getIdleTimeout());
+        assertEquals(40_000L, cm.getMaxLifetime());
+
+        // both timeouts can change together, whatever their order
+        properties.clear();
+        properties.put("idleTimeout", "60000");
+        properties.put("maxLifetime", "120000");
+        cm.reconfigure(properties);
+        assertEquals(60_000L, cm.getIdleTimeout());
+        assertEquals(120_000L, cm.getMaxLifetime());
+    }
+
+    @Test
+    public void testInvalidReconfigureChangesNothing() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("maxPoolSize", "8");
+        properties.put("minIdle", "2");
+        properties.put("connectionTimeout", "1000");
+        properties.put("idleTimeout", "5000");
+        assertInvalid(() -> cm.reconfigure(properties));
+
+        properties.put("idleTimeout", "20000");
+        properties.put("aliveBypassWindow", "soon");
+        assertInvalid(() -> cm.reconfigure(properties));
+
+        assertEquals(4, cm.getMaxPoolSize());
+        assertEquals(0, cm.getMinIdle());
+        assertEquals(60_000L, cm.getIdleTimeout());
+        assertTrue(cm.getConnectionTimeout() != 1_000L);
+    }
+
+    @Test
+    public void testShrink() throws Exception {
+        List<TestManagedConnectionFactory.TestConnection> borrowed = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            borrowed.add((TestManagedConnectionFactory.TestConnection) cm.allocateConnection(mcf, null));
+        }
+        // an idle connection is retired by the housekeeper
+        borrowed.remove(2).close();
+        assertEquals(3, mcf.open.get());
+        cm.setMaxPoolSize(1);
+        await(() -> mcf.open.get() == 2);
+
+        // the surplus borrowed connection is closed when it is returned
+        borrowed.remove(1).close();
+        await(() -> mcf.open.get() == 1);
+        borrowed.remove(0).close();
+        Thread.sleep(300L);
+        assertEquals(1, mcf.open.get());
+        assertEquals(3, mcf.created());
+    }
+
+    private static void assertInvalid(Runnable change) {
+        try {
+            change.run();
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10L);
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
+
+import org.junit.After;
+import org.junit.Test;
+import org.ops4j.pax.transx.connector.ConnectionManagerBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetirementTest {
+
+    private final TestManagedConnectionFactory mcf = new TestManagedConnectionFactory();
+    private GenericConnectionManager cm;
+
+    @After
+    public void tearDown() throws Exception {
+        CountDownLatch gate = mcf.gate;
+        if (gate != null) {
+            gate.countDown();
+        }
+        if (cm != null) {
+            cm.close();
+        }
+    }
+
+    @Test
+    public void testRetireBeforeReplacingByDefault() throws Exception {
+        cm = build(ConnectionManagerBuilder.builder());
+        await(() -> mcf.created() == 2);
+
+        GenericConnectionManager.ManagedConnectionInfo mci = mcf.connections.get(0).info();
+        mci.pool.retire(mci);
+        await(() -> mcf.created() == 3);
+
+        assertTrue(mcf.events.toString(), mcf.events.indexOf("destroy 1") < mcf.events.indexOf("create 3"));
+        assertEquals(2, mcf.maxOpen.get());
+    }
+
+    @Test
+    public void testReplaceBeforeRetiring() throws Exception {
+        cm = build(ConnectionManagerBuilder.builder().maxConcurrentRetirements(1));
+        await(() -> mcf.created() == 2);
+
+        mcf.gate = new CountDownLatch(1);
+        GenericConnectionManager.ManagedConnectionInfo first = mcf.connections.get(0).info();
+        GenericConnectionManager.ManagedConnectionInfo second = mcf.connections.get(1).info();
+        first.pool.retire(first);
+        second.pool.retire(second);
+        // only one replacement at a time, the old connections are kept meanwhile
+        await(() -> first.pool.getRetiringConnections() == 1);
+        assertFalse(mcf.events.toString(), mcf.events.contains("destroy 1"));
+        assertEquals(2, mcf.open.get());
+
+        mcf.gate.countDown();
+        await(() -> mcf.events.contains("destroy 2"));
+
+        assertEquals("[create 1, create 2, create 3, destroy 1, create 4, destroy 2]", mcf.events.toString());
+        // the subpool has held one connection more than maxPoolSize during the replacements
+        assertEquals(3, mcf.maxOpen.get());
+        assertEquals(2, mcf.open.get());
+        assertEquals(0, first.pool.getRetiringConnections());
+    }
+
+    private GenericConnectionManager build(ConnectionManagerBuilder builder) throws Exception {
+        GenericConnectionManager cm = (GenericConnectionManager) builder
+                .name("retirement")
+                .managedConnectionFactory(mcf)
+                .transaction(TransactionSupportLevel.NoTransaction)
+                .minIdle(2)
+                .maxPoolSize(2)
+                .maxLifetime(0)
+                .houseKeepingPeriod(100L)
+                .build();
+        // the subpool is created by the first borrow, and filled by the housekeeper afterwards
+        ((TestManagedConnectionFactory.TestConnection) cm.allocateConnection(mcf, null)).close();
+        return cm;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10L);
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+public class SharedExecutorsTest {
+
+    @Test
+    public void testBlockingHousekeepingTaskDoesNotStallOthers() throws Exception {
+        SharedExecutors shared = SharedExecutors.acquire();
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch ran = new CountDownLatch(1);
+            // e.g. a pool saving its profile to a slow disk
+            shared.scheduler.execute(() -> {
+                try {
+                    release.await(10L, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            shared.scheduler.schedule(ran::countDown, 10L, TimeUnit.MILLISECONDS);
+            assertTrue(ran.await(5L, TimeUnit.SECONDS));
+            release.countDown();
+        } finally {
+            SharedExecutors.release();
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.security.PasswordCredential;
+import javax.security.auth.Subject;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SubjectCRIKeyCacheTest {
+
+    private final SubjectCRIKeyCache<String> cache = new SubjectCRIKeyCache<>();
+    private final ConnectionRequestInfo cri = new ConnectionRequestInfo() {
+    };
+
+    @Test
+    public void testMutableSubjectIsNotCached() {
+        Subject subject = subject("alice");
+        cache.put(subject, cri, "alice");
+        assertNull(cache.get(subject, cri));
+
+        // the same instance now carries other credentials
+        subject.getPrivateCredentials().clear();
+        subject.getPrivateCredentials().add(new PasswordCredential("bob", "secret".toCharArray()));
+        assertNull(cache.get(subject, cri));
+    }
+
+    @Test
+    public void testReadOnlySubjectIsCached() {
+        Subject subject = subject("alice");
+        subject.setReadOnly();
+        cache.put(subject, cri, "alice");
+        assertSame("alice", cache.get(subject, cri));
+        // only the same instance is recognized
+        Subject other = subject("alice");
+        other.setReadOnly();
+        assertNull(cache.get(other, cri));
+        assertNull(cache.get(subject, null));
+    }
+
+    @Test
+    public void testNullSubjectIsCached() {
+        cache.put(null, cri, "anonymous");
+        assertSame("anonymous", cache.get(null, cri));
+        cache.clear();
+        assertNull(cache.get(null, cri));
+    }
+
+    private static Subject subject(String user) {
+        Subject subject = new Subject();
+        subject.getPrivateCredentials().add(new PasswordCredential(user, "secret".toCharArray()));
+        return subject;
+    }
+
+}
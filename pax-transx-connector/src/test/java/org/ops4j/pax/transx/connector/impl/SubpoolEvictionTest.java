@@ -0,0 +1,205 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
+
+import org.junit.After;
+import org.junit.Test;
+import org.ops4j.pax.transx.connector.ConnectionManagerBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SubpoolEvictionTest {
+
+    private final TestManagedConnectionFactory mcf = new TestManagedConnectionFactory();
+    private final ConnectionRequestInfo cri1 = new ConnectionRequestInfo() {
+    };
+    private final ConnectionRequestInfo cri2 = new ConnectionRequestInfo() {
+    };
+    private GenericConnectionManager cm;
+
+    @After
+    public void tearDown() throws Exception {
+        cm.close();
+    }
+
+    @Test
+    public void testIdleSubpoolIsEvicted() throws Exception {
+        cm = build("subpool-eviction", 200L, 50L);
+        TestManagedConnectionFactory.TestConnection c1 = allocate(cri1);
+        TestManagedConnectionFactory.TestConnection c2 = allocate(cri2);
+        GenericConnectionManager.Pool pool = c1.mc.info().pool;
+        assertEquals(2, cm.getSubpoolCount());
+        await(() -> subpoolMBeans("subpool-eviction") == 2);
+
+        // a subpool with a connection in use is kept
+        c2.close();
+        await(() -> cm.getSubpoolCount() == 1);
+        assertSame(pool, c1.mc.info().pool);
+        assertFalse(pool.isEvicted());
+
+        c1.close();
+        await(() -> cm.getSubpoolCount() == 0);
+        assertTrue(pool.isEvicted());
+        await(() -> mcf.open.get() == 0);
+        await(() -> subpoolMBeans("subpool-eviction") == 0);
+
+        // a later borrow creates a new subpool
+        TestManagedConnectionFactory.TestConnection c3 = allocate(cri1);
+        assertNotSame(pool, c3.mc.info().pool);
+        assertEquals(1, cm.getSubpoolCount());
+        c3.close();
+    }
+
+    @Test
+    public void testPinnedSubpoolIsNotEvicted() throws Exception {
+        // the housekeeper does not run during the test, evictions are triggered by hand
+        cm = build("subpool-pinned", 1L, 60000L);
+        TestManagedConnectionFactory.TestConnection c1 = allocate(cri1);
+        GenericConnectionManager.Pool pool = c1.mc.info().pool;
+        c1.close();
+        Thread.sleep(10L);
+
+        assertTrue(pool.pin());
+        assertFalse(pool.evict());
+        pool.unpin();
+
+        assertTrue(pool.evict());
+        assertFalse(pool.pin());
+        assertEquals(0, cm.getSubpoolCount());
+
+        // the cached subpool is not used any more
+        TestManagedConnectionFactory.TestConnection c2 = allocate(cri1);
+        assertNotSame(pool, c2.mc.info().pool);
+        c2.close();
+    }
+
+    @Test
+    public void testBorrowRacingEviction() throws Exception {
+        cm = build("subpool-race", 1L, 60000L);
+        Set<GenericConnectionManager.Pool> pools = ConcurrentHashMap.newKeySet();
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> borrowers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                ConnectionRequestInfo cri = i % 2 == 0 ? cri1 : cri2;
+                borrowers.add(executor.submit(() -> {
+                    int borrowed = 0;
+                    while (!done.get()) {
+                        TestManagedConnectionFactory.TestConnection c = allocate(cri);
+                        GenericConnectionManager.Pool pool = c.mc.info().pool;
+                        pools.add(pool);
+                        // a subpool lending a connection cannot be evicted under the borrower
+                        assertFalse(pool.evict());
+                        c.close();
+                        borrowed++;
+                    }
+                    return borrowed;
+                }));
+            }
+            long deadline = System.currentTimeMillis() + 500L;
+            int evicted = 0;
+            while (System.currentTimeMillis() < deadline) {
+                for (GenericConnectionManager.Pool pool : pools) {
+                    if (pool.evict()) {
+                        evicted++;
+                    }
+                }
+            }
+            done.set(true);
+            for (Future<Integer> borrower : borrowers) {
+                assertTrue(borrower.get(5L, TimeUnit.SECONDS) > 0);
+            }
+            assertTrue(evicted > 0);
+        } finally {
+            done.set(true);
+            executor.shutdownNow();
+        }
+
+        // the connections of the evicted subpools have all been closed
+        int remaining = 0;
+        for (GenericConnectionManager.Pool pool : pools) {
+            if (!pool.isEvicted()) {
+                remaining += pool.getTotalConnections();
+            }
+        }
+        int expected = remaining;
+        await(() -> mcf.open.get() == expected);
+    }
+
+    private GenericConnectionManager build(String name, long subpoolIdleTimeout, long houseKeepingPeriod) throws Exception {
+        return (GenericConnectionManager) ConnectionManagerBuilder.builder()
+                .name(name)
+                .managedConnectionFactory(mcf)
+                .transaction(TransactionSupportLevel.NoTransaction)
+                .minIdle(0)
+                .maxPoolSize(4)
+                .connectionTimeout(5000L)
+                .subpoolIdleTimeout(subpoolIdleTimeout)
+                .houseKeepingPeriod(houseKeepingPeriod)
+                .build();
+    }
+
+    private TestManagedConnectionFactory.TestConnection allocate(ConnectionRequestInfo cri) throws Exception {
+        return (TestManagedConnectionFactory.TestConnection) cm.allocateConnection(mcf, cri);
+    }
+
+    private static int subpoolMBeans(String name) {
+        ObjectName query;
+        try {
+            query = new ObjectName("org.ops4j.pax.transx:type=Pool,*");
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException(e);
+        }
+        int count = 0;
+        for (ObjectName mbean : ManagementFactory.getPlatformMBeanServer().queryNames(query, null)) {
+            // the pool name is prefixed with a sequence number
+            if (mbean.getKeyProperty("name").endsWith("-" + name) && mbean.getKeyProperty("subpool") != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+}
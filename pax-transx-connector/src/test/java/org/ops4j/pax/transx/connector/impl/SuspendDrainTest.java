@@ -0,0 +1,135 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.resource.ResourceException;
+import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
+
+import org.junit.After;
+import org.junit.Test;
+import org.ops4j.pax.transx.connector.ConnectionManagerBuilder;
+import org.ops4j.pax.transx.connector.ConnectionPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SuspendDrainTest {
+
+    private final TestManagedConnectionFactory mcf = new TestManagedConnectionFactory();
+    private GenericConnectionManager cm;
+
+    @After
+    public void tearDown() throws Exception {
+        cm.close();
+    }
+
+    @Test
+    public void testDrainAndResume() throws Exception {
+        cm = build(ConnectionPool.SuspendPolicy.WAIT);
+        TestManagedConnectionFactory.TestConnection c1 = allocate();
+        TestManagedConnectionFactory.TestConnection c2 = allocate();
+        GenericConnectionManager.Pool pool = c1.mc.info().pool;
+
+        assertFalse(cm.drain(50L, TimeUnit.MILLISECONDS));
+        assertTrue(cm.isSuspended());
+
+        // an evicted connection is closed as soon as it is returned
+        c1.close();
+        awaitDestroyed(c1);
+        assertEquals(0, pool.getIdleConnections());
+
+        // the evicted connection still in use does not hold back the refill
+        cm.resume();
+        awaitIdle(pool, 2);
+
+        c2.close();
+        awaitDestroyed(c2);
+        assertEquals(2, pool.getIdleConnections());
+        assertEquals(2, pool.getTotalConnections());
+    }
+
+    @Test
+    public void testBorrowerWaitsUntilResumed() throws Exception {
+        cm = build(ConnectionPool.SuspendPolicy.WAIT);
+        cm.suspend();
+        CompletableFuture<TestManagedConnectionFactory.TestConnection> borrower = CompletableFuture.supplyAsync(() -> {
+            try {
+                return allocate();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(200L);
+        assertFalse(borrower.isDone());
+        // nothing is created while suspended
+        assertEquals(0, mcf.created());
+
+        cm.resume();
+        borrower.get(5L, TimeUnit.SECONDS).close();
+    }
+
+    @Test
+    public void testFailPolicy() throws Exception {
+        cm = build(ConnectionPool.SuspendPolicy.FAIL);
+        cm.suspend();
+        long start = System.currentTimeMillis();
+        try {
+            allocate();
+            fail("A suspended pool should not lend connections");
+        } catch (ResourceException e) {
+            assertTrue(System.currentTimeMillis() - start < 500L);
+        }
+        cm.resume();
+        allocate().close();
+    }
+
+    private GenericConnectionManager build(ConnectionPool.SuspendPolicy policy) throws Exception {
+        return (GenericConnectionManager) ConnectionManagerBuilder.builder()
+                .name("suspend")
+                .managedConnectionFactory(mcf)
+                .transaction(TransactionSupportLevel.NoTransaction)
+                .minIdle(2)
+                .maxPoolSize(2)
+                .connectionTimeout(5000L)
+                .suspendPolicy(policy)
+                .build();
+    }
+
+    private TestManagedConnectionFactory.TestConnection allocate() throws Exception {
+        return (TestManagedConnectionFactory.TestConnection) cm.allocateConnection(mcf, null);
+    }
+
+    private void awaitDestroyed(TestManagedConnectionFactory.TestConnection c) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!mcf.events.contains("destroy " + c.mc.id) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertTrue(mcf.events.contains("destroy " + c.mc.id));
+    }
+
+    private static void awaitIdle(GenericConnectionManager.Pool pool, int idle) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (pool.getIdleConnections() < idle && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(idle, pool.getIdleConnections());
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.resource.ResourceException;
+import javax.resource.NotSupportedException;
+import javax.resource.spi.ConnectionEvent;
+import javax.resource.spi.ConnectionEventListener;
+import javax.resource.spi.ConnectionManager;
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.LocalTransaction;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+import javax.resource.spi.ManagedConnectionMetaData;
+import javax.resource.spi.ValidatingManagedConnectionFactory;
+import javax.security.auth.Subject;
+import javax.transaction.xa.XAResource;
+
+/**
+ * In-memory managed connection factory recording the creation and destruction of its connections.
+ */
+class TestManagedConnectionFactory implements ManagedConnectionFactory, ValidatingManagedConnectionFactory {
+
+    private final AtomicInteger counter = new AtomicInteger();
+    final List<String> events = new CopyOnWriteArrayList<>();
+    final List<TestManagedConnection> connections = new CopyOnWriteArrayList<>();
+    final AtomicInteger open = new AtomicInteger();
+    final AtomicInteger maxOpen = new AtomicInteger();
+    final AtomicInteger validations = new AtomicInteger();
+    // when set, creations wait for it
+    volatile CountDownLatch gate;
+    // when set, creations fail with it
+    volatile ResourceException failure;
+
+    @Override
+    public Object createConnectionFactory(ConnectionManager cm) throws ResourceException {
+        throw new NotSupportedException();
+    }
+
+    @Override
+    public Object createConnectionFactory() throws ResourceException {
+        throw new NotSupportedException();
+    }
+
+    @Override
+    public ManagedConnection createManagedConnection(Subject subject, ConnectionRequestInfo cri) throws ResourceException {
+        CountDownLatch gate = this.gate;
+        if (gate != null) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ResourceException(e);
+            }
+        }
+        ResourceException failure = this.failure;
+        if (failure != null) {
+            throw failure;
+        }
+        TestManagedConnection mc = new TestManagedConnection(counter.incrementAndGet());
+        connections.add(mc);
+        events.add("create " + mc.id);
+        maxOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+        return mc;
+    }
+
+    @Override
+    public ManagedConnection matchManagedConnections(Set set, Subject subject, ConnectionRequestInfo cri) {
+        return null;
+    }
+
+    @Override
+    public Set getInvalidConnections(Set connections) {
+        validations.addAndGet(connections.size());
+        return Collections.emptySet();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    int created() {
+        return counter.get();
+    }
+
+    class TestManagedConnection implements ManagedConnection {
+
+        final int id;
+        final List<ConnectionEventListener> listeners = new ArrayList<>();
+
+        TestManagedConnection(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public Object getConnection(Subject subject, ConnectionRequestInfo cri) {
+            return new TestConnection(this);
+        }
+
+        @Override
+        public void destroy() {
+            events.add("destroy " + id);
+            open.decrementAndGet();
+        }
+
+        @Override
+        public void cleanup() {
+        }
+
+        @Override
+        public void associateConnection(Object connection) {
+            ((TestConnection) connection).mc = this;
+        }
+
+        @Override
+        public void addConnectionEventListener(ConnectionEventListener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removeConnectionEventListener(ConnectionEventListener listener) {
+            listeners.remove(listener);
+        }
+
+        @Override
+        public XAResource getXAResource() throws ResourceException {
+            throw new NotSupportedException();
+        }
+
+        @Override
+        public LocalTransaction getLocalTransaction() throws ResourceException {
+            throw new NotSupportedException();
+        }
+
+        @Override
+        public ManagedConnectionMetaData getMetaData() throws ResourceException {
+            throw new NotSupportedException();
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) {
+        }
+
+        @Override
+        public PrintWriter getLogWriter() {
+            return null;
+        }
+
+        GenericConnectionManager.ManagedConnectionInfo info() {
+            return (GenericConnectionManager.ManagedConnectionInfo) listeners.get(0);
+        }
+    }
+
+    static class TestConnection {
+
+        TestManagedConnection mc;
+
+        TestConnection(TestManagedConnection mc) {
+            this.mc = mc;
+        }
+
+        void close() {
+            ConnectionEvent event = new ConnectionEvent(mc, ConnectionEvent.CONNECTION_CLOSED);
+            event.setConnectionHandle(this);
+            for (ConnectionEventListener listener : new ArrayList<>(mc.listeners)) {
+                listener.connectionClosed(event);
+            }
+        }
+    }
+
+}
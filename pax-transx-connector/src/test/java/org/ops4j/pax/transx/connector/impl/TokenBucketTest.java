@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+
+    @Test
+    public void testBurstUpToOneSecondOfTokens() {
+        TokenBucket bucket = new TokenBucket(10d);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0L, bucket.reserve());
+        }
+        long wait = bucket.reserve();
+        assertTrue("wait was " + wait, wait > 0L && wait <= TimeUnit.MILLISECONDS.toNanos(100L));
+    }
+
+    @Test
+    public void testConcurrentCallersAreSpacedOut() {
+        TokenBucket bucket = new TokenBucket(1d);
+        assertEquals(0L, bucket.reserve());
+        long first = bucket.reserve();
+        long second = bucket.reserve();
+        // each caller reserves the token after the previous one
+        assertTrue("waits were " + first + " and " + second,
+                second - first > TimeUnit.MILLISECONDS.toNanos(900L));
+    }
+
+    @Test
+    public void testRefill() throws Exception {
+        TokenBucket bucket = new TokenBucket(100d);
+        for (int i = 0; i < 100; i++) {
+            bucket.reserve();
+        }
+        Thread.sleep(50L);
+        // about 5 tokens are back
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0L, bucket.reserve());
+        }
+    }
+
+}
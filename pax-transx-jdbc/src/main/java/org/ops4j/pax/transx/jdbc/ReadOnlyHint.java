@@ -0,0 +1,77 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jdbc;
+
+/**
+ * Thread scoped hint that the connections obtained from a read/write routing data source
+ * are only used to read, so that they can be served by a replica.
+ * <pre>
+ * try (ReadOnlyHint.Scope scope = ReadOnlyHint.enter()) {
+ *     connection = dataSource.getConnection();
+ * }
+ * </pre>
+ * <p>The hint is ignored within a JTA transaction, whose connections are always obtained from the primary.
+ *
+ * @see ReadWriteDataSourceBuilder
+ */
+public final class ReadOnlyHint {
+
+    private static final ThreadLocal<Boolean> CURRENT = new ThreadLocal<>();
+
+    private ReadOnlyHint() {
+    }
+
+    /**
+     * Mark the connection requests of the current thread as read-only until the returned scope is closed.
+     */
+    public static Scope enter() {
+        return enter(true);
+    }
+
+    /**
+     * Mark the connection requests of the current thread as read-only or not until the returned scope is closed,
+     * e.g. to force a write within a read-only scope.
+     */
+    public static Scope enter(boolean readOnly) {
+        final Boolean previous = CURRENT.get();
+        CURRENT.set(readOnly);
+        return () -> {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        };
+    }
+
+    /**
+     * @return <code>true</code> if the connection requests of the current thread are read-only
+     */
+    public static boolean isReadOnly() {
+        return Boolean.TRUE.equals(CURRENT.get());
+    }
+
+    /**
+     * The extent of a read-only hint, restoring the previous one when closed.
+     */
+    public interface Scope extends AutoCloseable {
+
+        @Override
+        void close();
+
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jdbc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import javax.sql.DataSource;
+
+import org.ops4j.pax.transx.jdbc.impl.ReadWriteRoutingDataSource;
+import org.ops4j.pax.transx.tm.TransactionManager;
+
+/**
+ * Build a data source splitting the reads and the writes between a primary pool and replica pools,
+ * usually all built with {@link ManagedDataSourceBuilder}.
+ * <p>A connection goes to a replica when the work is read-only, that is when:
+ * <ul>
+ *     <li>{@link java.sql.Connection#setReadOnly(boolean)} is called before the connection is first used,
+ *     the physical connection being obtained on the first other call</li>
+ *     <li>or it is requested within a {@link ReadOnlyHint} scope</li>
+ * </ul>
+ * The replica with the least connections currently borrowed through this data source is chosen,
+ * and the primary is used if it cannot provide a connection.
+ * <p>Within a JTA transaction, connections are always obtained from the primary, so that the work of the
+ * transaction sees its own writes and is not enlisted with a replica.
+ * Closing the data source closes the primary and replica pools.
+ */
+public class ReadWriteDataSourceBuilder {
+
+    private DataSource primary;
+    private final List<DataSource> replicas = new ArrayList<>();
+    private TransactionManager transactionManager;
+
+    private ReadWriteDataSourceBuilder() {
+    }
+
+    public static ReadWriteDataSourceBuilder builder() {
+        return new ReadWriteDataSourceBuilder();
+    }
+
+    /**
+     * The data source of the primary server, receiving the writes and the transactions.
+     */
+    public ReadWriteDataSourceBuilder primary(DataSource primary) {
+        this.primary = primary;
+        return this;
+    }
+
+    public ReadWriteDataSourceBuilder replica(DataSource replica) {
+        this.replicas.add(replica);
+        return this;
+    }
+
+    public ReadWriteDataSourceBuilder replicas(Collection<? extends DataSource> replicas) {
+        this.replicas.addAll(replicas);
+        return this;
+    }
+
+    /**
+     * The transaction manager used by the pools, to keep the connections of transactions on the primary.
+     */
+    public ReadWriteDataSourceBuilder transactionManager(TransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+        return this;
+    }
+
+    public DataSource build() {
+        if (primary == null) {
+            throw new NullPointerException("primary must be set");
+        }
+        if (replicas.contains(null)) {
+            throw new NullPointerException("replicas must not be null");
+        }
+        return new ReadWriteRoutingDataSource(primary, replicas, transactionManager);
+    }
+
+}
@@ -28,6 +28,7 @@ import javax.sql.CommonDataSource;
 import org.ops4j.pax.transx.connection.ExceptionSorter;
 import org.ops4j.pax.transx.connection.utils.AbstractManagedConnection;
 import org.ops4j.pax.transx.connection.utils.AbstractManagedConnectionFactory;
+import org.ops4j.pax.transx.connector.ShardedConnectionRequestInfo;
 
 public abstract class AbstractJdbcManagedConnectionFactory<
         MCF extends AbstractManagedConnectionFactory<MCF, MC, Connection, ConnectionHandle<MCF, MC>>,
@@ -36,6 +37,9 @@ public abstract class AbstractJdbcManagedConnectionFactory<
             extends AbstractManagedConnectionFactory<MCF, MC, Connection, ConnectionHandle<MCF, MC>>
             implements AutocommitSpecCompliant {
 
+    // the JDBC 4.3 connection builders are only available on Java 9 and later
+    private static final boolean JDBC_43 = isJdbc43();
+
     protected final T dataSource;
     protected boolean commitBeforeAutocommit = false;
     protected int preparedStatementCacheSize = 0;
@@ -52,7 +56,10 @@ public abstract class AbstractJdbcManagedConnectionFactory<
     }
 
     public Object createConnectionFactory(ConnectionManager connectionManager) throws ResourceException {
-        return new TransxDataSource(this, connectionManager);
+        setConnectionManager(connectionManager);
+        return JDBC_43
+                ? new ShardingTransxDataSource(this, connectionManager)
+                : new TransxDataSource(this, connectionManager);
     }
 
     /**
@@ -85,6 +92,23 @@ public abstract class AbstractJdbcManagedConnectionFactory<
         this.preparedStatementCacheSize = preparedStatementCacheSize;
     }
 
+    private static boolean isJdbc43() {
+        try {
+            Class.forName("java.sql.ConnectionBuilder");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Check whether the physical connection has to be obtained for a given shard.
+     */
+    protected static boolean isSharded(ConnectionRequestInfo cri) {
+        return cri instanceof ShardedConnectionRequestInfo
+                && ((ShardedConnectionRequestInfo) cri).getShardingKey() != null;
+    }
+
     protected Connection wrap(Connection connection) {
         if (preparedStatementCacheSize > 0) {
             return new ConnectionWrapper(connection, preparedStatementCacheSize);
@@ -33,6 +33,7 @@ import java.sql.Struct;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import javax.resource.ResourceException;
 import javax.resource.spi.ConnectionRequestInfo;
 import javax.resource.spi.LocalTransaction;
@@ -46,10 +47,59 @@ public class ConnectionHandle<
             MC extends AbstractManagedConnection<MCF, MC, Connection, ConnectionHandle<MCF, MC>>>
         extends AbstractConnectionHandle<MCF, MC, Connection, ConnectionHandle<MCF, MC>> implements Connection {
 
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<ConnectionHandle> OPEN_STATEMENTS =
+            AtomicIntegerFieldUpdater.newUpdater(ConnectionHandle.class, "openStatements");
+
+    private volatile int openStatements;
+    private volatile boolean pinned;
+    // auto-commit as set through this handle: pooled connections are handed out with auto-commit on
+    private volatile boolean autoCommit = true;
+    private volatile boolean readOnly;
+
     public ConnectionHandle(MCF mcf, ConnectionRequestInfo cri, MC mc) {
         super(mcf, cri, mc);
     }
 
+    /**
+     * The physical connection can be released when no statement is open, no local
+     * transaction is active and no object bound to the physical connection has escaped.
+     * A connection enlisted by the container stays with the transaction, so the handle
+     * gets it back when it is re-associated.
+     */
+    @Override
+    protected boolean canDissociate() {
+        if (pinned || !autoCommit || openStatements > 0) {
+            return false;
+        }
+        MC mc = this.mc;
+        return mc != null && !mc.isInXaTransaction();
+    }
+
+    /**
+     * Keep the physical connection associated until this handle is closed,
+     * because its state has been changed or an object bound to it has been returned.
+     */
+    private void pin() {
+        pinned = true;
+    }
+
+    private <S> S openStatement(Callable<Connection, S> cb) throws SQLException {
+        OPEN_STATEMENTS.incrementAndGet(this);
+        try {
+            return this.<SQLException, S>call(cb);
+        } catch (SQLException | RuntimeException e) {
+            statementClosed();
+            throw e;
+        }
+    }
+
+    void statementClosed() {
+        if (OPEN_STATEMENTS.decrementAndGet(this) == 0) {
+            releaseIfIdle();
+        }
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     protected <E extends Exception> E wrapException(String msg, Exception e) {
@@ -116,6 +166,7 @@ public class ConnectionHandle<
         Connection c = mc.getPhysicalConnection();
         if (autoCommit == c.getAutoCommit()) {
             // nothing to do
+            this.autoCommit = autoCommit;
             return;
         }
 
@@ -124,9 +175,12 @@ public class ConnectionHandle<
             if (autoCommit) {
                 // reenabling autoCommit - JDBC spec says current transaction is committed
                 tx.commit();
+                this.autoCommit = true;
+                releaseIfIdle();
             } else {
                 // disabling autoCommit
                 tx.begin();
+                this.autoCommit = false;
             }
         } catch (ResourceException e) {
             if (e.getCause() instanceof SQLException) {
@@ -142,50 +196,54 @@ public class ConnectionHandle<
     }
 
     public Statement createStatement() throws SQLException {
-        return wrapStatement(call(Connection::createStatement));
+        return wrapStatement(openStatement(Connection::createStatement));
     }
 
     public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
-        return wrapStatement(call(c -> c.createStatement(resultSetType, resultSetConcurrency)));
+        return wrapStatement(openStatement(c -> c.createStatement(resultSetType, resultSetConcurrency)));
     }
 
     public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-        return wrapStatement(call(c -> c.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability)));
+        return wrapStatement(openStatement(c -> c.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability)));
     }
 
     public PreparedStatement prepareStatement(String sql) throws SQLException {
-        return wrapPreparedStatement(call(c -> c.prepareStatement(sql)));
+        return wrapPreparedStatement(openStatement(c -> c.prepareStatement(sql)));
     }
 
     public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
-        return wrapPreparedStatement(call(c -> c.prepareStatement(sql, autoGeneratedKeys)));
+        return wrapPreparedStatement(openStatement(c -> c.prepareStatement(sql, autoGeneratedKeys)));
     }
 
     public PreparedStatement prepareStatement(String sql, int columnIndexes[]) throws SQLException {
-        return wrapPreparedStatement(call(c -> c.prepareStatement(sql, columnIndexes)));
+        return wrapPreparedStatement(openStatement(c -> c.prepareStatement(sql, columnIndexes)));
     }
 
     public PreparedStatement prepareStatement(String sql, String columnNames[]) throws SQLException {
-        return wrapPreparedStatement(call(c -> c.prepareStatement(sql, columnNames)));
+        return wrapPreparedStatement(openStatement(c -> c.prepareStatement(sql, columnNames)));
     }
 
     @Override
     public Clob createClob() throws SQLException {
+        pin();
         return call(Connection::createClob);
     }
 
     @Override
     public Blob createBlob() throws SQLException {
+        pin();
         return call(Connection::createBlob);
     }
 
     @Override
     public NClob createNClob() throws SQLException {
+        pin();
         return call(Connection::createNClob);
     }
 
     @Override
     public SQLXML createSQLXML() throws SQLException {
+        pin();
         return call(Connection::createSQLXML);
     }
 
@@ -196,11 +254,13 @@ public class ConnectionHandle<
 
     @Override
     public void setClientInfo(String s, String s1) throws SQLClientInfoException {
+        pin();
         execute(c -> c.setClientInfo(s, s1));
     }
 
     @Override
     public void setClientInfo(Properties properties) throws SQLClientInfoException {
+        pin();
         execute(c -> c.setClientInfo(properties));
     }
 
@@ -216,35 +276,38 @@ public class ConnectionHandle<
 
     @Override
     public Array createArrayOf(String s, Object[] objects) throws SQLException {
+        pin();
         return call(c -> c.createArrayOf(s, objects));
     }
 
     @Override
     public Struct createStruct(String s, Object[] objects) throws SQLException {
+        pin();
         return call(c -> c.createStruct(s, objects));
     }
 
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-        return wrapPreparedStatement(call(c -> c.prepareStatement(sql, resultSetType, resultSetConcurrency)));
+        return wrapPreparedStatement(openStatement(c -> c.prepareStatement(sql, resultSetType, resultSetConcurrency)));
     }
 
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-        return wrapPreparedStatement(call(c -> c.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability)));
+        return wrapPreparedStatement(openStatement(c -> c.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability)));
     }
 
     public CallableStatement prepareCall(String sql) throws SQLException {
-        return wrapCallableStatement(call(c -> c.prepareCall(sql)));
+        return wrapCallableStatement(openStatement(c -> c.prepareCall(sql)));
     }
 
     public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-        return wrapCallableStatement(call(c -> c.prepareCall(sql, resultSetType, resultSetConcurrency)));
+        return wrapCallableStatement(openStatement(c -> c.prepareCall(sql, resultSetType, resultSetConcurrency)));
     }
 
     public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-        return wrapCallableStatement(call(c -> c.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability)));
+        return wrapCallableStatement(openStatement(c -> c.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability)));
     }
 
     public DatabaseMetaData getMetaData() throws SQLException {
+        pin();
         return wrapMetaData(call(Connection::getMetaData));
     }
 
@@ -253,6 +316,7 @@ public class ConnectionHandle<
     }
 
     public void setCatalog(String catalog) throws SQLException {
+        pin();
         execute(c -> c.setCatalog(catalog));
     }
 
@@ -261,6 +325,7 @@ public class ConnectionHandle<
     }
 
     public void setHoldability(int holdability) throws SQLException {
+        pin();
         execute(c -> c.setHoldability(holdability));
     }
 
@@ -270,6 +335,7 @@ public class ConnectionHandle<
     }
 
     public void setTransactionIsolation(int level) throws SQLException {
+        pin();
         execute(c -> c.setTransactionIsolation(level));
     }
 
@@ -278,6 +344,7 @@ public class ConnectionHandle<
     }
 
     public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+        pin();
         execute(c -> c.setTypeMap(map));
     }
 
@@ -294,14 +361,18 @@ public class ConnectionHandle<
     }
 
     public void setReadOnly(boolean readOnly) throws SQLException {
+        pin();
         execute(c -> c.setReadOnly(readOnly));
+        this.readOnly = readOnly;
     }
 
     public Savepoint setSavepoint() throws SQLException {
+        pin();
         return call(Connection::setSavepoint);
     }
 
     public Savepoint setSavepoint(String name) throws SQLException {
+        pin();
         return call(c -> c.setSavepoint(name));
     }
 
@@ -320,6 +391,7 @@ public class ConnectionHandle<
 
     @Override
     public void setSchema(String schema) throws SQLException {
+        pin();
         execute(c -> c.setSchema(schema));
     }
 
@@ -335,6 +407,7 @@ public class ConnectionHandle<
 
     @Override
     public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+        pin();
         execute(c -> c.setNetworkTimeout(executor, milliseconds));
     }
 
@@ -348,6 +421,9 @@ public class ConnectionHandle<
         if (tClass.isInstance(this)) {
             return tClass.cast(this);
         }
+        // the unwrapped connection escapes our tracking, assume it will be used for updates
+        markUpdated();
+        pin();
         return call(c -> c.unwrap(tClass));
     }
 
@@ -359,6 +435,20 @@ public class ConnectionHandle<
         return call(c -> c.isWrapperFor(aClass));
     }
 
+    void markUpdated() {
+        MC mc = this.mc;
+        if (mc != null) {
+            mc.markUpdated();
+        }
+    }
+
+    /**
+     * Whether the connection was set to read-only through this handle, known without asking the driver.
+     */
+    boolean isTrackedReadOnly() {
+        return readOnly;
+    }
+
     private Statement wrapStatement(Statement s) {
         return Wrappers.wrap(Statement.class, this, s);
     }
@@ -28,6 +28,7 @@ import javax.sql.PooledConnection;
 import org.ops4j.pax.transx.connection.ExceptionSorter;
 import org.ops4j.pax.transx.connection.NoExceptionsAreFatalSorter;
 import org.ops4j.pax.transx.connection.utils.CredentialExtractor;
+import org.ops4j.pax.transx.connector.ShardedConnectionRequestInfo;
 
 public class ConnectionPoolDataSourceMCF extends AbstractJdbcManagedConnectionFactory<ConnectionPoolDataSourceMCF, ManagedPooledConnection, ConnectionPoolDataSource> {
 
@@ -46,7 +47,9 @@ public class ConnectionPoolDataSourceMCF extends AbstractJdbcManagedConnectionFa
 
     public ManagedConnection createManagedConnection(Subject subject, ConnectionRequestInfo connectionRequestInfo) throws ResourceException {
         CredentialExtractor credentialExtractor = new CredentialExtractor(subject, connectionRequestInfo, this);
-        PooledConnection sqlConnection = getPhysicalConnection(credentialExtractor);
+        PooledConnection sqlConnection = isSharded(connectionRequestInfo)
+                ? getPhysicalConnection(credentialExtractor, (ShardedConnectionRequestInfo) connectionRequestInfo)
+                : getPhysicalConnection(credentialExtractor);
         try {
             Connection pc = wrap(sqlConnection.getConnection());
             return new ManagedPooledConnection(this, sqlConnection, pc, credentialExtractor, exceptionSorter);
@@ -69,4 +72,12 @@ public class ConnectionPoolDataSourceMCF extends AbstractJdbcManagedConnectionFa
         }
     }
 
+    protected PooledConnection getPhysicalConnection(CredentialExtractor credentialExtractor, ShardedConnectionRequestInfo cri) throws ResourceException {
+        try {
+            return ShardingSupport.getPooledConnection(dataSource, credentialExtractor, cri);
+        } catch (SQLException e) {
+            throw new ResourceAdapterInternalException("Unable to obtain physical connection to shard " + cri.getShardingKey() + " of " + dataSource, e);
+        }
+    }
+
 }
\ No newline at end of file
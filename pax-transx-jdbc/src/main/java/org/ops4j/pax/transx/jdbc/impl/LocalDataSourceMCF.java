@@ -26,6 +26,7 @@ import javax.sql.DataSource;
 
 import org.ops4j.pax.transx.connection.ExceptionSorter;
 import org.ops4j.pax.transx.connection.utils.CredentialExtractor;
+import org.ops4j.pax.transx.connector.ShardedConnectionRequestInfo;
 import org.ops4j.pax.transx.jdbc.KnownSQLStateExceptionSorter;
 
 public class LocalDataSourceMCF extends AbstractJdbcManagedConnectionFactory<LocalDataSourceMCF, ManagedJDBCConnection, DataSource> {
@@ -46,7 +47,9 @@ public class LocalDataSourceMCF extends AbstractJdbcManagedConnectionFactory<Loc
 
     public ManagedConnection createManagedConnection(Subject subject, ConnectionRequestInfo connectionRequestInfo) throws ResourceException {
         CredentialExtractor credentialExtractor = new CredentialExtractor(subject, connectionRequestInfo, this);
-        Connection jdbcConnection = getPhysicalConnection(credentialExtractor);
+        Connection jdbcConnection = isSharded(connectionRequestInfo)
+                ? getPhysicalConnection(credentialExtractor, (ShardedConnectionRequestInfo) connectionRequestInfo)
+                : getPhysicalConnection(credentialExtractor);
         return new ManagedJDBCConnection(this, wrap(jdbcConnection), credentialExtractor, exceptionSorter);
     }
 
@@ -64,4 +67,12 @@ public class LocalDataSourceMCF extends AbstractJdbcManagedConnectionFactory<Loc
         }
     }
 
+    protected Connection getPhysicalConnection(CredentialExtractor credentialExtractor, ShardedConnectionRequestInfo cri) throws ResourceException {
+        try {
+            return ShardingSupport.getConnection(dataSource, credentialExtractor, cri);
+        } catch (SQLException e) {
+            throw new ResourceAdapterInternalException("Unable to obtain physical connection to shard " + cri.getShardingKey() + " of " + dataSource, e);
+        }
+    }
+
 }
@@ -25,11 +25,13 @@ import javax.resource.spi.ResourceAdapterInternalException;
 import org.ops4j.pax.transx.connection.ExceptionSorter;
 import org.ops4j.pax.transx.connection.utils.AbstractManagedConnection;
 import org.ops4j.pax.transx.connection.utils.CredentialExtractor;
+import org.ops4j.pax.transx.connector.UpdateTrackingManagedConnection;
 
 /**
  * Implementation of ManagedConnection that manages a physical JDBC connection.
  */
-public class ManagedJDBCConnection extends AbstractManagedConnection<LocalDataSourceMCF, ManagedJDBCConnection, Connection, ConnectionHandle<LocalDataSourceMCF, ManagedJDBCConnection>> {
+public class ManagedJDBCConnection extends AbstractManagedConnection<LocalDataSourceMCF, ManagedJDBCConnection, Connection, ConnectionHandle<LocalDataSourceMCF, ManagedJDBCConnection>>
+        implements UpdateTrackingManagedConnection {
 
     private final Connection physicalConnection;
     private final LocalTransactionImpl localTx;
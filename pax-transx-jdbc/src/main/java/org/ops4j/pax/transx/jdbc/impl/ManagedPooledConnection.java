@@ -28,8 +28,10 @@ import javax.sql.PooledConnection;
 import org.ops4j.pax.transx.connection.ExceptionSorter;
 import org.ops4j.pax.transx.connection.utils.AbstractManagedConnection;
 import org.ops4j.pax.transx.connection.utils.CredentialExtractor;
+import org.ops4j.pax.transx.connector.UpdateTrackingManagedConnection;
 
-public class ManagedPooledConnection extends AbstractManagedConnection<ConnectionPoolDataSourceMCF, ManagedPooledConnection, Connection, ConnectionHandle<ConnectionPoolDataSourceMCF, ManagedPooledConnection>> {
+public class ManagedPooledConnection extends AbstractManagedConnection<ConnectionPoolDataSourceMCF, ManagedPooledConnection, Connection, ConnectionHandle<ConnectionPoolDataSourceMCF, ManagedPooledConnection>>
+        implements UpdateTrackingManagedConnection {
 
     private final LocalTransactionImpl localTx;
     private final LocalTransactionImpl localClientTx;
@@ -29,8 +29,10 @@ import javax.transaction.xa.XAResource;
 import org.ops4j.pax.transx.connection.ExceptionSorter;
 import org.ops4j.pax.transx.connection.utils.AbstractManagedConnection;
 import org.ops4j.pax.transx.connection.utils.CredentialExtractor;
+import org.ops4j.pax.transx.connector.UpdateTrackingManagedConnection;
 
-public class ManagedXAConnection extends AbstractManagedConnection<XADataSourceMCF, ManagedXAConnection, Connection, ConnectionHandle<XADataSourceMCF, ManagedXAConnection>> {
+public class ManagedXAConnection extends AbstractManagedConnection<XADataSourceMCF, ManagedXAConnection, Connection, ConnectionHandle<XADataSourceMCF, ManagedXAConnection>>
+        implements UpdateTrackingManagedConnection {
 
     private final LocalTransactionImpl localTx;
     private final LocalTransactionImpl localClientTx;
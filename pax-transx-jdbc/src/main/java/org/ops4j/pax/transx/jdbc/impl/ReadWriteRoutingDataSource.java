@@ -0,0 +1,186 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jdbc.impl;
+
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+import org.ops4j.pax.transx.jdbc.ReadOnlyHint;
+import org.ops4j.pax.transx.tm.Transaction;
+import org.ops4j.pax.transx.tm.TransactionManager;
+
+/**
+ * DataSource routing the read-only work to replicas and everything else, including
+ * all the work of JTA transactions, to a primary.
+ * <p>Outside of a transaction and of a {@link ReadOnlyHint} scope, the returned connection defers the choice
+ * of the server until it is first used, so that a call to {@link Connection#setReadOnly(boolean)} can
+ * send it to a replica.
+ */
+public class ReadWriteRoutingDataSource implements DataSource, AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(ReadWriteRoutingDataSource.class.getName());
+
+    private final DataSource primary;
+    private final DataSource[] replicas;
+    // connections currently borrowed from each replica through this data source
+    private final AtomicInteger[] outstanding;
+    private final AtomicInteger next = new AtomicInteger();
+    private final TransactionManager transactionManager;
+
+    public ReadWriteRoutingDataSource(DataSource primary, List<DataSource> replicas, TransactionManager transactionManager) {
+        this.primary = primary;
+        this.replicas = replicas.toArray(new DataSource[0]);
+        this.outstanding = new AtomicInteger[this.replicas.length];
+        for (int i = 0; i < outstanding.length; i++) {
+            outstanding[i] = new AtomicInteger();
+        }
+        this.transactionManager = transactionManager;
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (DataSource replica : replicas) {
+            if (replica instanceof AutoCloseable) {
+                ((AutoCloseable) replica).close();
+            }
+        }
+        if (primary instanceof AutoCloseable) {
+            ((AutoCloseable) primary).close();
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getConnection(null, null);
+    }
+
+    @Override
+    public Connection getConnection(String user, String password) throws SQLException {
+        if (replicas.length == 0 || isInTransaction()) {
+            // the work of the transaction is enlisted with the primary, and may already have written to it
+            return open(primary, user, password);
+        }
+        RoutingConnection handler = new RoutingConnection(this, user, password);
+        if (ReadOnlyHint.isReadOnly()) {
+            handler.route(true);
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[] { Connection.class }, handler);
+    }
+
+    private boolean isInTransaction() {
+        if (transactionManager == null) {
+            return false;
+        }
+        Transaction transaction = transactionManager.getTransaction();
+        return transaction != null && transaction.isActive();
+    }
+
+    /**
+     * Index of the replica with the least outstanding borrows, starting from a rotating index to spread ties.
+     */
+    private int chooseReplica() {
+        final int start = Math.floorMod(next.getAndIncrement(), replicas.length);
+        int best = start;
+        for (int i = 1; i < replicas.length; i++) {
+            int candidate = (start + i) % replicas.length;
+            if (outstanding[candidate].get() < outstanding[best].get()) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Obtain the physical connection of a routing connection, from a replica for read-only work
+     * or from the primary otherwise.
+     */
+    void connect(RoutingConnection connection, boolean readOnly) throws SQLException {
+        if (readOnly && replicas.length > 0) {
+            final int index = chooseReplica();
+            outstanding[index].incrementAndGet();
+            try {
+                connection.target = open(replicas[index], connection.user, connection.password);
+                connection.replica = index;
+                return;
+            } catch (SQLException e) {
+                outstanding[index].decrementAndGet();
+                LOGGER.log(Level.FINE, "Unable to get a connection from replica " + index + ", using the primary", e);
+            }
+        }
+        connection.target = open(primary, connection.user, connection.password);
+        connection.replica = -1;
+    }
+
+    void released(RoutingConnection connection) {
+        if (connection.replica >= 0) {
+            outstanding[connection.replica].decrementAndGet();
+        }
+    }
+
+    private static Connection open(DataSource dataSource, String user, String password) throws SQLException {
+        return user != null || password != null ? dataSource.getConnection(user, password) : dataSource.getConnection();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return primary.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        // throw an unchecked exception here as code should not be calling this
+        throw new UnsupportedOperationException("Cannot set logWriter on a connection factory");
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        // throw an unchecked exception here as code should not be calling this
+        throw new UnsupportedOperationException("Cannot set loginTimeout on a connection factory");
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return 0;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return Logger.getLogger("org.ops4j.pax.transx");
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        // give access to the primary pool
+        return primary.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || primary.isWrapperFor(iface);
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jdbc.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connection handle of a {@link ReadWriteRoutingDataSource}, obtaining the physical connection
+ * from a replica or from the primary when it is first used.
+ * <p>Until then, {@link Connection#setReadOnly(boolean)} decides of the target, and the other settings
+ * are recorded and applied to the physical connection once it is obtained.
+ */
+final class RoutingConnection implements InvocationHandler {
+
+    private final ReadWriteRoutingDataSource router;
+    final String user;
+    final String password;
+
+    // physical connection and index of the replica it comes from, -1 for the primary
+    Connection target;
+    int replica = -1;
+
+    private boolean readOnly;
+    private boolean closed;
+    private final List<Method> settings = new ArrayList<>();
+    private final List<Object[]> settingArgs = new ArrayList<>();
+
+    RoutingConnection(ReadWriteRoutingDataSource router, String user, String password) {
+        this.router = router;
+        this.user = user;
+        this.password = password;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        final String name = method.getName();
+        if (method.getDeclaringClass() == Object.class) {
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "RoutingConnection[" + (target != null ? target : "not routed yet") + "]";
+                default:
+                    break;
+            }
+        }
+        switch (name) {
+            case "close":
+                close();
+                return null;
+            case "isClosed":
+                if (target == null) {
+                    return closed;
+                }
+                break;
+            case "isReadOnly":
+                if (target == null) {
+                    checkOpen();
+                    return readOnly;
+                }
+                break;
+            case "setReadOnly":
+                if (target == null) {
+                    checkOpen();
+                    readOnly = (Boolean) args[0];
+                    return null;
+                }
+                break;
+            case "setAutoCommit":
+            case "setTransactionIsolation":
+            case "setHoldability":
+            case "setCatalog":
+            case "setSchema":
+                if (target == null) {
+                    checkOpen();
+                    settings.add(method);
+                    settingArgs.add(args);
+                    return null;
+                }
+                break;
+            default:
+                break;
+        }
+        if (target == null) {
+            checkOpen();
+            route(readOnly);
+        }
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Obtain the physical connection and apply the settings recorded so far.
+     */
+    void route(boolean readOnly) throws SQLException {
+        this.readOnly = readOnly;
+        router.connect(this, readOnly);
+        try {
+            if (readOnly) {
+                target.setReadOnly(true);
+            }
+            for (int i = 0; i < settings.size(); i++) {
+                settings.get(i).invoke(target, settingArgs.get(i));
+            }
+        } catch (InvocationTargetException | IllegalAccessException | SQLException e) {
+            close();
+            Throwable t = e instanceof InvocationTargetException ? e.getCause() : e;
+            throw t instanceof SQLException ? (SQLException) t : new SQLException(t);
+        } finally {
+            settings.clear();
+            settingArgs.clear();
+        }
+    }
+
+    private void checkOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection is closed", "08003");
+        }
+    }
+
+    private void close() throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (target != null) {
+            try {
+                target.close();
+            } finally {
+                router.released(this);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jdbc.impl;
+
+import java.util.Objects;
+
+import org.ops4j.pax.transx.connection.utils.UserPasswordConnectionRequestInfo;
+import org.ops4j.pax.transx.connector.ShardedConnectionRequestInfo;
+
+/**
+ * Connection request carrying a JDBC 4.3 sharding key in addition to the user credentials.
+ */
+public class ShardedConnectionRequestInfoImpl implements UserPasswordConnectionRequestInfo, ShardedConnectionRequestInfo {
+
+    private final String userName;
+    private final String password;
+    private final Object shardingKey;
+    private final Object superShardingKey;
+    private final transient int hashcode;
+
+    public ShardedConnectionRequestInfoImpl(String userName, String password, Object shardingKey, Object superShardingKey) {
+        this.userName = userName;
+        this.password = password;
+        this.shardingKey = shardingKey;
+        this.superShardingKey = superShardingKey;
+        this.hashcode = Objects.hash(userName, password, shardingKey, superShardingKey);
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    @Override
+    public Object getShardingKey() {
+        return shardingKey;
+    }
+
+    @Override
+    public Object getSuperShardingKey() {
+        return superShardingKey;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ShardedConnectionRequestInfoImpl that = (ShardedConnectionRequestInfoImpl) o;
+        return hashcode == that.hashcode
+                && Objects.equals(userName, that.userName)
+                && Objects.equals(password, that.password)
+                && Objects.equals(shardingKey, that.shardingKey)
+                && Objects.equals(superShardingKey, that.superShardingKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashcode;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedConnectionRequestInfoImpl[" + userName + ", " + shardingKey + "]";
+    }
+}
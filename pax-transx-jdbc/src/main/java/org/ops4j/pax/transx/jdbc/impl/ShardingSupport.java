@@ -0,0 +1,74 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jdbc.impl;
+
+import java.sql.Connection;
+import java.sql.ConnectionBuilder;
+import java.sql.SQLException;
+import java.sql.ShardingKey;
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.DataSource;
+import javax.sql.PooledConnection;
+import javax.sql.PooledConnectionBuilder;
+import javax.sql.XAConnection;
+import javax.sql.XAConnectionBuilder;
+import javax.sql.XADataSource;
+
+import org.ops4j.pax.transx.connection.utils.CredentialExtractor;
+import org.ops4j.pax.transx.connector.ShardedConnectionRequestInfo;
+
+/**
+ * Access to the JDBC 4.3 sharding API.
+ * <p>All references to the Java 9 {@code java.sql} types are kept in this class and in
+ * {@link ShardingTransxDataSource}. This class is only loaded when a sharding key is used, and
+ * {@link ShardingTransxDataSource} is only created on Java 9 and later.
+ */
+final class ShardingSupport {
+
+    private ShardingSupport() {
+    }
+
+    static Connection getConnection(DataSource dataSource, CredentialExtractor credentialExtractor, ShardedConnectionRequestInfo cri) throws SQLException {
+        ConnectionBuilder builder = dataSource.createConnectionBuilder()
+                .shardingKey((ShardingKey) cri.getShardingKey())
+                .superShardingKey((ShardingKey) cri.getSuperShardingKey());
+        if (credentialExtractor.getUserName() != null) {
+            builder.user(credentialExtractor.getUserName()).password(credentialExtractor.getPassword());
+        }
+        return builder.build();
+    }
+
+    static XAConnection getXAConnection(XADataSource dataSource, CredentialExtractor credentialExtractor, ShardedConnectionRequestInfo cri) throws SQLException {
+        XAConnectionBuilder builder = dataSource.createXAConnectionBuilder()
+                .shardingKey((ShardingKey) cri.getShardingKey())
+                .superShardingKey((ShardingKey) cri.getSuperShardingKey());
+        if (credentialExtractor.getUserName() != null) {
+            builder.user(credentialExtractor.getUserName()).password(credentialExtractor.getPassword());
+        }
+        return builder.build();
+    }
+
+    static PooledConnection getPooledConnection(ConnectionPoolDataSource dataSource, CredentialExtractor credentialExtractor, ShardedConnectionRequestInfo cri) throws SQLException {
+        PooledConnectionBuilder builder = dataSource.createPooledConnectionBuilder()
+                .shardingKey((ShardingKey) cri.getShardingKey())
+                .superShardingKey((ShardingKey) cri.getSuperShardingKey());
+        if (credentialExtractor.getUserName() != null) {
+            builder.user(credentialExtractor.getUserName()).password(credentialExtractor.getPassword());
+        }
+        return builder.build();
+    }
+
+}
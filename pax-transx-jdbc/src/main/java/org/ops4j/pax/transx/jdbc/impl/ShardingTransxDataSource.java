@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jdbc.impl;
+
+import java.sql.Connection;
+import java.sql.ConnectionBuilder;
+import java.sql.SQLException;
+import java.sql.ShardingKey;
+import javax.resource.spi.ConnectionManager;
+
+import org.ops4j.pax.transx.connection.utils.UserPasswordConnectionRequestInfoImpl;
+import org.ops4j.pax.transx.connection.utils.UserPasswordManagedConnectionFactory;
+
+/**
+ * {@link TransxDataSource} supporting the JDBC 4.3 connection builders.
+ * <p>It is only created on Java 9 and later, so that {@link TransxDataSource} does not refer to
+ * the Java 9 {@code java.sql} types and still loads on Java 8.
+ */
+public class ShardingTransxDataSource extends TransxDataSource {
+
+    public ShardingTransxDataSource(UserPasswordManagedConnectionFactory mcf, ConnectionManager cm) {
+        super(mcf, cm);
+    }
+
+    /**
+     * Create a builder for connections to a given shard.
+     * <p>Connections with different sharding keys are pooled in separate subpools of the same connection manager.
+     */
+    @Override
+    public ConnectionBuilder createConnectionBuilder() throws SQLException {
+        return new TransxConnectionBuilder();
+    }
+
+    class TransxConnectionBuilder implements ConnectionBuilder {
+
+        private String user;
+        private String password;
+        private ShardingKey shardingKey;
+        private ShardingKey superShardingKey;
+
+        @Override
+        public ConnectionBuilder user(String user) {
+            this.user = user;
+            return this;
+        }
+
+        @Override
+        public ConnectionBuilder password(String password) {
+            this.password = password;
+            return this;
+        }
+
+        @Override
+        public ConnectionBuilder shardingKey(ShardingKey shardingKey) {
+            this.shardingKey = shardingKey;
+            return this;
+        }
+
+        @Override
+        public ConnectionBuilder superShardingKey(ShardingKey superShardingKey) {
+            this.superShardingKey = superShardingKey;
+            return this;
+        }
+
+        @Override
+        public Connection build() throws SQLException {
+            if (shardingKey == null && superShardingKey != null) {
+                throw new SQLException("A super sharding key requires a sharding key");
+            }
+            if (shardingKey == null) {
+                return user != null || password != null
+                        ? getConnection(new UserPasswordConnectionRequestInfoImpl(user, password))
+                        : getConnection(UserPasswordConnectionRequestInfoImpl.NULL_CRI);
+            }
+            return getConnection(new ShardedConnectionRequestInfoImpl(user, password, shardingKey, superShardingKey));
+        }
+    }
+}
@@ -19,6 +19,7 @@ import java.io.PrintWriter;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.resource.ResourceException;
@@ -30,6 +31,7 @@ import org.ops4j.pax.transx.connection.utils.SimpleConnectionManager;
 import org.ops4j.pax.transx.connection.utils.UserPasswordConnectionRequestInfo;
 import org.ops4j.pax.transx.connection.utils.UserPasswordConnectionRequestInfoImpl;
 import org.ops4j.pax.transx.connection.utils.UserPasswordManagedConnectionFactory;
+import org.ops4j.pax.transx.connector.PoolSaturatedException;
 
 /**
  * DataSource connection factory for JDBC Connections.
@@ -60,9 +62,13 @@ public class TransxDataSource implements javax.sql.DataSource, AutoCloseable {
         return getConnection(new UserPasswordConnectionRequestInfoImpl(user, password));
     }
 
-    private Connection getConnection(UserPasswordConnectionRequestInfo cri) throws SQLException {
+    Connection getConnection(UserPasswordConnectionRequestInfo cri) throws SQLException {
         try {
             return (Connection) cm.allocateConnection(mcf, cri);
+        } catch (PoolSaturatedException e) {
+            // expected under load, the caller may retry later or degrade
+            LOGGER.log(Level.FINE, e.getMessage());
+            throw new SQLTransientConnectionException(e.getMessage(), "08001", e);
         } catch (ResourceException e) {
             LOGGER.log(Level.INFO, e.getMessage(), e);
             //Failed to allocate!
@@ -100,7 +106,7 @@ public class TransxDataSource implements javax.sql.DataSource, AutoCloseable {
      * @see java.sql.Wrapper#isWrapperFor(java.lang.Class)
      */
     public boolean isWrapperFor(Class<?> iface) throws SQLException {
-        if (iface.isInstance(this)) {
+        if (iface.isInstance(this) || iface.isInstance(cm)) {
             return true;
         }
         CommonDataSource cds = getUnwrappedDataSource();
@@ -123,6 +129,10 @@ public class TransxDataSource implements javax.sql.DataSource, AutoCloseable {
         if (iface.isInstance(this)) {
             return iface.cast(this);
         }
+        // give access to the pool, e.g. to warm it up
+        if (iface.isInstance(cm)) {
+            return iface.cast(cm);
+        }
         CommonDataSource cds = getUnwrappedDataSource();
         if (iface.isInstance(cds)) {
             return iface.cast(cds);
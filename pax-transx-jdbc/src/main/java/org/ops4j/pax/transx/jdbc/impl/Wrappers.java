@@ -17,6 +17,7 @@ package org.ops4j.pax.transx.jdbc.impl;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.CallableStatement;
 import java.sql.Connection;
@@ -25,10 +26,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.sql.Wrapper;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 final class Wrappers {
 
@@ -46,7 +49,11 @@ final class Wrappers {
 
     @SuppressWarnings("unchecked")
     static <H> H wrap(Class<H> clazz, ConnectionHandle c, H h) {
-        return (H) wrap(clazz, c, h, Arrays.asList(wrapperIh(h), statementIh(c, h), getConnectionIh(c)));
+        List<InvocationHandler> subHandlers = new ArrayList<>(Arrays.asList(updateIh(clazz, c), wrapperIh(h), statementIh(c, h), getConnectionIh(c)));
+        if (h != null && Statement.class.isAssignableFrom(clazz)) {
+            subHandlers.add(0, closeIh(c, h));
+        }
+        return (H) wrap(clazz, c, h, subHandlers);
     }
 
     private static Object wrap(Class<?> clazz, ConnectionHandle c, Object h, List<InvocationHandler> subHandlers) {
@@ -64,7 +71,7 @@ final class Wrappers {
                 Object result = method.invoke(h, args);
                 if (CLASSES_TO_WRAP.contains(method.getReturnType())) {
                     result = wrap(method.getReturnType(), c, result,
-                                  Arrays.asList(wrapperIh(result), statementIh(c, result), getConnectionIh(c)));
+                                  Arrays.asList(updateIh(method.getReturnType(), c), wrapperIh(result), statementIh(c, result), getConnectionIh(c)));
                 }
                 return result;
             } catch (InvocationTargetException e) {
@@ -82,6 +89,25 @@ final class Wrappers {
         return Proxy.newProxyInstance(h.getClass().getClassLoader(), new Class[] { clazz }, ih);
     }
 
+    /**
+     * Track open statements, so that a lazily associated connection handle knows when it can release the connection.
+     */
+    private static InvocationHandler closeIh(ConnectionHandle c, Object h) {
+        AtomicBoolean closed = new AtomicBoolean();
+        return (proxy, method, args) -> {
+            if (method.getName().equals("close") && method.getParameterCount() == 0) {
+                try {
+                    return method.invoke(h, args);
+                } finally {
+                    if (closed.compareAndSet(false, true)) {
+                        c.statementClosed();
+                    }
+                }
+            }
+            return UNHANLED;
+        };
+    }
+
     private static InvocationHandler getConnectionIh(ConnectionHandle c) {
         return (proxy, method, args) -> {
             if (method.getReturnType() == Connection.class
@@ -104,12 +130,37 @@ final class Wrappers {
                     }
                     return UNHANLED;
                 };
-                return Wrappers.wrap(method.getReturnType(), c, ret, Arrays.asList(wrapperIh(ret), getStatementIh));
+                return Wrappers.wrap(method.getReturnType(), c, ret, Arrays.asList(updateIh(ResultSet.class, c), wrapperIh(ret), getStatementIh));
             }
             return UNHANLED;
         };
     }
 
+    /**
+     * Track calls that may modify the database, so that read-only transactions can be detected.
+     */
+    private static InvocationHandler updateIh(Class<?> clazz, ConnectionHandle c) {
+        return (proxy, method, args) -> {
+            if (isUpdate(clazz, method, c)) {
+                c.markUpdated();
+            }
+            return UNHANLED;
+        };
+    }
+
+    private static boolean isUpdate(Class<?> clazz, Method method, ConnectionHandle c) {
+        String name = method.getName();
+        if (ResultSet.class == clazz) {
+            return name.equals("updateRow") || name.equals("insertRow") || name.equals("deleteRow");
+        }
+        if (Statement.class.isAssignableFrom(clazz) && name.startsWith("execute")) {
+            // queries may write too (SELECT FOR UPDATE, functions, data change delta tables),
+            // so only statements of a connection set to read-only are trusted
+            return !c.isTrackedReadOnly();
+        }
+        return false;
+    }
+
     private static InvocationHandler wrapperIh(Object h) {
         return (proxy, method, args) -> {
             if (method.getDeclaringClass() == Wrapper.class) {
@@ -29,6 +29,7 @@ import javax.transaction.xa.XAResource;
 import org.ops4j.pax.transx.connection.ExceptionSorter;
 import org.ops4j.pax.transx.connection.NoExceptionsAreFatalSorter;
 import org.ops4j.pax.transx.connection.utils.CredentialExtractor;
+import org.ops4j.pax.transx.connector.ShardedConnectionRequestInfo;
 
 public class XADataSourceMCF extends AbstractJdbcManagedConnectionFactory<XADataSourceMCF, ManagedXAConnection, XADataSource> {
 
@@ -47,7 +48,9 @@ public class XADataSourceMCF extends AbstractJdbcManagedConnectionFactory<XAData
 
     public ManagedConnection createManagedConnection(Subject subject, ConnectionRequestInfo connectionRequestInfo) throws ResourceException {
         CredentialExtractor credentialExtractor = new CredentialExtractor(subject, connectionRequestInfo, this);
-        XAConnection sqlConnection = getPhysicalConnection(credentialExtractor);
+        XAConnection sqlConnection = isSharded(connectionRequestInfo)
+                ? getPhysicalConnection(credentialExtractor, (ShardedConnectionRequestInfo) connectionRequestInfo)
+                : getPhysicalConnection(credentialExtractor);
         try {
             XAResource xares = sqlConnection.getXAResource();
             Connection pc = wrap(sqlConnection.getConnection());
@@ -71,4 +74,12 @@ public class XADataSourceMCF extends AbstractJdbcManagedConnectionFactory<XAData
         }
     }
 
+    protected XAConnection getPhysicalConnection(CredentialExtractor credentialExtractor, ShardedConnectionRequestInfo cri) throws ResourceException {
+        try {
+            return ShardingSupport.getXAConnection(dataSource, credentialExtractor, cri);
+        } catch (SQLException e) {
+            throw new ResourceAdapterInternalException("Unable to obtain physical connection to shard " + cri.getShardingKey() + " of " + dataSource, e);
+        }
+    }
+
 }
@@ -15,19 +15,36 @@
  */
 package org.ops4j.pax.transx.jdbc;
 
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
 import java.sql.Statement;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
 import javax.sql.DataSource;
 import javax.sql.XADataSource;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.Xid;
 
 import org.h2.jdbcx.JdbcDataSource;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.ops4j.pax.transx.connector.PoolSaturatedException;
+import org.ops4j.pax.transx.connector.UpdateTrackingManagedConnection;
+import org.ops4j.pax.transx.jdbc.impl.ConnectionHandle;
+import org.ops4j.pax.transx.jdbc.stubs.JoinableXADataSource;
+import org.ops4j.pax.transx.jdbc.stubs.ShardedXADataSource;
+import org.ops4j.pax.transx.tm.NamedResource;
 import org.ops4j.pax.transx.tm.Transaction;
 import org.ops4j.pax.transx.tm.TransactionManager;
 import org.ops4j.pax.transx.tm.impl.geronimo.GeronimoPlatformTransactionManager;
@@ -40,9 +57,12 @@ import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class H2Test {
@@ -241,6 +261,391 @@ public class H2Test {
         }
     }
 
+    @Test
+    public void testReadOnlyPrepareWithWritingQuery() throws Exception {
+        DataSource ds = ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name("h2readonly")
+                .dataSource(createH2DataSource())
+                .transaction(TransactionSupportLevel.LocalTransaction)
+                .readOnlyPrepare(true)
+                .build();
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute(DROP_USER);
+        jdbc.execute(CREATE_TABLE_USER);
+
+        Transaction tx = tm.begin();
+        try (Connection con = ds.getConnection(); Statement st = con.createStatement()) {
+            // a query can write, it must not let the connection vote read-only
+            st.executeQuery("SELECT ID FROM FINAL TABLE (INSERT INTO USERS (ID, NAME) VALUES (1, 'user1'))").close();
+        }
+        tx.enlistResource(failingResource());
+        try {
+            tx.commit();
+            fail("Expected the transaction to roll back");
+        } catch (Exception e) {
+            // expected
+        }
+        assertEquals(0, (int) jdbc.queryForObject(COUNT_USER, Integer.class));
+    }
+
+    @Test
+    public void testQueriesOfReadOnlyConnectionsAreNotUpdates() throws Exception {
+        DataSource ds = ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name("h2readonly")
+                .dataSource(createH2DataSource())
+                .transaction(TransactionSupportLevel.LocalTransaction)
+                .readOnlyPrepare(true)
+                .build();
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute(DROP_USER);
+        jdbc.execute(CREATE_TABLE_USER);
+
+        Transaction tx = tm.begin();
+        try (Connection con = ds.getConnection()) {
+            UpdateTrackingManagedConnection mc = (UpdateTrackingManagedConnection) con.unwrap(ConnectionHandle.class).getManagedConnection();
+            con.setReadOnly(true);
+            try (Statement st = con.createStatement()) {
+                st.executeQuery(COUNT_USER).close();
+            }
+            assertFalse(mc.hasPendingUpdates());
+            con.setReadOnly(false);
+            try (Statement st = con.createStatement()) {
+                st.executeQuery(COUNT_USER).close();
+            }
+            assertTrue(mc.hasPendingUpdates());
+        }
+        tx.commit();
+    }
+
+    @Test
+    public void testShardingKeyRouting() throws Exception {
+        DataSource ds = ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name("h2shards")
+                .dataSource(new ShardedXADataSource("jdbc:h2:mem:shard"))
+                .shardMaxPoolSize(1)
+                .connectionTimeout(1000L)
+                .build();
+
+        try (Connection a = ds.createConnectionBuilder().shardingKey(ShardedXADataSource.key("a")).build();
+             Connection b = ds.createConnectionBuilder().shardingKey(ShardedXADataSource.key("b")).build();
+             Connection def = ds.getConnection()) {
+            // each shard has its own subpool, so a single connection per shard doesn't block the others
+            assertEquals("SHARD_A", database(a));
+            assertEquals("SHARD_B", database(b));
+            assertEquals("SHARD", database(def));
+        }
+
+        int session;
+        try (Connection a = ds.createConnectionBuilder().shardingKey(ShardedXADataSource.key("a")).build()) {
+            session = sessionId(a);
+        }
+        try (Connection a = ds.createConnectionBuilder().shardingKey(ShardedXADataSource.key("a")).build()) {
+            assertEquals(session, sessionId(a));
+        }
+    }
+
+    private static String database(Connection con) throws Exception {
+        try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery("SELECT DATABASE()")) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+
+    private static int sessionId(Connection con) throws Exception {
+        try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery("SELECT SESSION_ID()")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    @Test
+    public void testConnectionSharedByEqualFactories() throws Exception {
+        // two pools on the same data source hand out the same physical connection within a transaction
+        XADataSource xaDs = createH2DataSource();
+        DataSource ds1 = wrapSingle("h2share1", xaDs);
+        DataSource ds2 = wrapSingle("h2share2", xaDs);
+        try {
+            Transaction tx = tm.begin();
+            try (Connection con1 = ds1.getConnection();
+                 Connection con2 = ds2.getConnection()) {
+                assertEquals(sessionId(con1), sessionId(con2));
+            }
+            tx.commit();
+
+            try (Connection con1 = ds1.getConnection();
+                 Connection con2 = ds2.getConnection()) {
+                assertNotEquals(sessionId(con1), sessionId(con2));
+            }
+        } finally {
+            ((AutoCloseable) ds1).close();
+            ((AutoCloseable) ds2).close();
+        }
+    }
+
+    @Test
+    public void testLazyAssociation() throws Exception {
+        DataSource ds = ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name("h2lazy")
+                .dataSource(createH2DataSource())
+                .minIdle(0)
+                .maxPoolSize(1)
+                .connectionTimeout(500L)
+                .lazyAssociation(true)
+                .build();
+        try (Connection con1 = ds.getConnection()) {
+            // the single pooled connection is released after each call of the first handle
+            int session = sessionId(con1);
+            try (Connection con2 = ds.getConnection()) {
+                assertEquals(session, sessionId(con2));
+            }
+            assertEquals(session, sessionId(con1));
+
+            // a local transaction keeps the connection associated
+            con1.setAutoCommit(false);
+            sessionId(con1);
+            try (Connection con2 = ds.getConnection()) {
+                fail("Expected the connection to be kept by the first handle");
+            } catch (SQLException e) {
+                // expected
+            }
+            con1.setAutoCommit(true);
+            try (Connection con2 = ds.getConnection()) {
+                assertEquals(session, sessionId(con2));
+            }
+        } finally {
+            ((AutoCloseable) ds).close();
+        }
+    }
+
+    @Test
+    public void testSaturatedPool() throws Exception {
+        DataSource ds = ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name("h2saturated")
+                .dataSource(createH2DataSource())
+                .minIdle(0)
+                .maxPoolSize(1)
+                .connectionTimeout(5000L)
+                .maxWaiters(1)
+                .build();
+        try (Connection con1 = ds.getConnection()) {
+            CompletableFuture<Integer> waiter = CompletableFuture.supplyAsync(() -> {
+                try (Connection con2 = ds.getConnection()) {
+                    return sessionId(con2);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            Thread.sleep(200L);
+            try (Connection con3 = ds.getConnection()) {
+                fail("Expected the pool to be saturated");
+            } catch (SQLTransientConnectionException e) {
+                assertEquals("08001", e.getSQLState());
+                assertTrue(e.getCause() instanceof PoolSaturatedException);
+            }
+            int session = sessionId(con1);
+            con1.close();
+            assertEquals(session, (int) waiter.get(5L, TimeUnit.SECONDS));
+        } finally {
+            ((AutoCloseable) ds).close();
+        }
+    }
+
+    @Test
+    public void testJoinedBranchesWithReadOnlyPrepare() throws Exception {
+        // two pools on the same resource manager, whose connections share a single read-only branch,
+        // and another database so that the transaction manager prepares the branches
+        XADataSource rm = createH2DataSource();
+        DataSource ds1 = wrapSingle("h2join1", new JoinableXADataSource(rm, true));
+        DataSource ds2 = wrapSingle("h2join2", new JoinableXADataSource(rm, true));
+        JdbcDataSource other = new JdbcDataSource();
+        other.setURL("jdbc:h2:mem:other");
+        other.setUser("sa");
+        other.setPassword("");
+        DataSource ds3 = wrapSingle("h2other", other);
+        try {
+            for (int i = 0; i < 3; i++) {
+                // the pooled resources are reused by each transaction, and must not keep the previous branch
+                Transaction tx = tm.begin();
+                try (Connection con1 = ds1.getConnection();
+                     Connection con2 = ds2.getConnection();
+                     Connection con3 = ds3.getConnection()) {
+                    try (Statement st = con1.createStatement()) {
+                        st.execute("SELECT 1");
+                    }
+                    try (Statement st = con2.createStatement()) {
+                        st.execute("SELECT 1");
+                    }
+                    try (Statement st = con3.createStatement()) {
+                        st.execute("SELECT 1");
+                    }
+                }
+                tx.commit();
+            }
+        } finally {
+            ((AutoCloseable) ds1).close();
+            ((AutoCloseable) ds2).close();
+            ((AutoCloseable) ds3).close();
+        }
+    }
+
+    @Test
+    public void testLastResourceWithSeveralSubpools() throws Exception {
+        // only one connection of a transaction can be the last resource, the others are plain participants
+        DataSource ds1 = wrapLastResource("h2lrc1", createH2DataSource());
+        DataSource ds2 = wrapLastResource("h2lrc2", createH2DataSource());
+        try {
+            try (Connection con = ds1.getConnection();
+                 Statement st = con.createStatement()) {
+                st.execute(DROP_USER);
+                st.execute(CREATE_TABLE_USER);
+            }
+
+            Transaction tx = tm.begin();
+            try (Connection con1 = ds1.getConnection();
+                 Connection con2 = ds1.getConnection("sa", "");
+                 Connection con3 = ds2.getConnection()) {
+                int id = 1;
+                for (Connection con : new Connection[] { con1, con2, con3 }) {
+                    try (PreparedStatement ps = con.prepareStatement(INSERT_INTO_USER)) {
+                        ps.setInt(1, id);
+                        ps.setString(2, "user" + id);
+                        ps.executeUpdate();
+                    }
+                    id++;
+                }
+            }
+            tx.commit();
+
+            try (Connection con = ds1.getConnection();
+                 Statement st = con.createStatement();
+                 ResultSet rs = st.executeQuery(COUNT_USER)) {
+                rs.next();
+                assertEquals(3, rs.getInt(1));
+            }
+        } finally {
+            ((AutoCloseable) ds1).close();
+            ((AutoCloseable) ds2).close();
+        }
+    }
+
+    @Test
+    public void testSoftQuotaAcrossSubpools() throws Exception {
+        try (Connection admin = openQuotaDatabase()) {
+            DataSource ds = wrapSoftQuota("h2softquota");
+            try {
+                Connection sa1 = ds.getConnection();
+                ds.getConnection().close();
+                // the idle connection above the quota of the first subpool is given to the second one
+                try (Connection other1 = ds.getConnection("other", "other")) {
+                    assertEquals(2, countSessions(admin));
+
+                    // but the connection within the quota is kept
+                    try (Connection other2 = ds.getConnection("other", "other")) {
+                        fail("Expected a SQLException");
+                    } catch (SQLException e) {
+                        // expected
+                    }
+                }
+                sa1.close();
+            } finally {
+                ((AutoCloseable) ds).close();
+            }
+        }
+    }
+
+    @Test
+    public void testSoftQuotaHandOver() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (Connection admin = openQuotaDatabase()) {
+            DataSource ds = wrapSoftQuota("h2handover");
+            try (Connection sa1 = ds.getConnection()) {
+                Connection sa2 = ds.getConnection();
+                Future<Connection> waiting = executor.submit(() -> ds.getConnection("other", "other"));
+                Thread.sleep(200L);
+                // the connection above the quota is closed on return, so that the waiting subpool can open one
+                sa2.close();
+                try (Connection other = waiting.get(5L, TimeUnit.SECONDS)) {
+                    assertEquals(2, countSessions(admin));
+                }
+            } finally {
+                ((AutoCloseable) ds).close();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testHardQuota() throws Exception {
+        try (Connection admin = openQuotaDatabase()) {
+            DataSource ds = ManagedDataSourceBuilder.builder()
+                    .transactionManager(tm)
+                    .name("h2hardquota")
+                    .dataSource(createQuotaDataSource())
+                    .minIdle(0)
+                    .maxPoolSize(3)
+                    .hardQuota(2)
+                    .connectionTimeout(500)
+                    .build();
+            try (Connection sa1 = ds.getConnection();
+                 Connection sa2 = ds.getConnection()) {
+                try (Connection sa3 = ds.getConnection()) {
+                    fail("Expected a SQLException");
+                } catch (SQLException e) {
+                    // expected
+                }
+                // the other subpools have their own quota
+                try (Connection other = ds.getConnection("other", "other")) {
+                    assertEquals(3, countSessions(admin));
+                }
+            } finally {
+                ((AutoCloseable) ds).close();
+            }
+        }
+    }
+
+    @Test
+    public void testConnectionBudgetAcrossPools() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (Connection admin = openQuotaDatabase()) {
+            DataSource ds1 = wrapBudget("h2budget1");
+            DataSource ds2 = wrapBudget("h2budget2");
+            try {
+                Connection con1 = ds1.getConnection();
+                ds1.getConnection().close();
+                // the idle connection of the first pool is reclaimed for the second one
+                Connection con2 = ds2.getConnection();
+                assertEquals(2, countSessions(admin));
+
+                // the connection of the first pool is released to the second one, which is waiting
+                Future<Connection> waiting = executor.submit(() -> ds2.getConnection());
+                Thread.sleep(200L);
+                con1.close();
+                try (Connection con3 = waiting.get(5L, TimeUnit.SECONDS)) {
+                    assertEquals(2, countSessions(admin));
+                }
+                con2.close();
+
+                // the connections of a closed pool are given back to the budget
+                ((AutoCloseable) ds2).close();
+                try (Connection c1 = ds1.getConnection();
+                     Connection c2 = ds1.getConnection()) {
+                    assertEquals(2, countSessions(admin));
+                }
+            } finally {
+                ((AutoCloseable) ds1).close();
+                ((AutoCloseable) ds2).close();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     @Ignore
     public void testBenchPreparedStatement() throws Exception {
@@ -307,6 +712,103 @@ public class H2Test {
                 .build();
     }
 
+    private static NamedResource failingResource() {
+        return (NamedResource) Proxy.newProxyInstance(H2Test.class.getClassLoader(),
+                new Class<?>[] { NamedResource.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getName":
+                            return "failing";
+                        case "prepare":
+                            throw new XAException(XAException.XA_RBROLLBACK);
+                        case "isSameRM":
+                        case "setTransactionTimeout":
+                            return false;
+                        case "getTransactionTimeout":
+                            return 0;
+                        case "recover":
+                            return new Xid[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private DataSource wrapSingle(String name, XADataSource xaDs) throws Exception {
+        return ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name(name)
+                .dataSource(xaDs)
+                .minIdle(0)
+                .maxPoolSize(1)
+                .build();
+    }
+
+    private DataSource wrapLastResource(String name, XADataSource xaDs) throws Exception {
+        return ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name(name)
+                .dataSource(xaDs)
+                .transaction(TransactionSupportLevel.LocalTransaction)
+                .lastResource(true)
+                .build();
+    }
+
+    private DataSource wrapSoftQuota(String name) throws Exception {
+        return ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name(name)
+                .dataSource(createQuotaDataSource())
+                .minIdle(0)
+                .maxPoolSize(2)
+                .maxTotalConnections(2)
+                .softQuota(1)
+                .connectionTimeout(1000)
+                .build();
+    }
+
+    private DataSource wrapBudget(String name) throws Exception {
+        return ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name(name)
+                .dataSource(createQuotaDataSource())
+                .minIdle(0)
+                .maxPoolSize(2)
+                .connectionBudget("h2budget", 2)
+                .connectionTimeout(1000)
+                .build();
+    }
+
+    /**
+     * Open the database of the quota tests with a second user, and keep it open while the connection is.
+     */
+    private Connection openQuotaDatabase() throws Exception {
+        Connection admin = ((JdbcDataSource) createQuotaDataSource()).getConnection();
+        try (Statement st = admin.createStatement()) {
+            st.execute("CREATE USER IF NOT EXISTS OTHER PASSWORD 'other' ADMIN");
+        }
+        return admin;
+    }
+
+    /**
+     * Number of physical connections to the database of the quota tests, besides the admin one.
+     */
+    private int countSessions(Connection admin) throws SQLException {
+        try (Statement st = admin.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SESSIONS")) {
+            rs.next();
+            return rs.getInt(1) - 1;
+        }
+    }
+
+    private XADataSource createQuotaDataSource() {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:quota");
+        ds.setUser("sa");
+        ds.setPassword("");
+        return ds;
+    }
+
     private XADataSource createH2DataSource() {
         JdbcDataSource ds = new JdbcDataSource();
         ds.setURL("jdbc:h2:mem:test");
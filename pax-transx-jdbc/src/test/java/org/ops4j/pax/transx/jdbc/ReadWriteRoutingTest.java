@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import javax.sql.DataSource;
+import javax.sql.XADataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.transx.tm.Transaction;
+import org.ops4j.pax.transx.tm.TransactionManager;
+import org.ops4j.pax.transx.tm.impl.geronimo.GeronimoPlatformTransactionManager;
+import org.ops4j.pax.transx.tm.impl.geronimo.TransactionManagerWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReadWriteRoutingTest {
+
+    private static final String PRIMARY_URL = "jdbc:h2:mem:primary";
+    private static final String REPLICA_URL = "jdbc:h2:mem:replica";
+
+    TransactionManager tm;
+    DataSource ds;
+
+    @Before
+    public void setUp() throws Exception {
+        tm = new TransactionManagerWrapper(new GeronimoPlatformTransactionManager());
+        ds = ReadWriteDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .primary(wrap("primary", createH2DataSource(PRIMARY_URL)))
+                .replica(wrap("replica", createH2DataSource(REPLICA_URL)))
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ((AutoCloseable) ds).close();
+    }
+
+    @Test
+    public void testWritesGoToPrimary() throws Exception {
+        try (Connection con = ds.getConnection()) {
+            assertEquals(PRIMARY_URL, con.getMetaData().getURL());
+        }
+    }
+
+    @Test
+    public void testSetReadOnlyBeforeFirstUse() throws Exception {
+        try (Connection con = ds.getConnection()) {
+            con.setReadOnly(true);
+            con.setAutoCommit(false);
+            // answered by the handle, H2 does not report the read-only flag of its connections
+            assertTrue(con.isReadOnly());
+            assertEquals(REPLICA_URL, con.getMetaData().getURL());
+            assertFalse(con.getAutoCommit());
+        }
+    }
+
+    @Test
+    public void testReadOnlyHint() throws Exception {
+        try (ReadOnlyHint.Scope scope = ReadOnlyHint.enter();
+             Connection con = ds.getConnection()) {
+            assertEquals(REPLICA_URL, con.getMetaData().getURL());
+        }
+    }
+
+    @Test
+    public void testTransactionStaysOnPrimary() throws Exception {
+        Transaction tx = tm.begin();
+        try (Connection con = ds.getConnection()) {
+            con.setReadOnly(true);
+            assertEquals(PRIMARY_URL, con.getMetaData().getURL());
+        }
+        tx.commit();
+
+        tx = tm.begin();
+        try (Connection con = ds.getConnection();
+             Statement st = con.createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS ROUTED (ID INT)");
+            st.execute("INSERT INTO ROUTED VALUES (1)");
+        }
+        // a read-only hint does not move the transaction away from its own writes
+        try (ReadOnlyHint.Scope scope = ReadOnlyHint.enter();
+             Connection con = ds.getConnection();
+             Statement st = con.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM ROUTED")) {
+            assertEquals(PRIMARY_URL, con.getMetaData().getURL());
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+        }
+        tx.rollback();
+    }
+
+    private DataSource wrap(String name, XADataSource xaDs) throws Exception {
+        return ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name(name)
+                .dataSource(xaDs)
+                .build();
+    }
+
+    private XADataSource createH2DataSource(String url) {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL(url);
+        ds.setUser("sa");
+        ds.setPassword("");
+        return ds;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jdbc.stubs;
+
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+import javax.sql.ConnectionEventListener;
+import javax.sql.StatementEventListener;
+import javax.sql.XAConnection;
+import javax.sql.XADataSource;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+/**
+ * XADataSource decorator whose resources belong to the same resource manager when they decorate
+ * the same data source, so that they can join each other's branch with {@code TMJOIN}, which H2 does not support.
+ * <p>A joined resource only records the branch, and fails like a real resource manager when it is
+ * ended with another xid. With {@code readOnly}, prepare answers {@link XAResource#XA_RDONLY} after
+ * rolling back the branch, so that the transaction manager neither commits nor rolls it back.
+ */
+public class JoinableXADataSource implements XADataSource {
+
+    private final XADataSource delegate;
+    private final boolean readOnly;
+
+    public JoinableXADataSource(XADataSource delegate, boolean readOnly) {
+        this.delegate = delegate;
+        this.readOnly = readOnly;
+    }
+
+    @Override
+    public XAConnection getXAConnection() throws SQLException {
+        return new JoinableXAConnection(delegate.getXAConnection());
+    }
+
+    @Override
+    public XAConnection getXAConnection(String user, String password) throws SQLException {
+        return new JoinableXAConnection(delegate.getXAConnection(user, password));
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return delegate.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        delegate.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        delegate.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return delegate.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return delegate.getParentLogger();
+    }
+
+    private class JoinableXAConnection implements XAConnection {
+
+        private final XAConnection xaConnection;
+        private final JoinableXAResource xaResource;
+
+        JoinableXAConnection(XAConnection xaConnection) throws SQLException {
+            this.xaConnection = xaConnection;
+            this.xaResource = new JoinableXAResource(xaConnection.getXAResource());
+        }
+
+        @Override
+        public XAResource getXAResource() {
+            return xaResource;
+        }
+
+        @Override
+        public java.sql.Connection getConnection() throws SQLException {
+            return xaConnection.getConnection();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            xaConnection.close();
+        }
+
+        @Override
+        public void addConnectionEventListener(ConnectionEventListener listener) {
+            xaConnection.addConnectionEventListener(listener);
+        }
+
+        @Override
+        public void removeConnectionEventListener(ConnectionEventListener listener) {
+            xaConnection.removeConnectionEventListener(listener);
+        }
+
+        @Override
+        public void addStatementEventListener(StatementEventListener listener) {
+            xaConnection.addStatementEventListener(listener);
+        }
+
+        @Override
+        public void removeStatementEventListener(StatementEventListener listener) {
+            xaConnection.removeStatementEventListener(listener);
+        }
+    }
+
+    private class JoinableXAResource implements XAResource {
+
+        private final XAResource xaResource;
+        private Xid current;
+        private boolean joined;
+
+        JoinableXAResource(XAResource xaResource) {
+            this.xaResource = xaResource;
+        }
+
+        @Override
+        public boolean isSameRM(XAResource other) {
+            return other instanceof JoinableXAResource && delegate == ((JoinableXAResource) other).resourceManager();
+        }
+
+        private XADataSource resourceManager() {
+            return delegate;
+        }
+
+        @Override
+        public void start(Xid xid, int flags) throws XAException {
+            if ((flags & TMJOIN) == TMJOIN) {
+                joined = true;
+            } else if (!joined) {
+                xaResource.start(xid, flags);
+            }
+            current = xid;
+        }
+
+        @Override
+        public void end(Xid xid, int flags) throws XAException {
+            if (current == null || !current.equals(xid)) {
+                throw new XAException(XAException.XAER_NOTA);
+            }
+            if (joined) {
+                if ((flags & TMSUSPEND) != TMSUSPEND) {
+                    joined = false;
+                    current = null;
+                }
+            } else {
+                xaResource.end(xid, flags);
+            }
+        }
+
+        @Override
+        public int prepare(Xid xid) throws XAException {
+            if (readOnly) {
+                xaResource.rollback(xid);
+                current = null;
+                return XA_RDONLY;
+            }
+            return xaResource.prepare(xid);
+        }
+
+        @Override
+        public void commit(Xid xid, boolean onePhase) throws XAException {
+            current = null;
+            xaResource.commit(xid, onePhase);
+        }
+
+        @Override
+        public void rollback(Xid xid) throws XAException {
+            current = null;
+            xaResource.rollback(xid);
+        }
+
+        @Override
+        public void forget(Xid xid) throws XAException {
+            current = null;
+            xaResource.forget(xid);
+        }
+
+        @Override
+        public Xid[] recover(int flag) throws XAException {
+            return xaResource.recover(flag);
+        }
+
+        @Override
+        public int getTransactionTimeout() throws XAException {
+            return xaResource.getTransactionTimeout();
+        }
+
+        @Override
+        public boolean setTransactionTimeout(int seconds) throws XAException {
+            return xaResource.setTransactionTimeout(seconds);
+        }
+    }
+
+}
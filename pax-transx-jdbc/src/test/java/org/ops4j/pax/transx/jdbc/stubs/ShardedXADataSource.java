@@ -0,0 +1,147 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jdbc.stubs;
+
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.ShardingKey;
+import java.util.logging.Logger;
+import javax.sql.XAConnection;
+import javax.sql.XAConnectionBuilder;
+import javax.sql.XADataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * H2 data source where each sharding key selects its own in-memory database,
+ * named after the base database and the key.
+ */
+public class ShardedXADataSource implements XADataSource {
+
+    private final String url;
+
+    public ShardedXADataSource(String url) {
+        this.url = url;
+    }
+
+    public static ShardingKey key(String name) {
+        return new Key(name);
+    }
+
+    @Override
+    public XAConnection getXAConnection() throws SQLException {
+        return getXAConnection(null, null, null);
+    }
+
+    @Override
+    public XAConnection getXAConnection(String user, String password) throws SQLException {
+        return getXAConnection(null, user, password);
+    }
+
+    @Override
+    public XAConnectionBuilder createXAConnectionBuilder() {
+        return new XAConnectionBuilder() {
+            private ShardingKey shardingKey;
+            private String user;
+            private String password;
+
+            @Override
+            public XAConnectionBuilder user(String user) {
+                this.user = user;
+                return this;
+            }
+
+            @Override
+            public XAConnectionBuilder password(String password) {
+                this.password = password;
+                return this;
+            }
+
+            @Override
+            public XAConnectionBuilder shardingKey(ShardingKey shardingKey) {
+                this.shardingKey = shardingKey;
+                return this;
+            }
+
+            @Override
+            public XAConnectionBuilder superShardingKey(ShardingKey superShardingKey) {
+                return this;
+            }
+
+            @Override
+            public XAConnection build() throws SQLException {
+                return getXAConnection(shardingKey, user, password);
+            }
+        };
+    }
+
+    private XAConnection getXAConnection(ShardingKey shardingKey, String user, String password) throws SQLException {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL(shardingKey != null ? url + "_" + shardingKey : url);
+        ds.setUser(user != null ? user : "sa");
+        ds.setPassword(password != null ? password : "");
+        return ds.getXAConnection();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return 0;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    private static final class Key implements ShardingKey {
+
+        private final String name;
+
+        Key(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && name.equals(((Key) o).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+}
@@ -15,11 +15,15 @@
  */
 package org.ops4j.pax.transx.jms;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import javax.jms.ConnectionFactory;
+import javax.jms.Session;
 import javax.jms.XAConnectionFactory;
 import javax.resource.spi.ConnectionManager;
 import javax.resource.spi.ManagedConnectionFactory;
@@ -28,6 +32,9 @@ import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
 import org.ops4j.pax.transx.connection.ExceptionSorter;
 import org.ops4j.pax.transx.connection.NoExceptionsAreFatalSorter;
 import org.ops4j.pax.transx.connector.ConnectionManagerBuilder;
+import org.ops4j.pax.transx.connector.ConnectionPool;
+import org.ops4j.pax.transx.connector.ConnectionPriority;
+import org.ops4j.pax.transx.jms.impl.ConnectionRequestInfoImpl;
 import org.ops4j.pax.transx.jms.impl.ManagedConnectionFactoryImpl;
 import org.ops4j.pax.transx.tm.TransactionManager;
 
@@ -90,6 +97,208 @@ public class ManagedConnectionFactoryBuilder {
         return this;
     }
 
+    public ManagedConnectionFactoryBuilder readOnlyPrepare(boolean readOnlyPrepare) {
+        builder.readOnlyPrepare(readOnlyPrepare);
+        return this;
+    }
+
+    public ManagedConnectionFactoryBuilder lastResource(boolean lastResource) {
+        builder.lastResource(lastResource);
+        return this;
+    }
+
+    /**
+     * Do not start the pool until the first session is requested.
+     */
+    public ManagedConnectionFactoryBuilder lazyStart(boolean lazyStart) {
+        builder.lazyStart(lazyStart);
+        return this;
+    }
+
+    /**
+     * Create the {@code minIdle} connections when the pool is built, and fail the build
+     * if they are not all available within this number of milliseconds.
+     */
+    public ManagedConnectionFactoryBuilder initializationTimeout(long initializationTimeoutMs) {
+        builder.initializationTimeout(initializationTimeoutMs);
+        return this;
+    }
+
+    public ManagedConnectionFactoryBuilder initializationTimeout(long initializationTimeout, TimeUnit unit) {
+        builder.initializationTimeout(unit.toMillis(initializationTimeout));
+        return this;
+    }
+
+    public ManagedConnectionFactoryBuilder warmUpConcurrency(int warmUpConcurrency) {
+        builder.warmUpConcurrency(warmUpConcurrency);
+        return this;
+    }
+
+    /**
+     * Adjust the minimum number of idle connections to the observed demand,
+     * between {@code adaptiveMinIdle} and {@code maxPoolSize}.
+     */
+    public ManagedConnectionFactoryBuilder adaptiveSizing(boolean adaptiveSizing) {
+        builder.adaptiveSizing(adaptiveSizing);
+        return this;
+    }
+
+    public ManagedConnectionFactoryBuilder adaptiveMinIdle(int adaptiveMinIdle) {
+        builder.adaptiveMinIdle(adaptiveMinIdle);
+        return this;
+    }
+
+    /**
+     * Record the daily demand of the pool in this file, and use it to create idle connections
+     * shortly before the recorded ramps.
+     */
+    public ManagedConnectionFactoryBuilder demandProfile(Path demandProfile) {
+        builder.demandProfile(demandProfile);
+        return this;
+    }
+
+    /**
+     * Whether borrowers wait for a suspended pool to be resumed, or fail immediately.
+     */
+    public ManagedConnectionFactoryBuilder suspendPolicy(ConnectionPool.SuspendPolicy suspendPolicy) {
+        builder.suspendPolicy(suspendPolicy);
+        return this;
+    }
+
+    /**
+     * Evict all the connections of the pool at once when this number of fatal errors,
+     * as classified by the exception sorter, occur within {@code fatalErrorWindow}.
+     */
+    public ManagedConnectionFactoryBuilder fatalErrorThreshold(int fatalErrorThreshold) {
+        builder.fatalErrorThreshold(fatalErrorThreshold);
+        return this;
+    }
+
+    public ManagedConnectionFactoryBuilder fatalErrorWindow(long fatalErrorWindowMs) {
+        builder.fatalErrorWindow(fatalErrorWindowMs);
+        return this;
+    }
+
+    public ManagedConnectionFactoryBuilder fatalErrorWindow(long fatalErrorWindow, TimeUnit unit) {
+        builder.fatalErrorWindow(unit.toMillis(fatalErrorWindow));
+        return this;
+    }
+
+    /**
+     * Stop creating connections for {@code circuitBreakerOpenTime} after this number of consecutive
+     * failures, failing the borrowers immediately instead of letting them wait.
+     */
+    public ManagedConnectionFactoryBuilder circuitBreakerThreshold(int circuitBreakerThreshold) {
+        builder.circuitBreakerThreshold(circuitBreakerThreshold);
+        return this;
+    }
+
+    public ManagedConnectionFactoryBuilder circuitBreakerOpenTime(long circuitBreakerOpenTimeMs) {
+        builder.circuitBreakerOpenTime(circuitBreakerOpenTimeMs);
+        return this;
+    }
+
+    public ManagedConnectionFactoryBuilder circuitBreakerOpenTime(long circuitBreakerOpenTime, TimeUnit unit) {
+        builder.circuitBreakerOpenTime(unit.toMillis(circuitBreakerOpenTime));
+        return this;
+    }
+
+    /**
+     * Maximum number of connections created per second.
+     */
+    public ManagedConnectionFactoryBuilder connectionCreationRate(double connectionCreationRate) {
+        builder.connectionCreationRate(connectionCreationRate);
+        return this;
+    }
+
+    /**
+     * Maximum number of connections past their {@code maxLifetime} replaced at the same time,
+     * creating the replacement before retiring the old connection, which may exceed {@code maxPoolSize}
+     * by up to this number. {@code 0} (the default) retires them first.
+     */
+    public ManagedConnectionFactoryBuilder maxConcurrentRetirements(int maxConcurrentRetirements) {
+        builder.maxConcurrentRetirements(maxConcurrentRetirements);
+        return this;
+    }
+
+    /**
+     * Maximum number of threads waiting for a connection, further requests are rejected immediately.
+     */
+    public ManagedConnectionFactoryBuilder maxWaiters(int maxWaiters) {
+        builder.maxWaiters(maxWaiters);
+        return this;
+    }
+
+    /**
+     * Reject requests immediately when the estimated wait for a connection exceeds this number of milliseconds.
+     */
+    public ManagedConnectionFactoryBuilder maxEstimatedWait(long maxEstimatedWaitMs) {
+        builder.maxEstimatedWait(maxEstimatedWaitMs);
+        return this;
+    }
+
+    public ManagedConnectionFactoryBuilder maxEstimatedWait(long maxEstimatedWait, TimeUnit unit) {
+        builder.maxEstimatedWait(unit.toMillis(maxEstimatedWait));
+        return this;
+    }
+
+    /**
+     * Number of connections which can only be used by requests of the given priority or a higher one.
+     */
+    public ManagedConnectionFactoryBuilder reservedConnections(ConnectionPriority priority, int connections) {
+        builder.reservedConnections(priority, connections);
+        return this;
+    }
+
+    /**
+     * Number of connections guaranteed to each subpool (i.e. each user) under {@code maxTotalConnections},
+     * only the connections beyond it can be reclaimed by the other subpools.
+     */
+    public ManagedConnectionFactoryBuilder softQuota(int softQuota) {
+        builder.softQuota(softQuota);
+        return this;
+    }
+
+    /**
+     * Maximum number of connections of each subpool (i.e. each user).
+     */
+    public ManagedConnectionFactoryBuilder hardQuota(int hardQuota) {
+        builder.hardQuota(hardQuota);
+        return this;
+    }
+
+    /**
+     * Share a limit on the number of connections with the other pools of the process joining the same budget,
+     * typically all the pools connecting to the same server.
+     */
+    public ManagedConnectionFactoryBuilder connectionBudget(String name, int maxConnections) {
+        builder.connectionBudget(name, maxConnections);
+        return this;
+    }
+
+    /**
+     * Close the subpools (i.e. one per user) from which no connection has been borrowed for this time, in milliseconds.
+     */
+    public ManagedConnectionFactoryBuilder subpoolIdleTimeout(long subpoolIdleTimeout) {
+        builder.subpoolIdleTimeout(subpoolIdleTimeout);
+        return this;
+    }
+
+    public ManagedConnectionFactoryBuilder sharedExecutors(boolean sharedExecutors) {
+        builder.sharedExecutors(sharedExecutors);
+        return this;
+    }
+
+    public ManagedConnectionFactoryBuilder sharedCreationConcurrency(int sharedCreationConcurrency) {
+        builder.sharedCreationConcurrency(sharedCreationConcurrency);
+        return this;
+    }
+
+    public ManagedConnectionFactoryBuilder sharedDestructionConcurrency(int sharedDestructionConcurrency) {
+        builder.sharedDestructionConcurrency(sharedDestructionConcurrency);
+        return this;
+    }
+
     public ManagedConnectionFactoryBuilder minIdle(int minSize) {
         builder.minIdle(minSize);
         return this;
@@ -193,6 +402,107 @@ public class ManagedConnectionFactoryBuilder {
         }
         // TODO: exception sorter
 //        Object exceptionSorter = property.apply("exceptionSorter");
+        Object lastResource = property.apply("lastResource");
+        if (lastResource != null) {
+            this.lastResource("true".equalsIgnoreCase(lastResource.toString()));
+        }
+        Object lazyStart = property.apply("lazyStart");
+        if (lazyStart != null) {
+            this.lazyStart("true".equalsIgnoreCase(lazyStart.toString()));
+        }
+        Object initializationTimeout = property.apply("initializationTimeout");
+        if (initializationTimeout != null) {
+            this.initializationTimeout(toInt(initializationTimeout, "initializationTimeout"));
+        }
+        Object warmUpConcurrency = property.apply("warmUpConcurrency");
+        if (warmUpConcurrency != null) {
+            this.warmUpConcurrency(toInt(warmUpConcurrency, "warmUpConcurrency"));
+        }
+        Object adaptiveSizing = property.apply("adaptiveSizing");
+        if (adaptiveSizing != null) {
+            this.adaptiveSizing("true".equalsIgnoreCase(adaptiveSizing.toString()));
+        }
+        Object adaptiveMinIdle = property.apply("adaptiveMinIdle");
+        if (adaptiveMinIdle != null) {
+            this.adaptiveMinIdle(toInt(adaptiveMinIdle, "adaptiveMinIdle"));
+        }
+        Object demandProfile = property.apply("demandProfile");
+        if (demandProfile != null) {
+            this.demandProfile(Paths.get(demandProfile.toString()));
+        }
+        Object suspendPolicy = property.apply("suspendPolicy");
+        if (suspendPolicy != null) {
+            this.suspendPolicy(ConnectionPool.SuspendPolicy.valueOf(suspendPolicy.toString().toUpperCase(Locale.ROOT)));
+        }
+        Object fatalErrorThreshold = property.apply("fatalErrorThreshold");
+        if (fatalErrorThreshold != null) {
+            this.fatalErrorThreshold(toInt(fatalErrorThreshold, "fatalErrorThreshold"));
+        }
+        Object fatalErrorWindow = property.apply("fatalErrorWindow");
+        if (fatalErrorWindow != null) {
+            this.fatalErrorWindow(toInt(fatalErrorWindow, "fatalErrorWindow"));
+        }
+        Object circuitBreakerThreshold = property.apply("circuitBreakerThreshold");
+        if (circuitBreakerThreshold != null) {
+            this.circuitBreakerThreshold(toInt(circuitBreakerThreshold, "circuitBreakerThreshold"));
+        }
+        Object circuitBreakerOpenTime = property.apply("circuitBreakerOpenTime");
+        if (circuitBreakerOpenTime != null) {
+            this.circuitBreakerOpenTime(toInt(circuitBreakerOpenTime, "circuitBreakerOpenTime"));
+        }
+        Object connectionCreationRate = property.apply("connectionCreationRate");
+        if (connectionCreationRate != null) {
+            this.connectionCreationRate(toDouble(connectionCreationRate, "connectionCreationRate"));
+        }
+        Object maxConcurrentRetirements = property.apply("maxConcurrentRetirements");
+        if (maxConcurrentRetirements != null) {
+            this.maxConcurrentRetirements(toInt(maxConcurrentRetirements, "maxConcurrentRetirements"));
+        }
+        Object maxWaiters = property.apply("maxWaiters");
+        if (maxWaiters != null) {
+            this.maxWaiters(toInt(maxWaiters, "maxWaiters"));
+        }
+        Object maxEstimatedWait = property.apply("maxEstimatedWait");
+        if (maxEstimatedWait != null) {
+            this.maxEstimatedWait(toInt(maxEstimatedWait, "maxEstimatedWait"));
+        }
+        for (ConnectionPriority priority : ConnectionPriority.values()) {
+            String key = "reservedConnections." + priority.name().toLowerCase(Locale.ROOT);
+            Object reservedConnections = property.apply(key);
+            if (reservedConnections != null) {
+                this.reservedConnections(priority, toInt(reservedConnections, key));
+            }
+        }
+        Object softQuota = property.apply("softQuota");
+        if (softQuota != null) {
+            this.softQuota(toInt(softQuota, "softQuota"));
+        }
+        Object hardQuota = property.apply("hardQuota");
+        if (hardQuota != null) {
+            this.hardQuota(toInt(hardQuota, "hardQuota"));
+        }
+        Object connectionBudget = property.apply("connectionBudget");
+        if (connectionBudget != null) {
+            Object maxConnections = property.apply("connectionBudget.maxConnections");
+            this.connectionBudget(connectionBudget.toString(),
+                    maxConnections != null ? toInt(maxConnections, "connectionBudget.maxConnections") : 0);
+        }
+        Object subpoolIdleTimeout = property.apply("subpoolIdleTimeout");
+        if (subpoolIdleTimeout != null) {
+            this.subpoolIdleTimeout(toInt(subpoolIdleTimeout, "subpoolIdleTimeout"));
+        }
+        Object sharedExecutors = property.apply("sharedExecutors");
+        if (sharedExecutors != null) {
+            this.sharedExecutors("true".equalsIgnoreCase(sharedExecutors.toString()));
+        }
+        Object sharedCreationConcurrency = property.apply("sharedCreationConcurrency");
+        if (sharedCreationConcurrency != null) {
+            this.sharedCreationConcurrency(toInt(sharedCreationConcurrency, "sharedCreationConcurrency"));
+        }
+        Object sharedDestructionConcurrency = property.apply("sharedDestructionConcurrency");
+        if (sharedDestructionConcurrency != null) {
+            this.sharedDestructionConcurrency(toInt(sharedDestructionConcurrency, "sharedDestructionConcurrency"));
+        }
         Object minIdle = property.apply("minIdle");
         if (minIdle != null) {
             this.minIdle(toInt(minIdle, "minIdle"));
@@ -223,6 +533,14 @@ public class ManagedConnectionFactoryBuilder {
         }
     }
 
+    private double toDouble(Object v, String property) {
+        try {
+            return Double.parseDouble(v.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Can't parse property \"" + property + "\" as double");
+        }
+    }
+
     private int toInt(Object v, String property) {
         try {
             return Integer.parseInt(v.toString());
@@ -243,6 +561,11 @@ public class ManagedConnectionFactoryBuilder {
             mcf.setClientID(clientID);
             managedConnectionFactory = mcf;
         }
+        if (managedConnectionFactory instanceof ManagedConnectionFactoryImpl) {
+            // sessions of connections created without credentials, as returned by createSession()
+            builder.defaultConnectionRequestInfo(new ConnectionRequestInfoImpl(false, Session.AUTO_ACKNOWLEDGE, null, null,
+                    ((ManagedConnectionFactoryImpl) managedConnectionFactory).getClientID()));
+        }
         builder.managedConnectionFactory(managedConnectionFactory);
         ConnectionManager cm = builder.build();
         return (ConnectionFactory) managedConnectionFactory.createConnectionFactory(cm);
@@ -29,10 +29,11 @@ import javax.security.auth.Subject;
 import org.ops4j.pax.transx.connection.ExceptionSorter;
 import org.ops4j.pax.transx.connection.utils.AbstractManagedConnection;
 import org.ops4j.pax.transx.connection.utils.CredentialExtractor;
+import org.ops4j.pax.transx.connector.UpdateTrackingManagedConnection;
 
 import static org.ops4j.pax.transx.jms.impl.Utils.trace;
 
-public class ManagedConnectionImpl extends AbstractManagedConnection<ManagedConnectionFactoryImpl, ManagedConnectionImpl, Session, SessionImpl> implements ManagedConnection {
+public class ManagedConnectionImpl extends AbstractManagedConnection<ManagedConnectionFactoryImpl, ManagedConnectionImpl, Session, SessionImpl> implements ManagedConnection, UpdateTrackingManagedConnection {
 
     private final XAConnection xaConnection;
     private final XASession xaSession;
@@ -166,6 +167,7 @@ public class ManagedConnectionImpl extends AbstractManagedConnection<ManagedConn
         return new LocalTransaction() {
             @Override
             public void begin() throws ResourceException {
+                resetPendingUpdates();
             }
 
             @Override
@@ -338,6 +338,13 @@ public class SessionImpl extends AbstractConnectionHandle<ManagedConnectionFacto
         return (E) new JMSException(msg).initCause(e);
     }
 
+    /**
+     * Sending, publishing and receiving (which acknowledges the message) are part of the session's work.
+     */
+    private static boolean isUpdate(String method) {
+        return method.equals("send") || method.equals("publish") || method.startsWith("receive");
+    }
+
     private <T extends AutoCloseable> T wrap(Class<T> clazz, T closeable) {
         closeables.add(closeable);
         return clazz.cast(Proxy.newProxyInstance(closeable.getClass().getClassLoader(), new Class[]{ clazz },
@@ -346,6 +353,8 @@ public class SessionImpl extends AbstractConnectionHandle<ManagedConnectionFacto
                             && method.getParameterCount() == 0
                             && method.getReturnType() == void.class) {
                         closeables.remove(closeable);
+                    } else if (isUpdate(method.getName())) {
+                        mc.markUpdated();
                     }
                     try {
                         return method.invoke(closeable, args);